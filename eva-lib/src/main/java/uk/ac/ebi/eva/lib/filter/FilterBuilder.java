@@ -21,6 +21,7 @@ package uk.ac.ebi.eva.lib.filter;
 import org.opencb.biodata.models.variant.Variant;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -43,10 +44,21 @@ public class FilterBuilder {
                    .build();
     }
 
+    /**
+     * @return the filters, sorted in the order of their specs, so equal queries get equal lists
+     */
     public List<VariantEntityRepositoryFilter> build() {
+        filters.sort(Comparator.comparing(VariantEntityRepositoryFilter::getSpec));
         return filters;
     }
 
+    /**
+     * @return the canonical specs of the filters, sorted and without duplicates
+     */
+    public List<FilterSpec> buildSpecs() {
+        return FilterSpec.canonicalize(filters);
+    }
+
     public FilterBuilder withMaf(String maf) {
         if (maf != null && !maf.isEmpty()) {
             filters.add(new VariantEntityRepositoryMafFilter(maf));
@@ -102,4 +114,11 @@ public class FilterBuilder {
         }
         return this;
     }
+
+    public FilterBuilder withXrefs(List<String> xrefIds) {
+        if (xrefIds != null && !xrefIds.isEmpty()) {
+            filters.add(new VariantEntityRepositoryXrefFilter(xrefIds));
+        }
+        return this;
+    }
 }
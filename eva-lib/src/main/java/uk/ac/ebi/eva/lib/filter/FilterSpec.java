@@ -0,0 +1,196 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.filter;
+
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import uk.ac.ebi.eva.lib.repository.VariantEntityRepository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Canonical form of a filter: the field, the relational operator and the normalised value. The values of an IN filter
+ * are sorted and deduplicated, so filters that select the same variants are equal. Lists of filters can be turned
+ * into a sorted list of specs, which can be used as a key by caches or printed in logs without building the Mongo
+ * criteria first.
+ */
+public final class FilterSpec implements Comparable<FilterSpec> {
+
+    private static final Comparator<Object> VALUE_ORDER = FilterSpec::compareValues;
+
+    private final String field;
+
+    private final VariantEntityRepository.RelationalOperator operator;
+
+    private final Object value;
+
+    public FilterSpec(String field, VariantEntityRepository.RelationalOperator operator, Object value) {
+        if (field == null || operator == null || value == null) {
+            throw new IllegalArgumentException("Field, operator and value must be provided to build a filter spec");
+        }
+        this.field = field;
+        this.operator = operator;
+        this.value = normalise(value);
+    }
+
+    /**
+     * Natural order for values of the same class, element by element for lists, and string order otherwise. Values
+     * that sort the same but are not equal, such as 1 and 1L, are told apart by their class name.
+     */
+    private static int compareValues(Object value, Object other) {
+        int comparison;
+        if (value instanceof List && other instanceof List) {
+            comparison = compareLists((List<?>) value, (List<?>) other);
+        } else if (value instanceof Comparable && value.getClass() == other.getClass()) {
+            comparison = ((Comparable) value).compareTo(other);
+        } else {
+            comparison = String.valueOf(value).compareTo(String.valueOf(other));
+        }
+        if (comparison != 0) {
+            return comparison;
+        }
+        return value.getClass().getName().compareTo(other.getClass().getName());
+    }
+
+    private static int compareLists(List<?> values, List<?> others) {
+        for (int i = 0; i < values.size() && i < others.size(); i++) {
+            int comparison = compareValues(values.get(i), others.get(i));
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(values.size(), others.size());
+    }
+
+    private static Object normalise(Object value) {
+        if (value instanceof Collection) {
+            List<Object> values = new ArrayList<>(new LinkedHashSet<>((Collection<?>) value));
+            values.sort(VALUE_ORDER);
+            return Collections.unmodifiableList(values);
+        }
+        return value;
+    }
+
+    /**
+     * @return the specs of the filters, sorted and without duplicates. A null list has no specs
+     */
+    public static List<FilterSpec> canonicalize(Collection<? extends VariantEntityRepositoryFilter> filters) {
+        if (filters == null || filters.isEmpty()) {
+            return Collections.emptyList();
+        }
+        TreeSet<FilterSpec> specs = new TreeSet<>();
+        for (VariantEntityRepositoryFilter filter : filters) {
+            specs.add(filter.getSpec());
+        }
+        return Collections.unmodifiableList(new ArrayList<>(specs));
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public VariantEntityRepository.RelationalOperator getOperator() {
+        return operator;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public Criteria getCriteria() {
+        Criteria criteria = Criteria.where(field);
+
+        switch (operator) {
+            case EQ:
+                criteria = criteria.is(value);
+                break;
+            case GT:
+                criteria = criteria.gt(value);
+                break;
+            case LT:
+                criteria = criteria.lt(value);
+                break;
+            case GTE:
+                criteria = criteria.gte(value);
+                break;
+            case LTE:
+                criteria = criteria.lte(value);
+                break;
+            case IN:
+                criteria = criteria.in((Collection) value);
+                break;
+            default:
+                throw new IllegalArgumentException();
+        }
+
+        return criteria;
+    }
+
+    @Override
+    public int compareTo(FilterSpec other) {
+        int comparison = field.compareTo(other.field);
+        if (comparison != 0) {
+            return comparison;
+        }
+        comparison = operator.compareTo(other.operator);
+        if (comparison != 0) {
+            return comparison;
+        }
+        return VALUE_ORDER.compare(value, other.value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FilterSpec)) {
+            return false;
+        }
+
+        FilterSpec that = (FilterSpec) o;
+
+        if (!field.equals(that.field)) {
+            return false;
+        }
+        if (operator != that.operator) {
+            return false;
+        }
+        return value.equals(that.value);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = field.hashCode();
+        result = 31 * result + operator.hashCode();
+        result = 31 * result + value.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return field + " " + operator + " " + value;
+    }
+}
@@ -22,8 +22,6 @@ import org.springframework.data.mongodb.core.query.Criteria;
 
 import uk.ac.ebi.eva.lib.repository.VariantEntityRepository;
 
-import java.util.Collection;
-
 public abstract class VariantEntityRepositoryFilter<T> {
 
     public final static String ANNOTATION_FIELD = "annot";
@@ -56,36 +54,17 @@ public abstract class VariantEntityRepositoryFilter<T> {
         this.operator = operator;
     }
 
-    public Criteria getCriteria() {
-        Criteria criteria = Criteria.where(field);
-
-        switch (operator) {
-            case EQ:
-                criteria = criteria.is(value);
-                break;
-            case GT:
-                criteria = criteria.gt(value);
-                break;
-            case LT:
-                criteria = criteria.lt(value);
-                break;
-            case GTE:
-                criteria = criteria.gte(value);
-                break;
-            case LTE:
-                criteria = criteria.lte(value);
-                break;
-            case IN:
-                criteria = criteria.in((Collection) value);
-                break;
-            default:
-                throw new IllegalArgumentException();
-        }
+    /**
+     * @return the canonical form of this filter, equal for filters that select the same variants
+     */
+    public FilterSpec getSpec() {
+        return new FilterSpec(field, operator, value);
+    }
 
-        return criteria;
+    public Criteria getCriteria() {
+        return getSpec().getCriteria();
     }
 
-    // equals and hashcode methods generated by intellij
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -94,22 +73,17 @@ public abstract class VariantEntityRepositoryFilter<T> {
         }
 
         VariantEntityRepositoryFilter<?> that = (VariantEntityRepositoryFilter<?>) o;
-
-        if (!field.equals(that.field)) {
-            return false;
-        }
-        if (!value.equals(that.value)) {
-            return false;
-        }
-        return operator == that.operator;
+        return getSpec().equals(that.getSpec());
     }
 
     @Override
     public int hashCode() {
-        int result = field.hashCode();
-        result = 31 * result + value.hashCode();
-        result = 31 * result + operator.hashCode();
-        return result;
+        return getSpec().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return getSpec().toString();
     }
 
 }
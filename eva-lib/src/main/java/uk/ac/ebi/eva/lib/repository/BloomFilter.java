@@ -0,0 +1,107 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Set of strings that can answer "definitely not present" without false negatives, but may answer "present" for a
+ * small fraction of the strings that were never added. It uses about 10 bits per element for a 1% false positive
+ * probability, regardless of the length of the strings.
+ *
+ * <p>Elements can't be removed. Adding is not thread-safe, so a filter must be fully built before it is shared.
+ */
+class BloomFilter {
+
+    private static final double LN_2 = Math.log(2);
+
+    private final long[] bits;
+
+    private final long numBits;
+
+    private final int numHashFunctions;
+
+    BloomFilter(long expectedInsertions, double falsePositiveProbability) {
+        if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1) {
+            throw new IllegalArgumentException("The false positive probability must be between 0 and 1");
+        }
+        long insertions = Math.max(1, expectedInsertions);
+        bits = new long[(int) (getNumBits(insertions, falsePositiveProbability) / 64)];
+        numBits = bits.length * 64L;
+        numHashFunctions = Math.max(1, (int) Math.round((double) numBits / insertions * LN_2));
+    }
+
+    /**
+     * @return Number of bits of a filter built with the same arguments, without allocating it
+     */
+    static long getNumBits(long expectedInsertions, double falsePositiveProbability) {
+        long insertions = Math.max(1, expectedInsertions);
+        long optimalNumBits = (long) Math.ceil(-insertions * Math.log(falsePositiveProbability) / (LN_2 * LN_2));
+        return Math.max(1, (optimalNumBits + 63) / 64) * 64;
+    }
+
+    void put(String element) {
+        long hash1 = hash(element);
+        long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L);
+        for (int i = 1; i <= numHashFunctions; i++) {
+            long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % numBits;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(String element) {
+        long hash1 = hash(element);
+        long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L);
+        for (int i = 1; i <= numHashFunctions; i++) {
+            long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % numBits;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long getNumBits() {
+        return numBits;
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, followed by a mixing step so all the bits depend on the whole element
+     */
+    private static long hash(String element) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : element.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Finalization step of MurmurHash3
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb93fe53ec2f9L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
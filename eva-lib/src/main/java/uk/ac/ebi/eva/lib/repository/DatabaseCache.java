@@ -0,0 +1,151 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import com.mongodb.DB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Value computed from a whole database, such as its list of chromosomes, cached per database. The first request for
+ * a database computes the value in the calling thread, and concurrent requests wait for it instead of computing it
+ * again. Once the value is older than the time to live, it is still returned while a fresh one is computed in the
+ * background.
+ * <p>
+ * Values too expensive to compute within a request are read with {@link #getIfLoaded()} instead, which never blocks
+ * and computes the missing values in the background too.
+ */
+class DatabaseCache<V> {
+
+    protected static Logger logger = LoggerFactory.getLogger(DatabaseCache.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    private final Function<DB, V> loader;
+
+    private final long timeToLiveMillis;
+
+    private final Executor refreshExecutor;
+
+    private final ConcurrentMap<String, Entry> entries;
+
+    DatabaseCache(MongoTemplate mongoTemplate, Function<DB, V> loader, long timeToLiveMillis,
+                  Executor refreshExecutor) {
+        this.mongoTemplate = mongoTemplate;
+        this.loader = loader;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.refreshExecutor = refreshExecutor;
+        this.entries = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return the value of the database used by the current thread
+     */
+    V get() {
+        DB db = mongoTemplate.getDb();
+        return entries.computeIfAbsent(db.getName(), databaseName -> new Entry()).get(db);
+    }
+
+    /**
+     * @return the value of the database used by the current thread, or null if it hasn't been computed yet, in which
+     * case it starts being computed in the background
+     */
+    V getIfLoaded() {
+        DB db = mongoTemplate.getDb();
+        return entries.computeIfAbsent(db.getName(), databaseName -> new Entry()).getIfLoaded(db);
+    }
+
+    /**
+     * Discard all the values, so they are computed again the next time they are requested.
+     */
+    void invalidate() {
+        entries.clear();
+    }
+
+    private class Entry {
+
+        private final AtomicBoolean refreshing;
+
+        private volatile V value;
+
+        private volatile long loadedAt;
+
+        Entry() {
+            this.refreshing = new AtomicBoolean();
+        }
+
+        V get(DB db) {
+            V currentValue = value;
+            if (currentValue == null) {
+                synchronized (this) {
+                    if (value == null) {
+                        load(db);
+                    }
+                    return value;
+                }
+            }
+            if (System.currentTimeMillis() - loadedAt >= timeToLiveMillis) {
+                scheduleRefresh(db);
+            }
+            return currentValue;
+        }
+
+        V getIfLoaded(DB db) {
+            V currentValue = value;
+            if (currentValue == null || System.currentTimeMillis() - loadedAt >= timeToLiveMillis) {
+                scheduleRefresh(db);
+            }
+            return currentValue;
+        }
+
+        private void load(DB db) {
+            V loadedValue = loader.apply(db);
+            loadedAt = System.currentTimeMillis();
+            value = loadedValue;
+        }
+
+        private void scheduleRefresh(DB db) {
+            if (!refreshing.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                refreshExecutor.execute(() -> {
+                    try {
+                        load(db);
+                    } catch (RuntimeException e) {
+                        logger.warn("Could not refresh the cached value of database {}", db.getName(), e);
+                    } finally {
+                        refreshing.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                refreshing.set(false);
+                logger.debug("Cached value of database {} not refreshed, the executor is shut down", db.getName());
+            }
+        }
+    }
+}
@@ -24,11 +24,12 @@ import java.util.List;
  * This interface documents how features can be queried.
  *
  * This interface is used by Spring to create the query methods for features.
- * Spring creates the implementation automatically by looking at the method name.
+ * Spring creates the implementation automatically by looking at the method name, except for the methods of
+ * {@link FeatureRepositoryCustom}, implemented in {@link FeatureRepositoryImpl}.
  *
  * @author Jose Miguel Mut Lopez &lt;jmmut@ebi.ac.uk&gt;
  */
-public interface FeatureRepository extends MongoRepository<FeatureCoordinates, String> {
+public interface FeatureRepository extends MongoRepository<FeatureCoordinates, String>, FeatureRepositoryCustom {
 
     List<FeatureCoordinates> findByIdOrName(String id, String name);
 
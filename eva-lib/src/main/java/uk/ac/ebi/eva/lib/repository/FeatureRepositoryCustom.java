@@ -0,0 +1,37 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import uk.ac.ebi.eva.commons.models.data.FeatureCoordinates;
+
+import java.util.List;
+
+/**
+ * Interface to declare additional repository methods with a custom implementation,
+ * instead of the one that Spring Data would provide by default.
+ */
+interface FeatureRepositoryCustom {
+
+    /**
+     * Return the features whose ID or name is the given argument, from an in-process LRU cache of the features of
+     * each database. The features are only read from the database the first time they are requested, and when they
+     * have been evicted from the cache.
+     */
+    List<FeatureCoordinates> findCachedByIdOrName(String idOrName);
+}
@@ -0,0 +1,73 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import org.springframework.data.mongodb.MongoDbFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import uk.ac.ebi.eva.commons.models.data.FeatureCoordinates;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementation of the {@link FeatureRepositoryCustom} interface (relationship with {@link FeatureRepository}
+ * inferred by Spring).
+ */
+public class FeatureRepositoryImpl implements FeatureRepositoryCustom {
+
+    private static final int MAX_CACHED_FEATURES = 10000;
+
+    private MongoTemplate mongoTemplate;
+
+    /**
+     * Features by database name and ID or name, least recently used first
+     */
+    private final Map<String, List<FeatureCoordinates>> cachedFeatures;
+
+    public FeatureRepositoryImpl(MongoDbFactory mongoDbFactory, MappingMongoConverter mappingMongoConverter) {
+        mongoTemplate = new MongoTemplate(mongoDbFactory, mappingMongoConverter);
+        cachedFeatures = Collections.synchronizedMap(new LinkedHashMap<String, List<FeatureCoordinates>>(16, 0.75f,
+                                                                                                         true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<FeatureCoordinates>> eldest) {
+                return size() > MAX_CACHED_FEATURES;
+            }
+        });
+    }
+
+    @Override
+    public List<FeatureCoordinates> findCachedByIdOrName(String idOrName) {
+        String key = mongoTemplate.getDb().getName() + ":" + idOrName;
+        List<FeatureCoordinates> features = cachedFeatures.get(key);
+        if (features == null) {
+            // concurrent misses may query the same feature twice, which is cheaper than holding the lock meanwhile
+            Query query = new Query(new Criteria().orOperator(Criteria.where("id").is(idOrName),
+                                                              Criteria.where("name").is(idOrName)));
+            features = Collections.unmodifiableList(mongoTemplate.find(query, FeatureCoordinates.class));
+            cachedFeatures.put(key, features);
+        }
+        return features;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import org.opencb.biodata.models.feature.Region;
+
+import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Decides how a list of regions is queried. Overlapping and adjacent regions of the same chromosome are coalesced
+ * first, so the database doesn't scan the same index range twice. A short list is resolved by a single query, and a
+ * long one, such as a gene panel, is split into chunks that are queried in parallel and merged back in (chromosome,
+ * start) order.
+ */
+class RegionQueryPlanner {
+
+    /**
+     * Maximum number of regions in the "$or" of a single query
+     */
+    static final int MAX_REGIONS_PER_QUERY = 20;
+
+    /**
+     * Same order as the sort of the region queries
+     */
+    static final Comparator<VariantEntity> VARIANT_ORDER = Comparator.comparing(VariantEntity::getChromosome)
+                                                                     .thenComparingInt(VariantEntity::getStart);
+
+    private RegionQueryPlanner() {
+    }
+
+    /**
+     * @return the regions sorted by chromosome and start, with overlapping or adjacent regions merged into one
+     */
+    static List<Region> coalesce(List<Region> regions) {
+        Map<String, List<Region>> regionsByChromosome = new LinkedHashMap<>();
+        for (Region region : regions) {
+            regionsByChromosome.computeIfAbsent(region.getChromosome(), chromosome -> new ArrayList<>()).add(region);
+        }
+
+        List<Region> coalescedRegions = new ArrayList<>();
+        for (List<Region> chromosomeRegions : regionsByChromosome.values()) {
+            chromosomeRegions.sort(Comparator.comparing(Region::getStart));
+            Region current = chromosomeRegions.get(0);
+            for (Region next : chromosomeRegions.subList(1, chromosomeRegions.size())) {
+                if (next.getStart() <= current.getEnd() + 1) {
+                    current = new Region(current.getChromosome(), current.getStart(),
+                                         Math.max(current.getEnd(), next.getEnd()));
+                } else {
+                    coalescedRegions.add(current);
+                    current = next;
+                }
+            }
+            coalescedRegions.add(current);
+        }
+        coalescedRegions.sort(Comparator.comparing(Region::getChromosome));
+        return coalescedRegions;
+    }
+
+    static boolean isSingleQuery(List<Region> coalescedRegions) {
+        return coalescedRegions.size() <= MAX_REGIONS_PER_QUERY;
+    }
+
+    /**
+     * Splits the regions into consecutive chunks of similar size, at most one per thread
+     */
+    static List<List<Region>> split(List<Region> coalescedRegions, int maxChunks) {
+        int chunks = Math.min(maxChunks,
+                              (coalescedRegions.size() + MAX_REGIONS_PER_QUERY - 1) / MAX_REGIONS_PER_QUERY);
+        chunks = Math.max(1, chunks);
+        int chunkSize = (coalescedRegions.size() + chunks - 1) / chunks;
+
+        List<List<Region>> regionChunks = new ArrayList<>(chunks);
+        for (int from = 0; from < coalescedRegions.size(); from += chunkSize) {
+            regionChunks.add(coalescedRegions.subList(from, Math.min(from + chunkSize, coalescedRegions.size())));
+        }
+        return regionChunks;
+    }
+
+    /**
+     * Merges lists already sorted in (chromosome, start) order, skipping the variants found by more than one of them,
+     * which happens when a variant overlaps regions of different chunks.
+     *
+     * @param offset Number of merged variants to skip
+     * @param limit Maximum number of variants to return
+     */
+    static List<VariantEntity> merge(List<List<VariantEntity>> sortedLists, int offset, int limit) {
+        PriorityQueue<PeekingIterator> heads = new PriorityQueue<>(
+                Math.max(1, sortedLists.size()), (a, b) -> VARIANT_ORDER.compare(a.peek(), b.peek()));
+        for (List<VariantEntity> sortedList : sortedLists) {
+            if (!sortedList.isEmpty()) {
+                heads.add(new PeekingIterator(sortedList.iterator()));
+            }
+        }
+
+        List<VariantEntity> merged = new ArrayList<>(Math.min(limit, 1000));
+        Set<String> seen = new HashSet<>();
+        int skipped = 0;
+        while (!heads.isEmpty() && merged.size() < limit) {
+            PeekingIterator head = heads.poll();
+            VariantEntity variantEntity = head.next();
+            if (head.hasNext()) {
+                heads.add(head);
+            }
+            if (!seen.add(getKey(variantEntity))) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+            } else {
+                merged.add(variantEntity);
+            }
+        }
+        return merged;
+    }
+
+    private static String getKey(VariantEntity variantEntity) {
+        return variantEntity.getChromosome() + ":" + variantEntity.getStart() + ":" + variantEntity.getReference()
+                + ":" + variantEntity.getAlternate();
+    }
+
+    private static class PeekingIterator implements Iterator<VariantEntity> {
+
+        private final Iterator<VariantEntity> iterator;
+
+        private VariantEntity next;
+
+        PeekingIterator(Iterator<VariantEntity> iterator) {
+            this.iterator = iterator;
+            this.next = iterator.next();
+        }
+
+        VariantEntity peek() {
+            return next;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public VariantEntity next() {
+            VariantEntity current = next;
+            next = iterator.hasNext() ? iterator.next() : null;
+            return current;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import com.google.common.collect.Table;
+import org.opencb.biodata.models.variant.VariantSourceEntry;
+
+import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces the sparse samples data stored in the database, where only the samples that don't have the default
+ * genotype are listed by their index, with one entry per sample name.
+ *
+ * <p>All the samples that have the default genotype share the same immutable sample data instance, which is also
+ * reused across all the variants expanded by this object, so expanding a file with thousands of samples doesn't
+ * allocate a new map per sample. An instance is not thread-safe: it is meant to be used by a single query.
+ */
+class SamplesDataExpander {
+
+    static final String DEFAULT_GENOTYPE_KEY = "def";
+
+    static final String GENOTYPE_KEY = "GT";
+
+    private final Table<String, String, String[]> studyFileIdsToSampleNames;
+
+    private final Map<String, Map<String, String>> sharedSampleData;
+
+    /**
+     * @param studyFileIdsToSampleNames Table of study ID and file ID to the sample names, indexed by sample position
+     */
+    SamplesDataExpander(Table<String, String, String[]> studyFileIdsToSampleNames) {
+        this.studyFileIdsToSampleNames = studyFileIdsToSampleNames;
+        this.sharedSampleData = new HashMap<>();
+    }
+
+    VariantEntity expand(VariantEntity variantEntity) {
+        for (VariantSourceEntry variantSourceEntry : variantEntity.getSourceEntries().values()) {
+            expand(variantSourceEntry);
+        }
+        return variantEntity;
+    }
+
+    VariantSourceEntry expand(VariantSourceEntry variantSourceEntry) {
+        Map<String, Map<String, String>> samplesData = variantSourceEntry.getSamplesData();
+        if ((samplesData == null) || (samplesData.size() == 0)) {
+            return variantSourceEntry;
+        }
+
+        String[] sampleNames = studyFileIdsToSampleNames.get(variantSourceEntry.getStudyId(),
+                                                             variantSourceEntry.getFileId());
+        Map<String, String> defaultSampleData = samplesData.get(DEFAULT_GENOTYPE_KEY);
+        if (sampleNames == null || defaultSampleData == null) {
+            return variantSourceEntry;
+        }
+        Map<String, String> sharedDefaultSampleData = getSharedSampleData(defaultSampleData.get(GENOTYPE_KEY));
+
+        // Only the samples that don't have the default genotype are stored, usually a small fraction of them
+        List<Map.Entry<String, Map<String, String>>> storedSamplesData = new ArrayList<>(samplesData.size() - 1);
+        for (Map.Entry<String, Map<String, String>> sampleData : samplesData.entrySet()) {
+            if (!DEFAULT_GENOTYPE_KEY.equals(sampleData.getKey())) {
+                storedSamplesData.add(sampleData);
+            }
+        }
+        samplesData.clear();
+
+        for (String sampleName : sampleNames) {
+            if (sampleName != null) {
+                samplesData.put(sampleName, sharedDefaultSampleData);
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> sampleData : storedSamplesData) {
+            samplesData.put(getSampleName(sampleNames, sampleData.getKey()), sampleData.getValue());
+        }
+        return variantSourceEntry;
+    }
+
+    private Map<String, String> getSharedSampleData(String genotype) {
+        return sharedSampleData.computeIfAbsent(genotype, gt -> Collections.singletonMap(GENOTYPE_KEY, gt));
+    }
+
+    /**
+     * @return the name of the sample in the given position, or the position itself if it is not a known sample
+     */
+    private static String getSampleName(String[] sampleNames, String samplePosition) {
+        try {
+            int position = Integer.parseInt(samplePosition);
+            if (position >= 0 && position < sampleNames.length && sampleNames[position] != null) {
+                return sampleNames[position];
+            }
+        } catch (NumberFormatException e) {
+            // not a sample position, keep the key untouched
+        }
+        return samplePosition;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import uk.ac.ebi.eva.commons.models.data.VariantSourceEntity;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the sample positions of every file, inverted to map each position to the sample name, which is needed
+ * to replace the sample indexes in the variants retrieved from the database.
+ *
+ * <p>There is one table per database, built the first time it is requested and shared by all the threads. The files
+ * collection is polled at most once per check interval: if its number of documents changed, the table is rebuilt.
+ */
+public class SamplesPositionCache {
+
+    private static final long DEFAULT_CHECK_INTERVAL_MILLIS = 60_000;
+
+    protected static Logger logger = LoggerFactory.getLogger(SamplesPositionCache.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    private final long checkIntervalMillis;
+
+    private final ConcurrentMap<String, DatabaseSamplesPosition> databasesSamplesPosition;
+
+    private final AtomicLong hits;
+
+    private final AtomicLong misses;
+
+    public SamplesPositionCache(MongoTemplate mongoTemplate) {
+        this(mongoTemplate, DEFAULT_CHECK_INTERVAL_MILLIS);
+    }
+
+    public SamplesPositionCache(MongoTemplate mongoTemplate, long checkIntervalMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.checkIntervalMillis = checkIntervalMillis;
+        this.databasesSamplesPosition = new ConcurrentHashMap<>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    /**
+     * @return Table of study ID and file ID to the sample names indexed by their position, for the database used by
+     * the current thread
+     */
+    public Table<String, String, String[]> getStudyFileIdsToSampleNames() {
+        String databaseName = mongoTemplate.getDb().getName();
+        return databasesSamplesPosition.computeIfAbsent(databaseName, DatabaseSamplesPosition::new).get();
+    }
+
+    /**
+     * Discard all the cached tables, so they are rebuilt the next time they are requested.
+     */
+    public void invalidate() {
+        databasesSamplesPosition.clear();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private long countFiles() {
+        return mongoTemplate.count(new Query(), VariantSourceEntity.class);
+    }
+
+    private Table<String, String, String[]> buildStudyFileIdsToSampleNames() {
+        List<VariantSourceEntity> variantSourceEntities = mongoTemplate.findAll(VariantSourceEntity.class);
+
+        Table<String, String, String[]> studyFileIdsToSampleNames = HashBasedTable.create();
+
+        for (VariantSourceEntity variantSourceEntity : variantSourceEntities) {
+            if (variantSourceEntity.getSamplesPosition() == null) {
+                continue;
+            }
+
+            String studyId = variantSourceEntity.getStudyId();
+            String fileId = variantSourceEntity.getFileId();
+
+            Map<String, Integer> samplesPositionFromVariantSource = variantSourceEntity.getSamplesPosition();
+            int samplesCount = 0;
+            for (Integer position : samplesPositionFromVariantSource.values()) {
+                samplesCount = Math.max(samplesCount, position + 1);
+            }
+            String[] sampleNames = new String[samplesCount];
+            for (Map.Entry<String, Integer> entry : samplesPositionFromVariantSource.entrySet()) {
+                sampleNames[entry.getValue()] = entry.getKey();
+            }
+
+            studyFileIdsToSampleNames.put(studyId, fileId, sampleNames);
+        }
+
+        return studyFileIdsToSampleNames;
+    }
+
+    /**
+     * Table of a single database, along with the files count it was built from
+     */
+    private class DatabaseSamplesPosition {
+
+        private final String databaseName;
+
+        private volatile Table<String, String, String[]> studyFileIdsToSampleNames;
+
+        private volatile long filesCount;
+
+        private volatile long lastCheck;
+
+        DatabaseSamplesPosition(String databaseName) {
+            this.databaseName = databaseName;
+        }
+
+        Table<String, String, String[]> get() {
+            if (isFresh()) {
+                hits.incrementAndGet();
+                return studyFileIdsToSampleNames;
+            }
+            return refresh();
+        }
+
+        private boolean isFresh() {
+            return studyFileIdsToSampleNames != null
+                    && System.currentTimeMillis() - lastCheck < checkIntervalMillis;
+        }
+
+        private synchronized Table<String, String, String[]> refresh() {
+            // another thread may have refreshed the table while this one was waiting for the lock
+            if (isFresh()) {
+                hits.incrementAndGet();
+                return studyFileIdsToSampleNames;
+            }
+
+            long currentFilesCount = countFiles();
+            if (studyFileIdsToSampleNames == null || currentFilesCount != filesCount) {
+                misses.incrementAndGet();
+                logger.debug("Building samples position table for database {} ({} files)", databaseName,
+                             currentFilesCount);
+                studyFileIdsToSampleNames = buildStudyFileIdsToSampleNames();
+                filesCount = currentFilesCount;
+            } else {
+                hits.incrementAndGet();
+            }
+            lastCheck = System.currentTimeMillis();
+            return studyFileIdsToSampleNames;
+        }
+    }
+}
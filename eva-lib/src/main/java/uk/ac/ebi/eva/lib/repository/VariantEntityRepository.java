@@ -21,14 +21,18 @@ package uk.ac.ebi.eva.lib.repository;
 import org.opencb.biodata.models.feature.Region;
 import org.opencb.biodata.models.variant.Variant;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 
 import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
 import uk.ac.ebi.eva.lib.filter.VariantEntityRepositoryFilter;
+import uk.ac.ebi.eva.lib.repository.projections.ChromosomeSummary;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Spring MongoRepository for VariantEntity class.
@@ -39,23 +43,97 @@ public interface VariantEntityRepository extends MongoRepository<VariantEntity,
 
     enum RelationalOperator { EQ, GT, LT, GTE, LTE, IN }
 
+    /**
+     * How the genotypes of the samples are returned: not at all, as stored (the default genotype plus the positions
+     * of the samples with other genotypes) or with one entry per sample name.
+     */
+    enum GenotypesMode { NONE, SPARSE, FULL }
+
     List<VariantEntity> findByIdsAndComplexFilters(String id, List<VariantEntityRepositoryFilter> filters,
                                                    List<String> exclude,
                                                    Pageable pageable);
 
+    List<VariantEntity> findByIdsAndComplexFilters(String id, List<VariantEntityRepositoryFilter> filters,
+                                                   List<String> exclude, List<String> include, Pageable pageable);
+
     Long countByIdsAndComplexFilters(String id, List<VariantEntityRepositoryFilter> filters);
 
+    long countByIdsAndComplexFilters(String id, List<VariantEntityRepositoryFilter> filters, long maxCount);
+
+    CompletableFuture<Long> countByIdsAndComplexFiltersAsync(String id, List<VariantEntityRepositoryFilter> filters,
+                                                             long maxCount);
+
     List<VariantEntity> findByGenesAndComplexFilters(List<String> geneIds, List<VariantEntityRepositoryFilter> filters,
                                                      List<String> exclude, Pageable pageable);
 
+    List<VariantEntity> findByGenesAndComplexFilters(List<String> geneIds, List<VariantEntityRepositoryFilter> filters,
+                                                     List<String> exclude, Pageable pageable,
+                                                     GenotypesMode genotypesMode);
+
+    List<VariantEntity> findByGenesAndComplexFilters(List<String> geneIds, List<VariantEntityRepositoryFilter> filters,
+                                                     List<String> exclude, List<String> include, Pageable pageable,
+                                                     GenotypesMode genotypesMode);
+
     Long countByGenesAndComplexFilters(List<String> geneIds, List<VariantEntityRepositoryFilter> filters);
 
+    long countByGenesAndComplexFilters(List<String> geneIds, List<VariantEntityRepositoryFilter> filters,
+                                       long maxCount);
+
+    CompletableFuture<Long> countByGenesAndComplexFiltersAsync(List<String> geneIds,
+                                                               List<VariantEntityRepositoryFilter> filters,
+                                                               long maxCount);
+
     List<VariantEntity> findByRegionsAndComplexFilters(List<Region> regions,
                                                        List<VariantEntityRepositoryFilter> filters,
                                                        List<String> exclude, Pageable pageable);
 
+    List<VariantEntity> findByRegionsAndComplexFilters(List<Region> regions,
+                                                       List<VariantEntityRepositoryFilter> filters,
+                                                       List<String> exclude, Pageable pageable,
+                                                       GenotypesMode genotypesMode);
+
+    List<VariantEntity> findByRegionsAndComplexFilters(List<Region> regions,
+                                                       List<VariantEntityRepositoryFilter> filters,
+                                                       List<String> exclude, List<String> include, Pageable pageable,
+                                                       GenotypesMode genotypesMode);
+
     Long countByRegionsAndComplexFilters(List<Region> regions, List<VariantEntityRepositoryFilter> filters);
 
+    long countByRegionsAndComplexFilters(List<Region> regions, List<VariantEntityRepositoryFilter> filters,
+                                         long maxCount);
+
+    CompletableFuture<Long> countByRegionsAndComplexFiltersAsync(List<Region> regions,
+                                                                 List<VariantEntityRepositoryFilter> filters,
+                                                                 long maxCount);
+
+    VariantEntitySeekPage findByRegionsAndComplexFiltersAfter(List<Region> regions,
+                                                              List<VariantEntityRepositoryFilter> filters,
+                                                              List<String> exclude, VariantSeekPosition after,
+                                                              int limit);
+
+    boolean existsByIdsAndComplexFilters(String id, List<VariantEntityRepositoryFilter> filters);
+
+    boolean existsByChromosomeAndStartAndAllelesAndComplexFilters(String chromosome, int start, String reference,
+                                                                  String alternate,
+                                                                  List<VariantEntityRepositoryFilter> filters);
+
+    boolean existsByChromosomeAndStartAndAltAndStudyIn(String chromosome, int start, String alternate,
+                                                      List<String> studyIds);
+
+    boolean existsByChromosomeAndStartAndTypeAndStudyIn(String chromosome, int start, Variant.VariantType type,
+                                                       List<String> studyIds);
+
+    List<List<VariantEntity>> findByIdsOrCoordinatesAndComplexFilters(List<String> variantIds,
+                                                                  List<VariantEntityRepositoryFilter> filters,
+                                                                  List<String> exclude);
+
+    List<Boolean> existsByIdsOrCoordinatesAndComplexFilters(List<String> variantIds,
+                                                            List<VariantEntityRepositoryFilter> filters);
+
+    CloseableIterator<VariantEntity> streamByRegionsAndComplexFilters(List<Region> regions,
+                                                                      List<VariantEntityRepositoryFilter> filters,
+                                                                      List<String> exclude);
+
     @Query("{'chr': ?0, 'start': ?1, 'ref': ?2, 'alt': ?3}")
     List<VariantEntity> findByChromosomeAndStartAndReferenceAndAlternate(String chromosome, int start,
                                                                          String reference, String alternate);
@@ -71,6 +149,16 @@ public interface VariantEntityRepository extends MongoRepository<VariantEntity,
 
     Set<String> findDistinctChromosomes();
 
+    List<ChromosomeSummary> findChromosomeSummaries();
+
+    void preloadVariantLengthStatistics();
+
+    void invalidateCachedQueries();
+
+    Map<String, Object> getQueryCacheStatistics();
+
+    Map<String, Object> getQueryCoalescingStatistics();
+
     @Query("{'chr': ?0, 'start': ?1, 'ref': ?2}")
     List<VariantEntity> findByChromosomeAndStartAndReference(String chr, int start, String ref);
 
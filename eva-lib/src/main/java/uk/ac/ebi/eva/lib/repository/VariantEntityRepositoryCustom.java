@@ -19,13 +19,18 @@
 package uk.ac.ebi.eva.lib.repository;
 
 import org.opencb.biodata.models.feature.Region;
+import org.opencb.biodata.models.variant.Variant;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.util.CloseableIterator;
 
 import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
 import uk.ac.ebi.eva.lib.filter.VariantEntityRepositoryFilter;
+import uk.ac.ebi.eva.lib.repository.projections.ChromosomeSummary;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Interface to declare additional repository methods with a custom implementation,
@@ -46,13 +51,82 @@ interface VariantEntityRepositoryCustom {
     List<VariantEntity> findByIdsAndComplexFilters(String id, List<VariantEntityRepositoryFilter> filters, List<String> exclude,
                                                    Pageable pageable);
 
+    /**
+     * Same as {@link #findByIdsAndComplexFilters(String, List, List, Pageable)}, retrieving only some fields.
+     *
+     * @param include List of strings, each matching a field in the variant Mongo documents. If not empty, only these
+     *                fields are retrieved, along with the coordinates, and the exclude list is ignored. The sample
+     *                names are not looked up unless "files" is included
+     */
+    List<VariantEntity> findByIdsAndComplexFilters(String id, List<VariantEntityRepositoryFilter> filters,
+                                                   List<String> exclude, List<String> include, Pageable pageable);
+
     Long countByIdsAndComplexFilters(String id, List<VariantEntityRepositoryFilter> filters);
 
+    /**
+     * Counts the variants that countByIdsAndComplexFilters would count, but stops at maxCount, so the cost of the
+     * query is bounded when there are many matches.
+     *
+     * @return number of matching variants, or maxCount if there are at least that many
+     */
+    long countByIdsAndComplexFilters(String id, List<VariantEntityRepositoryFilter> filters, long maxCount);
+
+    /**
+     * Runs countByIdsAndComplexFilters in a bounded thread pool, in the database selected for the calling thread,
+     * so it can be issued in parallel with the query for the results.
+     *
+     * @param maxCount Maximum number of variants to count, or 0 to count all of them exactly
+     */
+    CompletableFuture<Long> countByIdsAndComplexFiltersAsync(String id, List<VariantEntityRepositoryFilter> filters,
+                                                             long maxCount);
+
     List<VariantEntity> findByGenesAndComplexFilters(List<String> geneIds, List<VariantEntityRepositoryFilter> filters,
                                                      List<String> exclude, Pageable pageable);
 
+    /**
+     * Same as {@link #findByGenesAndComplexFilters(List, List, List, Pageable)}, choosing how the genotypes of the
+     * samples are returned.
+     *
+     * @param genotypesMode NONE doesn't retrieve the samples data from the database, SPARSE returns it as stored and
+     *                      FULL expands it to one entry per sample name
+     */
+    List<VariantEntity> findByGenesAndComplexFilters(List<String> geneIds, List<VariantEntityRepositoryFilter> filters,
+                                                     List<String> exclude, Pageable pageable,
+                                                     VariantEntityRepository.GenotypesMode genotypesMode);
+
+    /**
+     * Same as {@link #findByGenesAndComplexFilters(List, List, List, Pageable, VariantEntityRepository.GenotypesMode)},
+     * retrieving only some fields.
+     *
+     * @param include List of strings, each matching a field in the variant Mongo documents. If not empty, only these
+     *                fields are retrieved, along with the coordinates, and the exclude list is ignored. The sample
+     *                names are not looked up unless "files" is included
+     */
+    List<VariantEntity> findByGenesAndComplexFilters(List<String> geneIds, List<VariantEntityRepositoryFilter> filters,
+                                                     List<String> exclude, List<String> include, Pageable pageable,
+                                                     VariantEntityRepository.GenotypesMode genotypesMode);
+
     Long countByGenesAndComplexFilters(List<String> geneIds, List<VariantEntityRepositoryFilter> filters);
 
+    /**
+     * Counts the variants that countByGenesAndComplexFilters would count, but stops at maxCount, so the cost of the
+     * query is bounded when there are many matches.
+     *
+     * @return number of matching variants, or maxCount if there are at least that many
+     */
+    long countByGenesAndComplexFilters(List<String> geneIds, List<VariantEntityRepositoryFilter> filters,
+                                       long maxCount);
+
+    /**
+     * Runs countByGenesAndComplexFilters in a bounded thread pool, in the database selected for the calling thread,
+     * so it can be issued in parallel with the query for the results.
+     *
+     * @param maxCount Maximum number of variants to count, or 0 to count all of them exactly
+     */
+    CompletableFuture<Long> countByGenesAndComplexFiltersAsync(List<String> geneIds,
+                                                               List<VariantEntityRepositoryFilter> filters,
+                                                               long maxCount);
+
     /**
      * Query for variants within a set of specified genomic regions, and whose attributes match those values specified
      * in the filters: study, consequence type, minor allele frequency and protein substitution scores (Polyphen and
@@ -67,13 +141,207 @@ interface VariantEntityRepositoryCustom {
     List<VariantEntity> findByRegionsAndComplexFilters(List<Region> regions, List<VariantEntityRepositoryFilter> filters,
                                                        List<String> exclude, Pageable pageable);
 
+    /**
+     * Same as {@link #findByRegionsAndComplexFilters(List, List, List, Pageable)}, choosing how the genotypes of the
+     * samples are returned.
+     *
+     * @param genotypesMode NONE doesn't retrieve the samples data from the database, SPARSE returns it as stored and
+     *                      FULL expands it to one entry per sample name
+     */
+    List<VariantEntity> findByRegionsAndComplexFilters(List<Region> regions, List<VariantEntityRepositoryFilter> filters,
+                                                       List<String> exclude, Pageable pageable,
+                                                       VariantEntityRepository.GenotypesMode genotypesMode);
+
+    /**
+     * Same as
+     * {@link #findByRegionsAndComplexFilters(List, List, List, Pageable, VariantEntityRepository.GenotypesMode)},
+     * retrieving only some fields.
+     *
+     * @param include List of strings, each matching a field in the variant Mongo documents. If not empty, only these
+     *                fields are retrieved, along with the coordinates, and the exclude list is ignored. The sample
+     *                names are not looked up unless "files" is included
+     */
+    List<VariantEntity> findByRegionsAndComplexFilters(List<Region> regions,
+                                                       List<VariantEntityRepositoryFilter> filters,
+                                                       List<String> exclude, List<String> include, Pageable pageable,
+                                                       VariantEntityRepository.GenotypesMode genotypesMode);
+
     Long countByRegionsAndComplexFilters(List<Region> regions, List<VariantEntityRepositoryFilter> filters);
 
     /**
-     * Query for distinct chromosomes for variants in the collection
+     * Counts the variants that countByRegionsAndComplexFilters would count, but stops at maxCount, so the cost of the
+     * query is bounded when there are many matches.
+     *
+     * @return number of matching variants, or maxCount if there are at least that many
+     */
+    long countByRegionsAndComplexFilters(List<Region> regions, List<VariantEntityRepositoryFilter> filters,
+                                         long maxCount);
+
+    /**
+     * Runs countByRegionsAndComplexFilters in a bounded thread pool, in the database selected for the calling thread,
+     * so it can be issued in parallel with the query for the results.
+     *
+     * @param maxCount Maximum number of variants to count, or 0 to count all of them exactly
+     */
+    CompletableFuture<Long> countByRegionsAndComplexFiltersAsync(List<Region> regions,
+                                                                 List<VariantEntityRepositoryFilter> filters,
+                                                                 long maxCount);
+
+    /**
+     * Query for variants within a set of specified genomic regions, using keyset pagination: instead of skipping the
+     * previous pages, the query resumes after the last variant that was returned, in (chr, start, _id) order.
+     *
+     * @param regions List of region objects to include in query
+     * @param filters List of VariantEntityRepositoryFilter objects by which to filter the query
+     * @param exclude List of strings, each matching a field in the variant Mongo documents. Fields specified in the
+     *                list will be excluded from the returned document(s)
+     * @param after Position of the last variant of the previous page, or null to retrieve the first page
+     * @param limit Maximum number of variants in the page
+     * @return Page of VariantEntities, with the position to retrieve the next one from, if there are more variants
+     */
+    VariantEntitySeekPage findByRegionsAndComplexFiltersAfter(List<Region> regions,
+                                                              List<VariantEntityRepositoryFilter> filters,
+                                                              List<String> exclude, VariantSeekPosition after,
+                                                              int limit);
+
+    /**
+     * Check whether any variant has the given identifier and matches the filters. Only the _id of the first match is
+     * read from the database.
+     *
+     * @param id Variant identifier
+     * @param filters List of VariantEntityRepositoryFilter objects by which to filter the query
+     * @return true if at least one such variant exists
+     */
+    boolean existsByIdsAndComplexFilters(String id, List<VariantEntityRepositoryFilter> filters);
+
+    /**
+     * Check whether any variant starts at a position with the given alleles and matches the filters. Only the _id of
+     * the first match is read from the database.
+     *
+     * @param chromosome Chromosome of the variant
+     * @param start Start position of the variant
+     * @param reference Reference allele
+     * @param alternate Alternate allele, or null to match any
+     * @param filters List of VariantEntityRepositoryFilter objects by which to filter the query
+     * @return true if at least one such variant exists
+     */
+    boolean existsByChromosomeAndStartAndAllelesAndComplexFilters(String chromosome, int start, String reference,
+                                                                  String alternate,
+                                                                  List<VariantEntityRepositoryFilter> filters);
+
+    /**
+     * Check whether any variant with the given alternate allele starts at a position, in any of the given studies.
+     * Most negative answers come from an in-memory index of each study, without querying the database.
+     *
+     * @param chromosome Chromosome of the variant
+     * @param start Start position of the variant
+     * @param alternate Alternate allele
+     * @param studyIds Studies where the variant should be present
+     * @return true if at least one such variant exists
+     */
+    boolean existsByChromosomeAndStartAndAltAndStudyIn(String chromosome, int start, String alternate,
+                                                      List<String> studyIds);
+
+    /**
+     * Check whether any variant of the given type starts at a position, in any of the given studies. Most negative
+     * answers come from an in-memory index of each study, without querying the database.
+     *
+     * @param chromosome Chromosome of the variant
+     * @param start Start position of the variant
+     * @param type Type of the variant
+     * @param studyIds Studies where the variant should be present
+     * @return true if at least one such variant exists
+     */
+    boolean existsByChromosomeAndStartAndTypeAndStudyIn(String chromosome, int start, Variant.VariantType type,
+                                                       List<String> studyIds);
+
+    /**
+     * Query for the variants matching each of many identifiers or coordinates at once. Identifiers are resolved with
+     * a single "$in" over the variant ids, and coordinates with one "$in" over the start positions of each
+     * chromosome, all in the same query.
+     *
+     * @param variantIds List of variant identifiers, or coordinates with the format chr:pos:ref or chr:pos:ref:alt
+     * @param filters List of VariantEntityRepositoryFilter objects by which to filter the query
+     * @param exclude List of strings, each matching a field in the variant Mongo documents. Fields specified in the
+     *                list will be excluded from the returned document(s)
+     * @return One list of VariantEntities per element of variantIds, in the same order. The list is empty when no
+     * variant matches that element
+     * @throws IllegalArgumentException if any coordinates are not well formed
+     */
+    List<List<VariantEntity>> findByIdsOrCoordinatesAndComplexFilters(List<String> variantIds,
+                                                                  List<VariantEntityRepositoryFilter> filters,
+                                                                  List<String> exclude);
+
+    /**
+     * Check whether any variant matches each of many identifiers or coordinates at once, with the same single query
+     * as findByIdsOrCoordinatesAndComplexFilters. Only the _id, position, alleles and identifiers of the matching
+     * variants are read from the database.
+     *
+     * @param variantIds List of variant identifiers, or coordinates with the format chr:pos:ref or chr:pos:ref:alt
+     * @param filters List of VariantEntityRepositoryFilter objects by which to filter the query
+     * @return One boolean per element of variantIds, in the same order, true if at least one variant matches it
+     * @throws IllegalArgumentException if any coordinates are not well formed
+     */
+    List<Boolean> existsByIdsOrCoordinatesAndComplexFilters(List<String> variantIds,
+                                                            List<VariantEntityRepositoryFilter> filters);
+
+    /**
+     * Query for all the variants within a set of specified genomic regions, and whose attributes match those values
+     * specified in the filters. Unlike findByRegionsAndComplexFilters, the results are not paged: they are read
+     * lazily from a Mongo cursor sorted by chromosome and start, so a whole chromosome can be dumped with constant
+     * memory.
+     *
+     * @param regions List of region objects to include in query
+     * @param filters List of VariantEntityRepositoryFilter objects by which to filter the query
+     * @param exclude List of strings, each matching a field in the variant Mongo documents. Fields specified in the
+     *                list will be excluded from the returned document(s)
+     * @return Iterator over the VariantEntities whose values are within the bounds of the filters. It must be closed
+     * after use to release the cursor
+     */
+    CloseableIterator<VariantEntity> streamByRegionsAndComplexFilters(List<Region> regions,
+                                                                      List<VariantEntityRepositoryFilter> filters,
+                                                                      List<String> exclude);
+
+    /**
+     * Query for distinct chromosomes for variants in the collection. The chromosomes of each database are cached,
+     * and refreshed in the background once they are older than 10 minutes.
      *
      * @return List of chromosome names
      */
     Set<String> findDistinctChromosomes();
 
+    /**
+     * Query for the number of variants of each chromosome and the positions they span, sorted by chromosome. The
+     * summaries of each database are cached for hours, and as they need to read every variant, they are only ever
+     * computed in the background: a request for summaries not computed yet starts computing them.
+     *
+     * @return List of chromosome summaries, or null if they are still being computed
+     */
+    List<ChromosomeSummary> findChromosomeSummaries();
+
+    /**
+     * Start computing, in the background, the longest variant of each chromosome, which bounds the region queries.
+     * Region queries use a wide default margin until it is computed.
+     */
+    void preloadVariantLengthStatistics();
+
+    /**
+     * Discard the cached results of the queries run against the database used by the current thread, so that
+     * variants loaded since they were cached are found.
+     */
+    void invalidateCachedQueries();
+
+    /**
+     * @return Number of entries, hits, misses, hit ratio, evictions and rejected admissions of the query results
+     * cache, shared by all the databases
+     */
+    Map<String, Object> getQueryCacheStatistics();
+
+    /**
+     * @return Number of query executions, of requests that shared the execution of a concurrent identical request,
+     * the proportion of requests collapsed that way, and the number of requests that stopped waiting for a shared
+     * execution
+     */
+    Map<String, Object> getQueryCoalescingStatistics();
+
 }
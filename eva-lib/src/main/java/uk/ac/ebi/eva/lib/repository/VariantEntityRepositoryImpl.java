@@ -18,13 +18,19 @@
  */
 package uk.ac.ebi.eva.lib.repository;
 
-import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.AggregationOutput;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
 import org.opencb.biodata.models.feature.Region;
-import org.opencb.biodata.models.variant.VariantSourceEntry;
+import org.opencb.biodata.models.variant.Variant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
@@ -35,18 +41,43 @@ import org.springframework.data.mongodb.core.aggregation.AggregationResults;
 import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
 
-import uk.ac.ebi.eva.commons.models.data.VariantSourceEntity;
 import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
+import uk.ac.ebi.eva.lib.filter.FilterSpec;
 import uk.ac.ebi.eva.lib.filter.VariantEntityRepositoryFilter;
+import uk.ac.ebi.eva.lib.repository.VariantEntityRepository.GenotypesMode;
+import uk.ac.ebi.eva.lib.repository.projections.ChromosomeSummary;
+import uk.ac.ebi.eva.lib.utils.MultiMongoDbFactory;
+import uk.ac.ebi.eva.lib.utils.UcscBins;
+import uk.ac.ebi.eva.lib.utils.VariantBinBackfill;
 
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static uk.ac.ebi.eva.lib.repository.VariantQueryKey.filterSpecs;
+import static uk.ac.ebi.eva.lib.repository.VariantQueryKey.page;
+import static uk.ac.ebi.eva.lib.repository.VariantQueryKey.regions;
+import static uk.ac.ebi.eva.lib.repository.VariantQueryKey.unordered;
 
 /**
  * Concrete implementation of the VariantEntityRepository interface (relationship inferred by Spring),
@@ -57,178 +88,838 @@ import java.util.stream.Collectors;
  */
 public class VariantEntityRepositoryImpl implements VariantEntityRepositoryCustom {
 
-    @Autowired
-    private VariantSourceEntityRepository variantSourceEntityRepository;
-
     private MongoTemplate mongoTemplate;
 
+    private SamplesPositionCache samplesPositionCache;
+
+    private ExecutorService asyncQueriesExecutor;
+
+    private ExecutorService presenceIndexExecutor;
+
+    private VariantPresenceIndex variantPresenceIndex;
+
+    private ExecutorService statisticsExecutor;
+
+    private VariantLengthStatistics variantLengthStatistics;
+
+    private DatabaseCache<Set<String>> chromosomesCache;
+
+    private ExecutorService chromosomeSummariesExecutor;
+
+    private DatabaseCache<List<ChromosomeSummary>> chromosomeSummariesCache;
+
+    private boolean binQueries;
+
+    private VariantQueryCache variantQueryCache;
+
+    private VariantQueryCoalescer variantQueryCoalescer;
+
     protected static Logger logger = LoggerFactory.getLogger(VariantEntityRepositoryImpl.class);
 
-    private final int MARGIN = 5000;
+    private static final String ID_FIELD = "_id";
+
+    private static final String FILES_FIELD = "files";
+
+    private static final String SAMPLES_DATA_FIELD = "files.samp";
+
+    private static final List<String> MANDATORY_FIELDS = Arrays.asList("chr", "start", "end", "ref", "alt", "type",
+                                                                       "len");
+
+    private static final List<String> FILE_ID_FIELDS = Arrays.asList("files.sid", "files.fid");
+
+    private static final List<String> FILES_FIELDS_WITHOUT_SAMPLES_DATA = Arrays.asList("files.sid", "files.fid",
+                                                                                        "files.attrs", "files.fm",
+                                                                                        "files.alts");
+
+    private static final int ASYNC_QUERIES_THREADS = 2 * Runtime.getRuntime().availableProcessors();
+
+    private static final int ASYNC_QUERIES_QUEUE_CAPACITY = 1000;
+
+    private static final long CHROMOSOMES_TIME_TO_LIVE_MILLIS = 600_000;
+
+    /**
+     * The summaries read every variant, and only change when new data is loaded, so they are refreshed far less often
+     * than the chromosome names
+     */
+    private static final long CHROMOSOME_SUMMARIES_TIME_TO_LIVE_MILLIS = 6 * 3_600_000;
 
     @Autowired
     public VariantEntityRepositoryImpl(MongoDbFactory mongoDbFactory, MappingMongoConverter mappingMongoConverter) {
         mongoTemplate = new MongoTemplate(mongoDbFactory, mappingMongoConverter);
+        samplesPositionCache = new SamplesPositionCache(mongoTemplate);
+        // when the queue is full, the query runs in the calling thread instead of failing
+        asyncQueriesExecutor = new ThreadPoolExecutor(
+                ASYNC_QUERIES_THREADS, ASYNC_QUERIES_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(ASYNC_QUERIES_QUEUE_CAPACITY),
+                new ThreadFactoryBuilder().setNameFormat("variant-async-query-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        // the presence filters are built one at a time, so a cold start doesn't scan every study at once
+        presenceIndexExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("variant-presence-index-%d").setDaemon(true).build());
+        variantPresenceIndex = new VariantPresenceIndex(mongoTemplate, presenceIndexExecutor);
+        // the lengths and chromosomes of whole databases share a thread, as each of them reads every variant
+        statisticsExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("variant-statistics-%d").setDaemon(true).build());
+        variantLengthStatistics = new VariantLengthStatistics(mongoTemplate, statisticsExecutor);
+        chromosomesCache = new DatabaseCache<>(mongoTemplate, this::loadDistinctChromosomes,
+                                               CHROMOSOMES_TIME_TO_LIVE_MILLIS, statisticsExecutor);
+        // the summaries take much longer than the other statistics, so they get their own thread not to delay them
+        chromosomeSummariesExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("chromosome-summaries-%d").setDaemon(true).build());
+        chromosomeSummariesCache = new DatabaseCache<>(mongoTemplate, this::loadChromosomeSummaries,
+                                                       CHROMOSOME_SUMMARIES_TIME_TO_LIVE_MILLIS,
+                                                       chromosomeSummariesExecutor);
+        variantQueryCache = new VariantQueryCache(0, 0);
+        variantQueryCoalescer = new VariantQueryCoalescer(false, 0);
+    }
+
+    /**
+     * Query the regions by UCSC bin instead of by a start and end range. Every variant must have its bin, added by
+     * {@link VariantBinBackfill}, or it won't be found.
+     */
+    @Value("${eva.mongo.variants.bin-queries:false}")
+    void setBinQueries(boolean binQueries) {
+        this.binQueries = binQueries;
+    }
+
+    /**
+     * Cache the results of up to maxEntries find and count queries, taking up to about maxBytes of memory, each for
+     * timeToLiveMillis. Nothing is cached by default.
+     */
+    @Autowired
+    void setQueryCache(@Value("${eva.mongo.variants.query-cache.max-entries:0}") int maxEntries,
+                       @Value("${eva.mongo.variants.query-cache.max-bytes:67108864}") long maxBytes,
+                       @Value("${eva.mongo.variants.query-cache.time-to-live:600000}") long timeToLiveMillis) {
+        variantQueryCache = new VariantQueryCache(maxEntries, maxBytes, timeToLiveMillis);
+    }
+
+    /**
+     * Let concurrent identical find and count queries share one execution. A request that waits for another one's
+     * query for longer than followerTimeoutMillis runs the query itself. Disabled by default.
+     */
+    @Autowired
+    void setQueryCoalescing(
+            @Value("${eva.mongo.variants.query-coalescing.enabled:false}") boolean enabled,
+            @Value("${eva.mongo.variants.query-coalescing.follower-timeout:30000}") long followerTimeoutMillis) {
+        variantQueryCoalescer = new VariantQueryCoalescer(enabled, followerTimeoutMillis);
+    }
+
+    @PreDestroy
+    public void shutdownAsyncQueriesExecutor() {
+        asyncQueriesExecutor.shutdown();
+        presenceIndexExecutor.shutdownNow();
+        statisticsExecutor.shutdownNow();
+        chromosomeSummariesExecutor.shutdownNow();
     }
 
     @Override
     public List<VariantEntity> findByIdsAndComplexFilters(String id, List<VariantEntityRepositoryFilter> filters,
                                                           List<String> exclude, Pageable pageable) {
+        return findByIdsAndComplexFilters(id, filters, exclude, null, pageable);
+    }
+
+    @Override
+    public List<VariantEntity> findByIdsAndComplexFilters(String id, List<VariantEntityRepositoryFilter> filters,
+                                                          List<String> exclude, List<String> include,
+                                                          Pageable pageable) {
         Query query = new Query(Criteria.where("ids").is(id));
-        return findByComplexFiltersHelper(query, filters, exclude, pageable);
+        return new ArrayList<>(cachedQuery(
+                () -> findByComplexFiltersHelper(query, filters, exclude, include, pageable, GenotypesMode.FULL),
+                "findByIds", id, filterSpecs(filters), unordered(exclude), unordered(include), page(pageable)));
     }
 
     @Override
     public Long countByIdsAndComplexFilters(String id, List<VariantEntityRepositoryFilter> filters) {
         Criteria criteria = Criteria.where("ids").is(id);
-        return countByComplexFiltersHelper(criteria, filters);
+        return cachedQuery(() -> countByComplexFiltersHelper(criteria, filters), "countByIds", id,
+                           filterSpecs(filters));
+    }
+
+    @Override
+    public long countByIdsAndComplexFilters(String id, List<VariantEntityRepositoryFilter> filters, long maxCount) {
+        Criteria criteria = Criteria.where("ids").is(id);
+        return cachedQuery(() -> countByComplexFiltersHelper(criteria, filters, maxCount), "countByIds", id,
+                           filterSpecs(filters), maxCount);
+    }
+
+    @Override
+    public CompletableFuture<Long> countByIdsAndComplexFiltersAsync(String id,
+                                                                    List<VariantEntityRepositoryFilter> filters,
+                                                                    long maxCount) {
+        return supplyAsync(() -> (maxCount > 0) ? countByIdsAndComplexFilters(id, filters, maxCount)
+                                                : countByIdsAndComplexFilters(id, filters));
     }
 
     @Override
     public List<VariantEntity> findByGenesAndComplexFilters(List<String> geneIds,
                                                             List<VariantEntityRepositoryFilter> filters,
                                                             List<String> exclude, Pageable pageable) {
+        return findByGenesAndComplexFilters(geneIds, filters, exclude, pageable, GenotypesMode.FULL);
+    }
+
+    @Override
+    public List<VariantEntity> findByGenesAndComplexFilters(List<String> geneIds,
+                                                            List<VariantEntityRepositoryFilter> filters,
+                                                            List<String> exclude, Pageable pageable,
+                                                            GenotypesMode genotypesMode) {
+        return findByGenesAndComplexFilters(geneIds, filters, exclude, null, pageable, genotypesMode);
+    }
+
+    @Override
+    public List<VariantEntity> findByGenesAndComplexFilters(List<String> geneIds,
+                                                            List<VariantEntityRepositoryFilter> filters,
+                                                            List<String> exclude, List<String> include,
+                                                            Pageable pageable, GenotypesMode genotypesMode) {
         Query query = new Query(Criteria.where("annot.xrefs.id").in(geneIds));
-        return findByComplexFiltersHelper(query, filters, exclude, pageable);
+        return new ArrayList<>(cachedQuery(
+                () -> findByComplexFiltersHelper(query, filters, exclude, include, pageable, genotypesMode),
+                "findByGenes", unordered(geneIds), filterSpecs(filters), unordered(exclude), unordered(include),
+                page(pageable), genotypesMode));
     }
 
     @Override
     public Long countByGenesAndComplexFilters(List<String> geneIds, List<VariantEntityRepositoryFilter> filters) {
         Criteria criteria = Criteria.where("annot.xrefs.id").in(geneIds);
-        return countByComplexFiltersHelper(criteria, filters);
+        return cachedQuery(() -> countByComplexFiltersHelper(criteria, filters), "countByGenes", unordered(geneIds),
+                           filterSpecs(filters));
+    }
+
+    @Override
+    public long countByGenesAndComplexFilters(List<String> geneIds, List<VariantEntityRepositoryFilter> filters,
+                                              long maxCount) {
+        Criteria criteria = Criteria.where("annot.xrefs.id").in(geneIds);
+        return cachedQuery(() -> countByComplexFiltersHelper(criteria, filters, maxCount), "countByGenes",
+                           unordered(geneIds), filterSpecs(filters), maxCount);
+    }
+
+    @Override
+    public CompletableFuture<Long> countByGenesAndComplexFiltersAsync(List<String> geneIds,
+                                                                      List<VariantEntityRepositoryFilter> filters,
+                                                                      long maxCount) {
+        return supplyAsync(() -> (maxCount > 0) ? countByGenesAndComplexFilters(geneIds, filters, maxCount)
+                                                : countByGenesAndComplexFilters(geneIds, filters));
     }
 
     @Override
     public List<VariantEntity> findByRegionsAndComplexFilters(List<Region> regions,
                                                               List<VariantEntityRepositoryFilter> filters,
                                                               List<String> exclude, Pageable pageable) {
+        return findByRegionsAndComplexFilters(regions, filters, exclude, pageable, GenotypesMode.FULL);
+    }
+
+    @Override
+    public List<VariantEntity> findByRegionsAndComplexFilters(List<Region> regions,
+                                                              List<VariantEntityRepositoryFilter> filters,
+                                                              List<String> exclude, Pageable pageable,
+                                                              GenotypesMode genotypesMode) {
+        return findByRegionsAndComplexFilters(regions, filters, exclude, null, pageable, genotypesMode);
+    }
+
+    @Override
+    public List<VariantEntity> findByRegionsAndComplexFilters(List<Region> regions,
+                                                              List<VariantEntityRepositoryFilter> filters,
+                                                              List<String> exclude, List<String> include,
+                                                              Pageable pageable, GenotypesMode genotypesMode) {
+        return new ArrayList<>(cachedQuery(
+                () -> findByRegionsAndComplexFiltersHelper(regions, filters, exclude, include, pageable,
+                                                           genotypesMode),
+                "findByRegions", regions(regions), filterSpecs(filters), unordered(exclude), unordered(include),
+                page(pageable), genotypesMode));
+    }
+
+    private List<VariantEntity> findByRegionsAndComplexFiltersHelper(List<Region> regions,
+                                                                     List<VariantEntityRepositoryFilter> filters,
+                                                                     List<String> exclude, List<String> include,
+                                                                     Pageable pageable,
+                                                                     GenotypesMode genotypesMode) {
+        List<Region> coalescedRegions = RegionQueryPlanner.coalesce(regions);
+        if (!RegionQueryPlanner.isSingleQuery(coalescedRegions)) {
+            return findByRegionChunksAndComplexFilters(
+                    RegionQueryPlanner.split(coalescedRegions, ASYNC_QUERIES_THREADS), filters, exclude, include,
+                    pageable, genotypesMode);
+        }
+
         Query query = new Query();
-        Criteria criteria = getRegionsCriteria(regions);
+        Criteria criteria = getRegionsCriteria(coalescedRegions);
         query.addCriteria(criteria);
-        return findByComplexFiltersHelper(query, filters, exclude, pageable);
+        return findByComplexFiltersHelper(query, filters, exclude, include, pageable, genotypesMode);
     }
 
     @Override
     public Long countByRegionsAndComplexFilters(List<Region> regions, List<VariantEntityRepositoryFilter> filters) {
-        Criteria criteria = getRegionsCriteria(regions);
-        return countByComplexFiltersHelper(criteria, filters);
+        return cachedQuery(() -> countByComplexFiltersHelper(getRegionsCriteria(regions), filters), "countByRegions",
+                           regions(regions), filterSpecs(filters));
     }
 
     @Override
-    public Set<String> findDistinctChromosomes() {
-        return new HashSet<>(
-                (List<String>) mongoTemplate.getCollection(mongoTemplate.getCollectionName(VariantEntity.class))
-                                            .distinct("chr"));
+    public long countByRegionsAndComplexFilters(List<Region> regions, List<VariantEntityRepositoryFilter> filters,
+                                                long maxCount) {
+        return cachedQuery(() -> countByComplexFiltersHelper(getRegionsCriteria(regions), filters, maxCount),
+                           "countByRegions", regions(regions), filterSpecs(filters), maxCount);
     }
 
-    private List<VariantEntity> findByComplexFiltersHelper(Query query, List<VariantEntityRepositoryFilter> filters,
-                                                           List<String> exclude, Pageable pageable) {
-
-        addFilterCriteriaToQuery(query, filters);
+    @Override
+    public CompletableFuture<Long> countByRegionsAndComplexFiltersAsync(List<Region> regions,
+                                                                        List<VariantEntityRepositoryFilter> filters,
+                                                                        long maxCount) {
+        return supplyAsync(() -> (maxCount > 0) ? countByRegionsAndComplexFilters(regions, filters, maxCount)
+                                                : countByRegionsAndComplexFilters(regions, filters));
+    }
 
-        ArrayList<String> sortProperties = new ArrayList<String>();
-        sortProperties.add("chr");
-        sortProperties.add("start");
-        query.with(new Sort(Sort.Direction.ASC, sortProperties));
+    @Override
+    public VariantEntitySeekPage findByRegionsAndComplexFiltersAfter(List<Region> regions,
+                                                                     List<VariantEntityRepositoryFilter> filters,
+                                                                     List<String> exclude,
+                                                                     VariantSeekPosition after, int limit) {
+        return cachedQuery(() -> findByRegionsAndComplexFiltersAfterHelper(regions, filters, exclude, after, limit),
+                           "findByRegionsAfter", regions(regions), filterSpecs(filters), unordered(exclude), after,
+                           limit);
+    }
 
-        Pageable pageable1 = (pageable != null) ? pageable : new PageRequest(0, 10);
-        query.with(pageable1);
+    private VariantEntitySeekPage findByRegionsAndComplexFiltersAfterHelper(List<Region> regions,
+                                                                            List<VariantEntityRepositoryFilter> filters,
+                                                                            List<String> exclude,
+                                                                            VariantSeekPosition after, int limit) {
+        Query query = new Query();
+        Criteria criteria = getRegionsCriteria(regions);
+        if (after != null) {
+            // both criteria are "$or" expressions, so they can't be added to the query independently
+            criteria = new Criteria().andOperator(criteria, getSeekCriteria(after));
+        }
+        query.addCriteria(criteria);
+        addFilterCriteriaToQuery(query, filters);
 
         if (exclude != null && !exclude.isEmpty()) {
             exclude.forEach(e -> query.fields().exclude(e));
         }
+        query.with(new Sort(Sort.Direction.ASC, "chr", "start", "_id"));
 
-        List<VariantEntity> variantEntities = mongoTemplate.find(query, VariantEntity.class);
+        // one more than requested, to know if there is a next page without counting
+        query.limit(limit + 1);
 
-        Table<String, String, Map<String, String>> studyFileIdsToPositionSamples = studyFileIdsToPositionSamples();
+        // raw documents are retrieved because the _id is not mapped into the VariantEntity
+        List<DBObject> variantDocuments = mongoTemplate.find(query, DBObject.class,
+                                                             mongoTemplate.getCollectionName(VariantEntity.class));
+        boolean hasNext = variantDocuments.size() > limit;
+        if (hasNext) {
+            variantDocuments = variantDocuments.subList(0, limit);
+        }
 
-        variantEntities = updateVariantEntitiesSampleNames(variantEntities, studyFileIdsToPositionSamples);
+        List<VariantEntity> variantEntities = new ArrayList<>(variantDocuments.size());
+        for (DBObject variantDocument : variantDocuments) {
+            variantEntities.add(mongoTemplate.getConverter().read(VariantEntity.class, variantDocument));
+        }
+        variantEntities = updateVariantEntitiesSampleNames(variantEntities, studyFileIdsToSampleNames());
+
+        VariantSeekPosition nextPosition = null;
+        if (hasNext) {
+            DBObject lastDocument = variantDocuments.get(variantDocuments.size() - 1);
+            nextPosition = new VariantSeekPosition((String) lastDocument.get("chr"),
+                                                   ((Number) lastDocument.get("start")).intValue(),
+                                                   lastDocument.get("_id").toString());
+        }
+        return new VariantEntitySeekPage(variantEntities, nextPosition);
+    }
 
-        return variantEntities;
+    @Override
+    public CloseableIterator<VariantEntity> streamByRegionsAndComplexFilters(
+            List<Region> regions, List<VariantEntityRepositoryFilter> filters, List<String> exclude) {
+        Query query = new Query();
+        Criteria criteria = getRegionsCriteria(regions);
+        query.addCriteria(criteria);
+        addFilterCriteriaToQuery(query, filters);
+        addSortAndExclusionsToQuery(query, exclude);
+
+        // the table is loaded before opening the cursor, so a failure here can't leave the cursor open
+        Table<String, String, String[]> studyFileIdsToSampleNames = studyFileIdsToSampleNames();
+        CloseableIterator<VariantEntity> variantEntities = mongoTemplate.stream(query, VariantEntity.class);
+
+        return new SampleNamesUpdatingIterator(variantEntities, studyFileIdsToSampleNames);
     }
 
-    private Table<String, String, Map<String, String>> studyFileIdsToPositionSamples() {
-        List<VariantSourceEntity> variantSourceEntities = variantSourceEntityRepository.findAll();
+    @Override
+    public List<List<VariantEntity>> findByIdsOrCoordinatesAndComplexFilters(List<String> variantIds,
+                                                                         List<VariantEntityRepositoryFilter> filters,
+                                                                         List<String> exclude) {
+        Set<String> ids = new LinkedHashSet<>();
+        Map<String, Set<Integer>> startsByChromosome = new LinkedHashMap<>();
+        splitIdsAndCoordinates(variantIds, ids, startsByChromosome);
+
+        List<VariantEntity> variantEntities = new ArrayList<>();
+        Query query = getIdsOrCoordinatesQuery(ids, startsByChromosome);
+        if (query != null) {
+            addFilterCriteriaToQuery(query, filters);
+            addSortAndExclusionsToQuery(query, exclude);
+            variantEntities = updateVariantEntitiesSampleNames(mongoTemplate.find(query, VariantEntity.class),
+                                                               studyFileIdsToSampleNames());
+        }
+
+        Map<String, List<VariantEntity>> variantsById = new HashMap<>();
+        Map<String, Map<Integer, List<VariantEntity>>> variantsByPosition = new HashMap<>();
+        for (VariantEntity variantEntity : variantEntities) {
+            if (variantEntity.getIds() != null) {
+                for (String id : variantEntity.getIds()) {
+                    if (ids.contains(id)) {
+                        variantsById.computeIfAbsent(id, key -> new ArrayList<>()).add(variantEntity);
+                    }
+                }
+            }
+            variantsByPosition.computeIfAbsent(variantEntity.getChromosome(), chromosome -> new HashMap<>())
+                              .computeIfAbsent(variantEntity.getStart(), start -> new ArrayList<>())
+                              .add(variantEntity);
+        }
 
-        Table<String, String, Map<String, String>> studyFileIdsToPositionSamples = HashBasedTable.create();
+        List<List<VariantEntity>> results = new ArrayList<>(variantIds.size());
+        for (String variantId : variantIds) {
+            if (variantId.contains(":")) {
+                results.add(matchCoordinates(splitCoordinates(variantId), variantsByPosition));
+            } else {
+                results.add(variantsById.getOrDefault(variantId, Collections.emptyList()));
+            }
+        }
+        return results;
+    }
 
-        for (VariantSourceEntity variantSourceEntity : variantSourceEntities) {
-            if (variantSourceEntity.getSamplesPosition() == null) {
-                continue;
+    @Override
+    public List<Boolean> existsByIdsOrCoordinatesAndComplexFilters(List<String> variantIds,
+                                                                   List<VariantEntityRepositoryFilter> filters) {
+        Set<String> ids = new LinkedHashSet<>();
+        Map<String, Set<Integer>> startsByChromosome = new LinkedHashMap<>();
+        splitIdsAndCoordinates(variantIds, ids, startsByChromosome);
+
+        Set<String> foundIds = new HashSet<>();
+        Map<String, Map<Integer, List<DBObject>>> allelesByPosition = new HashMap<>();
+        Query query = getIdsOrCoordinatesQuery(ids, startsByChromosome);
+        if (query != null) {
+            addFilterCriteriaToQuery(query, filters);
+            // only the fields needed to match the input are read, and no VariantEntity is built
+            DBObject projection = new BasicDBObject(ID_FIELD, 1).append("chr", 1).append("start", 1)
+                                                                .append("ref", 1).append("alt", 1).append("ids", 1);
+            DBCursor cursor = mongoTemplate.getCollection(mongoTemplate.getCollectionName(VariantEntity.class))
+                                           .find(query.getQueryObject(), projection);
+            try {
+                while (cursor.hasNext()) {
+                    DBObject variant = cursor.next();
+                    Object variantIdsField = variant.get("ids");
+                    if (variantIdsField instanceof Collection) {
+                        for (Object id : (Collection<?>) variantIdsField) {
+                            if (ids.contains(String.valueOf(id))) {
+                                foundIds.add(String.valueOf(id));
+                            }
+                        }
+                    }
+                    allelesByPosition.computeIfAbsent((String) variant.get("chr"), chromosome -> new HashMap<>())
+                                     .computeIfAbsent(((Number) variant.get("start")).intValue(),
+                                                      start -> new ArrayList<>())
+                                     .add(variant);
+                }
+            } finally {
+                cursor.close();
             }
+        }
 
-            String studyId = variantSourceEntity.getStudyId();
-            String fileId = variantSourceEntity.getFileId();
+        List<Boolean> results = new ArrayList<>(variantIds.size());
+        for (String variantId : variantIds) {
+            if (variantId.contains(":")) {
+                results.add(containsCoordinates(splitCoordinates(variantId), allelesByPosition));
+            } else {
+                results.add(foundIds.contains(variantId));
+            }
+        }
+        return results;
+    }
 
-            Map<String, Integer> samplesPositionFromVariantSource = variantSourceEntity.getSamplesPosition();
-            Map<String, String> positionSamples = new HashMap<>();
-            for(Map.Entry<String, Integer> entry : samplesPositionFromVariantSource.entrySet()) {
-                positionSamples.put(Integer.toString(entry.getValue()), entry.getKey());
+    /**
+     * Sorts the input of a batch query into the identifiers and the starts of each chromosome to query for
+     */
+    private void splitIdsAndCoordinates(List<String> variantIds, Set<String> ids,
+                                        Map<String, Set<Integer>> startsByChromosome) {
+        for (String variantId : variantIds) {
+            if (variantId.contains(":")) {
+                String[] coordinates = splitCoordinates(variantId);
+                startsByChromosome.computeIfAbsent(coordinates[0], chromosome -> new TreeSet<>())
+                                  .add(Integer.parseInt(coordinates[1]));
+            } else {
+                ids.add(variantId);
             }
+        }
+    }
 
-            studyFileIdsToPositionSamples.put(studyId, fileId, positionSamples);
+    /**
+     * @return Query for the variants with any of the identifiers or starting at any of the positions, or null if
+     * there are none
+     */
+    private Query getIdsOrCoordinatesQuery(Set<String> ids, Map<String, Set<Integer>> startsByChromosome) {
+        List<Criteria> orCriteria = new ArrayList<>();
+        if (!ids.isEmpty()) {
+            orCriteria.add(Criteria.where("ids").in(ids));
         }
+        // one clause per chromosome, so each of them can be resolved with the chr and start index
+        startsByChromosome.forEach((chromosome, starts) -> orCriteria.add(
+                Criteria.where("chr").is(chromosome).and("start").in(starts)));
 
-        return studyFileIdsToPositionSamples;
+        if (orCriteria.isEmpty()) {
+            return null;
+        }
+        return new Query(new Criteria().orOperator(orCriteria.toArray(new Criteria[orCriteria.size()])));
     }
 
-    private List<VariantEntity> updateVariantEntitiesSampleNames(List<VariantEntity> variantEntities,
-                                                                 Table<String, String, Map<String, String>>
-                                                                         studyFileIdsToPositionSamples) {
-
-        return variantEntities.stream().map(
-                variantEntity -> updateVariantEntitySampleNames(variantEntity, studyFileIdsToPositionSamples)
-        ).collect(Collectors.toList());
-    }
-
-    private VariantEntity updateVariantEntitySampleNames(VariantEntity variantEntity,
-                                                         Table<String, String, Map<String, String>>
-                                                                 studyFileIdsToPositionSamples) {
-        Map<String, VariantSourceEntry> variantSourceEntryMap = variantEntity.getSourceEntries().entrySet().stream().collect(
-                Collectors.toMap(
-                        Map.Entry::getKey,
-                        e -> updateVariantSourceEntrySampleNames(e.getValue(), studyFileIdsToPositionSamples)
-                )
-        );
-        variantEntity.setSourceEntries(variantSourceEntryMap);
-        return variantEntity;
+    /**
+     * Splits a chr:pos:ref or chr:pos:ref:alt string, checking that the position is a number
+     */
+    private String[] splitCoordinates(String variantId) {
+        String[] coordinates = variantId.split(":", -1);
+        if (coordinates.length < 3 || coordinates.length > 4) {
+            throw new IllegalArgumentException("Invalid position and alleles combination, please use chr:pos:ref or "
+                                                       + "chr:pos:ref:alt: " + variantId);
+        }
+        try {
+            Integer.parseInt(coordinates[1]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid position in " + variantId);
+        }
+        return coordinates;
+    }
+
+    /**
+     * Matches on the parsed start, so positions written with leading zeros ("1:0100:A") are found too
+     */
+    private List<VariantEntity> matchCoordinates(String[] coordinates,
+                                                 Map<String, Map<Integer, List<VariantEntity>>> variantsByPosition) {
+        int start = Integer.parseInt(coordinates[1]);
+        String reference = coordinates[2];
+        String alternate = (coordinates.length > 3) ? coordinates[3] : null;
+
+        List<VariantEntity> matches = new ArrayList<>();
+        for (VariantEntity variantEntity : variantsByPosition.getOrDefault(coordinates[0], Collections.emptyMap())
+                                                             .getOrDefault(start, Collections.emptyList())) {
+            if (reference.equals(variantEntity.getReference())
+                    && (alternate == null || alternate.equals(variantEntity.getAlternate()))) {
+                matches.add(variantEntity);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Same as {@link #matchCoordinates}, over the variant documents read with only their position and alleles
+     */
+    private boolean containsCoordinates(String[] coordinates,
+                                        Map<String, Map<Integer, List<DBObject>>> allelesByPosition) {
+        int start = Integer.parseInt(coordinates[1]);
+        String reference = coordinates[2];
+        String alternate = (coordinates.length > 3) ? coordinates[3] : null;
+
+        for (DBObject variant : allelesByPosition.getOrDefault(coordinates[0], Collections.emptyMap())
+                                                 .getOrDefault(start, Collections.emptyList())) {
+            if (reference.equals(variant.get("ref")) && (alternate == null || alternate.equals(variant.get("alt")))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean existsByChromosomeAndStartAndAltAndStudyIn(String chromosome, int start, String alternate,
+                                                             List<String> studyIds) {
+        if (!variantPresenceIndex.mightContainAlternate(chromosome, start, alternate, studyIds)) {
+            return false;
+        }
+        Criteria criteria = Criteria.where("chr").is(chromosome).and("start").is(start).and("alt").is(alternate)
+                                    .and("files.sid").in(studyIds);
+        return existsHelper(criteria);
+    }
+
+    @Override
+    public boolean existsByChromosomeAndStartAndTypeAndStudyIn(String chromosome, int start, Variant.VariantType type,
+                                                              List<String> studyIds) {
+        if (!variantPresenceIndex.mightContainType(chromosome, start, type.name(), studyIds)) {
+            return false;
+        }
+        Criteria criteria = Criteria.where("chr").is(chromosome).and("start").is(start).and("type").is(type.name())
+                                    .and("files.sid").in(studyIds);
+        return existsHelper(criteria);
+    }
+
+    @Override
+    public boolean existsByIdsAndComplexFilters(String id, List<VariantEntityRepositoryFilter> filters) {
+        Query query = new Query(Criteria.where("ids").is(id));
+        addFilterCriteriaToQuery(query, filters);
+        return existsHelper(query);
+    }
+
+    @Override
+    public boolean existsByChromosomeAndStartAndAllelesAndComplexFilters(String chromosome, int start,
+                                                                         String reference, String alternate,
+                                                                         List<VariantEntityRepositoryFilter> filters) {
+        Criteria criteria = Criteria.where("chr").is(chromosome).and("start").is(start).and("ref").is(reference);
+        if (alternate != null) {
+            criteria = criteria.and("alt").is(alternate);
+        }
+        Query query = new Query(criteria);
+        addFilterCriteriaToQuery(query, filters);
+        return existsHelper(query);
+    }
+
+    private boolean existsHelper(Criteria criteria) {
+        return existsHelper(new Query(criteria));
     }
 
-    private VariantSourceEntry updateVariantSourceEntrySampleNames(VariantSourceEntry variantSourceEntry,
-                                                                   Table<String, String, Map<String, String>>
-                                                                      studyFileIdsToPositionSamples) {
-        // Get samples data from that variant entry
-        Map<String,Map<String,String>> samplesData = variantSourceEntry.getSamplesData();
-        if ((samplesData == null) || (samplesData.size() == 0)) {
-            return variantSourceEntry;
+    /**
+     * Only the _id of the first match is read, so neither the whole document nor the sample names are loaded
+     */
+    private boolean existsHelper(Query query) {
+        DBObject idOnly = new BasicDBObject(ID_FIELD, 1);
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(VariantEntity.class))
+                            .findOne(query.getQueryObject(), idOnly) != null;
+    }
+
+    /**
+     * Runs the query in the executor for asynchronous queries, against the database selected for the calling thread
+     */
+    private <T> CompletableFuture<T> supplyAsync(Supplier<T> query) {
+        String databaseName = MultiMongoDbFactory.getDatabaseNameForCurrentThread();
+        return CompletableFuture.supplyAsync(() -> {
+            // the previous database is restored because the query may run in the calling thread
+            String previousDatabaseName = MultiMongoDbFactory.getDatabaseNameForCurrentThread();
+            MultiMongoDbFactory.setDatabaseNameForCurrentThread(databaseName);
+            try {
+                return query.get();
+            } finally {
+                if (previousDatabaseName == null) {
+                    MultiMongoDbFactory.clearDatabaseNameForCurrentThread();
+                } else {
+                    MultiMongoDbFactory.setDatabaseNameForCurrentThread(previousDatabaseName);
+                }
+            }
+        }, asyncQueriesExecutor);
+    }
+
+    /**
+     * Runs the query through the query results cache and, on a miss, through the query coalescer, so concurrent
+     * identical queries share one execution. Both are keyed on the database used by the current thread, the operation
+     * and its normalised parameters. Every find and count query goes through here, whatever its genotypes mode: the
+     * cache decides whether to keep each result from its estimated size.
+     */
+    private <T> T cachedQuery(Supplier<T> query, String operation, Object... parameters) {
+        if (!variantQueryCache.isEnabled() && !variantQueryCoalescer.isEnabled()) {
+            return query.get();
         }
+        VariantQueryKey key = new VariantQueryKey(mongoTemplate.getDb().getName(), operation, parameters);
+        return variantQueryCache.get(key, () -> variantQueryCoalescer.run(key, query));
+    }
+
+    @Override
+    public void invalidateCachedQueries() {
+        variantQueryCache.invalidate(mongoTemplate.getDb().getName());
+    }
+
+    @Override
+    public Map<String, Object> getQueryCacheStatistics() {
+        return variantQueryCache.getStatistics();
+    }
+
+    @Override
+    public Map<String, Object> getQueryCoalescingStatistics() {
+        return variantQueryCoalescer.getStatistics();
+    }
+
+    @Override
+    public Set<String> findDistinctChromosomes() {
+        return chromosomesCache.get();
+    }
+
+    @Override
+    public List<ChromosomeSummary> findChromosomeSummaries() {
+        return chromosomeSummariesCache.getIfLoaded();
+    }
+
+    @Override
+    public void preloadVariantLengthStatistics() {
+        variantLengthStatistics.preload();
+    }
+
+    private Set<String> loadDistinctChromosomes(DB db) {
+        return Collections.unmodifiableSet(new HashSet<>(
+                (List<String>) db.getCollection(mongoTemplate.getCollectionName(VariantEntity.class))
+                                 .distinct("chr")));
+    }
 
-        // Get the default genotype string for that variant entry and remove it
-        String defaultGt = samplesData.get("def").get("GT");
-        samplesData.remove("def");
+    private List<ChromosomeSummary> loadChromosomeSummaries(DB db) {
+        DBObject group = new BasicDBObject("_id", "$chr").append("count", new BasicDBObject("$sum", 1))
+                                                         .append("start", new BasicDBObject("$min", "$start"))
+                                                         .append("end", new BasicDBObject("$max", "$end"));
+        AggregationOutput output = db.getCollection(mongoTemplate.getCollectionName(VariantEntity.class))
+                                     .aggregate(Collections.singletonList(new BasicDBObject("$group", group)));
+
+        List<ChromosomeSummary> chromosomeSummaries = new ArrayList<>();
+        for (DBObject result : output.results()) {
+            chromosomeSummaries.add(new ChromosomeSummary((String) result.get("_id"),
+                                                          ((Number) result.get("count")).longValue(),
+                                                          ((Number) result.get("start")).intValue(),
+                                                          ((Number) result.get("end")).intValue()));
+        }
+        chromosomeSummaries.sort(Comparator.comparing(ChromosomeSummary::getChromosome));
+        return Collections.unmodifiableList(chromosomeSummaries);
+    }
 
-        String studyId = variantSourceEntry.getStudyId();
-        String fileId = variantSourceEntry.getFileId();
+    private List<VariantEntity> findByComplexFiltersHelper(Query query, List<VariantEntityRepositoryFilter> filters,
+                                                           List<String> exclude, List<String> include,
+                                                           Pageable pageable, GenotypesMode genotypesMode) {
 
-        // Get the map of sample index to sample name for that study and file
-        Map<String, String> indexesToNames = studyFileIdsToPositionSamples.get(studyId, fileId);
-        for (Map.Entry<String, String> indexToName : indexesToNames.entrySet()) {
-            String sampleIndex = indexToName.getKey();
-            String sampleName = indexToName.getValue();
+        boolean samplesDataRetrieved = addFiltersAndProjectionToQuery(query, filters, exclude, include,
+                                                                      genotypesMode);
 
-            // New sample data ("GT" -> gtString)
-            Map<String, String> sampleData = new HashMap<>(1);
-            // If the sample index is already in the samplesData then remove it
-            if (samplesData.containsKey(sampleIndex)) {
-                sampleData = samplesData.remove(sampleIndex);
+        Pageable pageable1 = (pageable != null) ? pageable : new PageRequest(0, 10);
+        query.with(pageable1);
+
+        List<VariantEntity> variantEntities = mongoTemplate.find(query, VariantEntity.class);
+
+        if (genotypesMode == GenotypesMode.FULL && samplesDataRetrieved) {
+            Table<String, String, String[]> studyFileIdsToSampleNames = studyFileIdsToSampleNames();
+
+            variantEntities = updateVariantEntitiesSampleNames(variantEntities, studyFileIdsToSampleNames);
+        }
+
+        return variantEntities;
+    }
+
+    /**
+     * Queries each chunk of regions in parallel, sorted by chromosome and start, and merges the results. Every chunk
+     * retrieves up to the end of the requested page, because any of them could contain all its variants.
+     */
+    private List<VariantEntity> findByRegionChunksAndComplexFilters(List<List<Region>> regionChunks,
+                                                                    List<VariantEntityRepositoryFilter> filters,
+                                                                    List<String> exclude, List<String> include,
+                                                                    Pageable pageable,
+                                                                    GenotypesMode genotypesMode) {
+        Pageable pageable1 = (pageable != null) ? pageable : new PageRequest(0, 10);
+        int pageEnd = pageable1.getOffset() + pageable1.getPageSize();
+
+        boolean samplesDataRetrieved = false;
+        List<CompletableFuture<List<VariantEntity>>> chunkQueries = new ArrayList<>(regionChunks.size());
+        for (List<Region> regionChunk : regionChunks) {
+            Query query = new Query(getRegionsCriteria(regionChunk));
+            samplesDataRetrieved = addFiltersAndProjectionToQuery(query, filters, exclude, include, genotypesMode);
+            query.limit(pageEnd);
+            chunkQueries.add(supplyAsync(() -> mongoTemplate.find(query, VariantEntity.class)));
+        }
+
+        List<List<VariantEntity>> chunkResults = new ArrayList<>(chunkQueries.size());
+        for (CompletableFuture<List<VariantEntity>> chunkQuery : chunkQueries) {
+            chunkResults.add(chunkQuery.join());
+        }
+        List<VariantEntity> variantEntities = RegionQueryPlanner.merge(chunkResults, pageable1.getOffset(),
+                                                                       pageable1.getPageSize());
+
+        if (genotypesMode == GenotypesMode.FULL && samplesDataRetrieved) {
+            variantEntities = updateVariantEntitiesSampleNames(variantEntities, studyFileIdsToSampleNames());
+        }
+        return variantEntities;
+    }
+
+    /**
+     * Adds the filters, the sort and the fields projection to the query.
+     *
+     * @return whether the samples data is retrieved, so the sample names need to be looked up
+     */
+    private boolean addFiltersAndProjectionToQuery(Query query, List<VariantEntityRepositoryFilter> filters,
+                                                   List<String> exclude, List<String> include,
+                                                   GenotypesMode genotypesMode) {
+        addFilterCriteriaToQuery(query, filters);
+        if (include != null && !include.isEmpty()) {
+            // Mongo can't mix inclusions and exclusions, so the whitelist takes precedence
+            addSortAndInclusionsToQuery(query, include, genotypesMode);
+            return include.contains(FILES_FIELD) && genotypesMode != GenotypesMode.NONE;
+        } else {
+            addSortAndExclusionsToQuery(query, exclude);
+            boolean filesExcluded = exclude != null && exclude.contains(FILES_FIELD);
+            if (genotypesMode == GenotypesMode.NONE && !filesExcluded) {
+                query.fields().exclude(SAMPLES_DATA_FIELD);
+            }
+            return !filesExcluded && genotypesMode != GenotypesMode.NONE;
+        }
+    }
+
+    /**
+     * Restricts the retrieved fields to the included ones, plus those needed to build a VariantEntity. The samples
+     * data is left out when the genotypes are not requested, even if the files are included.
+     */
+    private void addSortAndInclusionsToQuery(Query query, List<String> include, GenotypesMode genotypesMode) {
+        addSortAndExclusionsToQuery(query, null);
+
+        Set<String> fields = new LinkedHashSet<>(MANDATORY_FIELDS);
+        for (String field : include) {
+            if (field.equals(FILES_FIELD) && genotypesMode == GenotypesMode.NONE) {
+                fields.addAll(FILES_FIELDS_WITHOUT_SAMPLES_DATA);
             } else {
-                // If sample index not in samplesData then infer it has the default gt string
-                sampleData.put("GT", defaultGt);
+                fields.add(field);
+            }
+            if (field.startsWith(FILES_FIELD + ".")) {
+                // the file entries can't be built without their study and file ids
+                fields.addAll(FILE_ID_FIELDS);
             }
-            // Put the new sample data into samplesData
-            samplesData.put(sampleName, sampleData);
         }
-        return variantSourceEntry;
+        if (fields.contains(FILES_FIELD)) {
+            // a path can't be projected together with its own subfields
+            fields.removeIf(field -> field.startsWith(FILES_FIELD + "."));
+        }
+        fields.forEach(field -> query.fields().include(field));
+    }
+
+    private void addSortAndExclusionsToQuery(Query query, List<String> exclude) {
+        ArrayList<String> sortProperties = new ArrayList<String>();
+        sortProperties.add("chr");
+        sortProperties.add("start");
+        query.with(new Sort(Sort.Direction.ASC, sortProperties));
+
+        if (exclude != null && !exclude.isEmpty()) {
+            exclude.forEach(e -> query.fields().exclude(e));
+        }
+    }
+
+    private Table<String, String, String[]> studyFileIdsToSampleNames() {
+        return samplesPositionCache.getStudyFileIdsToSampleNames();
+    }
+
+    private List<VariantEntity> updateVariantEntitiesSampleNames(List<VariantEntity> variantEntities,
+                                                                 Table<String, String, String[]>
+                                                                         studyFileIdsToSampleNames) {
+        SamplesDataExpander samplesDataExpander = new SamplesDataExpander(studyFileIdsToSampleNames);
+        variantEntities.forEach(samplesDataExpander::expand);
+        return variantEntities;
+    }
+
+    /**
+     * Wraps a Mongo cursor and replaces the sample indexes with the sample names on each variant as it is read, so
+     * the variants can be consumed one by one without loading all of them in memory.
+     */
+    private class SampleNamesUpdatingIterator implements CloseableIterator<VariantEntity> {
+
+        private final CloseableIterator<VariantEntity> variantEntities;
+
+        private final SamplesDataExpander samplesDataExpander;
+
+        SampleNamesUpdatingIterator(CloseableIterator<VariantEntity> variantEntities,
+                                    Table<String, String, String[]> studyFileIdsToSampleNames) {
+            this.variantEntities = variantEntities;
+            this.samplesDataExpander = new SamplesDataExpander(studyFileIdsToSampleNames);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return variantEntities.hasNext();
+        }
+
+        @Override
+        public VariantEntity next() {
+            return samplesDataExpander.expand(variantEntities.next());
+        }
+
+        @Override
+        public void close() {
+            variantEntities.close();
+        }
     }
 
     private void addFilterCriteriaToQuery(Query query, List<VariantEntityRepositoryFilter> filters) {
@@ -257,6 +948,16 @@ public class VariantEntityRepositoryImpl implements VariantEntityRepositoryCusto
                 ? aggregationResults.getMappedResults().get(0).getCount() : 0;
     }
 
+    private long countByComplexFiltersHelper(Criteria existingCriteria, List<VariantEntityRepositoryFilter> filters,
+                                             long maxCount) {
+        Query query = new Query(existingCriteria);
+        addFilterCriteriaToQuery(query, filters);
+
+        // the server stops scanning once the limit is reached, unlike the $group aggregation
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(VariantEntity.class))
+                            .getCount(query.getQueryObject(), null, maxCount, 0);
+    }
+
     private class VariantAggregationCount {
         private long count;
 
@@ -267,21 +968,47 @@ public class VariantEntityRepositoryImpl implements VariantEntityRepositoryCusto
 
     private List<Criteria> getFiltersCriteria(List<VariantEntityRepositoryFilter> filters) {
         List<Criteria> criteriaList = new ArrayList<>();
-        for (VariantEntityRepositoryFilter filter : filters) {
-            criteriaList.add(filter.getCriteria());
+        // the specs are deduplicated, so a filter repeated by the caller is applied once
+        for (FilterSpec filterSpec : FilterSpec.canonicalize(filters)) {
+            criteriaList.add(filterSpec.getCriteria());
         }
         return criteriaList;
     }
 
+    /**
+     * Variants strictly after the given position in (chr, start, _id) order
+     */
+    private Criteria getSeekCriteria(VariantSeekPosition after) {
+        return new Criteria().orOperator(
+                Criteria.where("chr").gt(after.getChromosome()),
+                Criteria.where("chr").is(after.getChromosome()).and("start").gt(after.getStart()),
+                Criteria.where("chr").is(after.getChromosome()).and("start").is(after.getStart())
+                        .and("_id").gt(after.getId()));
+    }
+
     private Criteria getRegionsCriteria(List<Region> regions) {
         List<Criteria> orRegionCriteria = new ArrayList<>();
 
-        regions.forEach(region -> orRegionCriteria.add(
-                Criteria.where("chr").is(region.getChromosome())
-                        .and("start").lte(region.getEnd()).gt(region.getStart() - MARGIN)
-                        .and("end").gte(region.getStart()).lt(region.getEnd() + MARGIN)));
+        // overlapping regions would make the database scan the same range twice
+        RegionQueryPlanner.coalesce(regions).forEach(region -> orRegionCriteria.add(
+                binQueries ? getBinsCriteria(region) : getMarginCriteria(region)));
 
         return new Criteria().orOperator(orRegionCriteria.toArray(new Criteria[orRegionCriteria.size()]));
     }
 
+    private Criteria getMarginCriteria(Region region) {
+        int margin = variantLengthStatistics.getMargin(region.getChromosome());
+        return Criteria.where("chr").is(region.getChromosome())
+                       .and("start").lte(region.getEnd()).gt(region.getStart() - margin)
+                       .and("end").gte(region.getStart()).lt(region.getEnd() + margin);
+    }
+
+    private Criteria getBinsCriteria(Region region) {
+        return Criteria.where("chr").is(region.getChromosome())
+                       .and(VariantBinBackfill.BIN_FIELD).in(UcscBins.getOverlappingBins(region.getStart(),
+                                                                                        region.getEnd()))
+                       .and("start").lte(region.getEnd())
+                       .and("end").gte(region.getStart());
+    }
+
 }
@@ -0,0 +1,53 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
+
+import java.util.List;
+
+/**
+ * One page of variants retrieved with keyset pagination, along with the position to resume the query from.
+ */
+public class VariantEntitySeekPage {
+
+    private final List<VariantEntity> variantEntities;
+
+    private final VariantSeekPosition nextPosition;
+
+    public VariantEntitySeekPage(List<VariantEntity> variantEntities, VariantSeekPosition nextPosition) {
+        this.variantEntities = variantEntities;
+        this.nextPosition = nextPosition;
+    }
+
+    public List<VariantEntity> getVariantEntities() {
+        return variantEntities;
+    }
+
+    /**
+     * @return position of the last variant in this page, or null if there are no more variants after it
+     */
+    public VariantSeekPosition getNextPosition() {
+        return nextPosition;
+    }
+
+    public boolean hasNext() {
+        return nextPosition != null;
+    }
+}
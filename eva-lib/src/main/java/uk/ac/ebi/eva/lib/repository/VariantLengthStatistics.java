@@ -0,0 +1,209 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import com.mongodb.AggregationOutput;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Longest distance between the start and the end of the variants of each chromosome, per database. Region queries use
+ * it as the margin that bounds the start and end of the overlapping variants, so the index scan is as narrow as the
+ * data allows: one position in a SNP-only chromosome, and wide enough not to miss any structural variant otherwise.
+ *
+ * <p>The statistics of a database are computed in the background with an aggregation the first time the database is
+ * queried, or when they are preloaded, and recomputed once they are older than the refresh interval, keeping the
+ * previous values meanwhile. A failed computation is not retried before the retry interval. Until the first
+ * computation finishes, the default margin is used. Chromosomes without variants when the statistics
+ * were computed use the longest length of the whole database.
+ */
+public class VariantLengthStatistics {
+
+    static final int DEFAULT_MARGIN = 5000;
+
+    private static final long DEFAULT_REFRESH_INTERVAL_MILLIS = 3_600_000;
+
+    private static final long DEFAULT_RETRY_INTERVAL_MILLIS = 600_000;
+
+    private static final String CHROMOSOME_FIELD = "chr";
+
+    private static final String START_FIELD = "start";
+
+    private static final String END_FIELD = "end";
+
+    private static final String LENGTH_FIELD = "length";
+
+    protected static Logger logger = LoggerFactory.getLogger(VariantLengthStatistics.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    private final long refreshIntervalMillis;
+
+    private final long retryIntervalMillis;
+
+    private final Executor computeExecutor;
+
+    private final ConcurrentMap<String, DatabaseLengths> databasesLengths;
+
+    public VariantLengthStatistics(MongoTemplate mongoTemplate, Executor computeExecutor) {
+        this(mongoTemplate, computeExecutor, DEFAULT_REFRESH_INTERVAL_MILLIS, DEFAULT_RETRY_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param refreshIntervalMillis time after which the statistics of a database are recomputed
+     * @param retryIntervalMillis minimum time between a failed computation and the next attempt
+     */
+    public VariantLengthStatistics(MongoTemplate mongoTemplate, Executor computeExecutor,
+                                   long refreshIntervalMillis, long retryIntervalMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.computeExecutor = computeExecutor;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.retryIntervalMillis = retryIntervalMillis;
+        this.databasesLengths = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return a margin such that every variant overlapping a region of the chromosome, in the database used by the
+     * current thread, starts after the region start minus the margin and ends before the region end plus the margin
+     */
+    public int getMargin(String chromosome) {
+        DB db = mongoTemplate.getDb();
+        return getDatabaseLengths(db).getMargin(db, chromosome);
+    }
+
+    /**
+     * Start computing the statistics of the database used by the current thread, unless they are up to date.
+     */
+    public void preload() {
+        DB db = mongoTemplate.getDb();
+        getDatabaseLengths(db).refreshIfStale(db);
+    }
+
+    private DatabaseLengths getDatabaseLengths(DB db) {
+        return databasesLengths.computeIfAbsent(db.getName(), databaseName -> new DatabaseLengths());
+    }
+
+    /**
+     * Discard all the statistics, so they are recomputed the next time they are requested.
+     */
+    public void invalidate() {
+        databasesLengths.clear();
+    }
+
+    /**
+     * Lengths of a single database, along with the time they were computed
+     */
+    private class DatabaseLengths {
+
+        private final AtomicBoolean computing;
+
+        private volatile Map<String, Integer> maxLengthByChromosome;
+
+        private volatile int maxLength;
+
+        private volatile long lastComputed;
+
+        private volatile long lastFailed;
+
+        DatabaseLengths() {
+            this.computing = new AtomicBoolean();
+        }
+
+        int getMargin(DB db, String chromosome) {
+            refreshIfStale(db);
+            Map<String, Integer> currentLengths = maxLengthByChromosome;
+            if (currentLengths == null) {
+                return DEFAULT_MARGIN;
+            }
+            // the bounds are strict, so a variant as long as the margin would be missed
+            return currentLengths.getOrDefault(chromosome, maxLength) + 1;
+        }
+
+        void refreshIfStale(DB db) {
+            long now = System.currentTimeMillis();
+            if (now - lastComputed >= refreshIntervalMillis && now - lastFailed >= retryIntervalMillis) {
+                scheduleCompute(db);
+            }
+        }
+
+        private void scheduleCompute(DB db) {
+            if (!computing.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                computeExecutor.execute(() -> {
+                    try {
+                        Map<String, Integer> computedLengths = compute(db);
+                        maxLength = computedLengths.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+                        maxLengthByChromosome = computedLengths;
+                        lastComputed = System.currentTimeMillis();
+                    } catch (RuntimeException e) {
+                        lastFailed = System.currentTimeMillis();
+                        logger.warn("Could not compute the variant lengths of database {}, retrying in {} ms",
+                                    db.getName(), retryIntervalMillis, e);
+                    } finally {
+                        computing.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                computing.set(false);
+                logger.debug("Variant lengths of database {} not computed, the executor is shut down", db.getName());
+            }
+        }
+
+        private Map<String, Integer> compute(DB db) {
+            DBCollection variants = db.getCollection(mongoTemplate.getCollectionName(VariantEntity.class));
+            List<DBObject> pipeline = Arrays.asList(
+                    new BasicDBObject("$project", new BasicDBObject(CHROMOSOME_FIELD, 1).append(
+                            LENGTH_FIELD, new BasicDBObject("$subtract", Arrays.asList("$" + END_FIELD,
+                                                                                       "$" + START_FIELD)))),
+                    new BasicDBObject("$group", new BasicDBObject("_id", "$" + CHROMOSOME_FIELD).append(
+                            LENGTH_FIELD, new BasicDBObject("$max", "$" + LENGTH_FIELD))));
+
+            logger.debug("Computing variant lengths of database {}", db.getName());
+            AggregationOutput output = variants.aggregate(pipeline);
+
+            Map<String, Integer> computedLengths = new HashMap<>();
+            for (DBObject chromosomeLength : output.results()) {
+                Number length = (Number) chromosomeLength.get(LENGTH_FIELD);
+                computedLengths.put((String) chromosomeLength.get("_id"),
+                                    (length == null) ? 0 : Math.max(0, length.intValue()));
+            }
+            return Collections.unmodifiableMap(computedLengths);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import uk.ac.ebi.eva.commons.models.data.VariantSourceEntity;
+import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-memory index of the variants present in each study, used to answer most existence queries without a database
+ * round trip. Each study has a Bloom filter keyed on chromosome, start and alternate allele, and on chromosome,
+ * start and variant type: a negative answer is definite, and a positive one must be confirmed with a query.
+ *
+ * <p>The filters are built in the background from a cursor over the variants of the study, the first time the study
+ * is queried. The number of variants of each study is counted in the background too, at most once per check
+ * interval, and a study is rebuilt when it changed since its filter was built, or when the filter is older than the
+ * maximum age, so reloads that keep the same number of variants are picked up too. A filter is dropped as soon as its
+ * study needs a rebuild, and a new one is only used if the study still had the same number of variants when its
+ * build finished. Until then, every answer is "maybe", so callers fall back to the database.
+ *
+ * <p>The answers can therefore be stale: variants loaded since the last count may be reported as absent for up to the
+ * check interval (plus the time the count waits for the executor), and variants replaced by a reload that keeps
+ * their number for up to the maximum age.
+ *
+ * <p>Only the studies in the files collection get a filter, so made-up study ids don't trigger any build. The known
+ * studies are refreshed in the background once per check interval, and until they are first loaded every answer is
+ * "maybe". The filters of all the studies together can't take more than the given memory budget: the studies that
+ * don't fit are always answered with "maybe".
+ */
+public class VariantPresenceIndex {
+
+    private static final long DEFAULT_CHECK_INTERVAL_MILLIS = 60_000;
+
+    private static final long DEFAULT_MAX_AGE_MILLIS = 6 * 60 * 60 * 1000;
+
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private static final String CHROMOSOME_FIELD = "chr";
+
+    private static final String START_FIELD = "start";
+
+    private static final String ALTERNATE_FIELD = "alt";
+
+    private static final String TYPE_FIELD = "type";
+
+    private static final String VARIANT_STUDY_ID_FIELD = "files.sid";
+
+    private static final String FILE_STUDY_ID_FIELD = "sid";
+
+    protected static Logger logger = LoggerFactory.getLogger(VariantPresenceIndex.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    private final long checkIntervalMillis;
+
+    private final long maxAgeMillis;
+
+    private final long maxBits;
+
+    private final Executor buildExecutor;
+
+    private final ConcurrentMap<String, DatabaseFilters> databasesFilters;
+
+    public VariantPresenceIndex(MongoTemplate mongoTemplate, Executor buildExecutor) {
+        this(mongoTemplate, buildExecutor, DEFAULT_CHECK_INTERVAL_MILLIS, DEFAULT_MAX_AGE_MILLIS, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param checkIntervalMillis minimum time between two counts of the variants of a study
+     * @param maxAgeMillis time after which a filter is rebuilt even if the variants count didn't change
+     * @param maxBytes memory budget of the filters of all the studies and databases
+     */
+    public VariantPresenceIndex(MongoTemplate mongoTemplate, Executor buildExecutor, long checkIntervalMillis,
+                                long maxAgeMillis, long maxBytes) {
+        this.mongoTemplate = mongoTemplate;
+        this.buildExecutor = buildExecutor;
+        this.checkIntervalMillis = checkIntervalMillis;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxBits = (maxBytes > Long.MAX_VALUE / 8) ? Long.MAX_VALUE : maxBytes * 8;
+        this.databasesFilters = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return false if no variant with that alternate allele starts at that position in any of the studies of the
+     * database used by the current thread, true if there may be one
+     */
+    public boolean mightContainAlternate(String chromosome, int start, String alternate, List<String> studyIds) {
+        return mightContain(getAlternateKey(chromosome, start, alternate), studyIds);
+    }
+
+    /**
+     * @return false if no variant of that type starts at that position in any of the studies of the database used by
+     * the current thread, true if there may be one
+     */
+    public boolean mightContainType(String chromosome, int start, String type, List<String> studyIds) {
+        return mightContain(getTypeKey(chromosome, start, type), studyIds);
+    }
+
+    /**
+     * Discard all the filters, so they are rebuilt the next time they are requested.
+     */
+    public void invalidate() {
+        databasesFilters.clear();
+    }
+
+    private boolean mightContain(String key, List<String> studyIds) {
+        DB db = mongoTemplate.getDb();
+        DatabaseFilters databaseFilters =
+                databasesFilters.computeIfAbsent(db.getName(), databaseName -> new DatabaseFilters());
+        Set<String> knownStudyIds = databaseFilters.getKnownStudyIds(db);
+        if (knownStudyIds == null) {
+            return true;
+        }
+        for (String studyId : studyIds) {
+            if (!knownStudyIds.contains(studyId)) {
+                // no file, so no variant either
+                continue;
+            }
+            StudyPresenceFilter studyFilter = databaseFilters.studiesFilters.computeIfAbsent(studyId,
+                                                                                          StudyPresenceFilter::new);
+            if (studyFilter.mightContain(db, key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getAlternateKey(String chromosome, int start, String alternate) {
+        return "a:" + chromosome + ":" + start + ":" + alternate;
+    }
+
+    private static String getTypeKey(String chromosome, int start, String type) {
+        return "t:" + chromosome + ":" + start + ":" + type;
+    }
+
+    /**
+     * @return Number of bits of all the filters in use, except the given one
+     */
+    private long getUsedBits(StudyPresenceFilter excluded) {
+        long usedBits = 0;
+        for (DatabaseFilters databaseFilters : databasesFilters.values()) {
+            for (StudyPresenceFilter studyFilter : databaseFilters.studiesFilters.values()) {
+                if (studyFilter != excluded) {
+                    usedBits += studyFilter.getNumBits();
+                }
+            }
+        }
+        return usedBits;
+    }
+
+    /**
+     * Filters of the studies of a single database, along with the ids of the studies that have files in it
+     */
+    private class DatabaseFilters {
+
+        private final ConcurrentMap<String, StudyPresenceFilter> studiesFilters = new ConcurrentHashMap<>();
+
+        private final AtomicBoolean loadingStudyIds = new AtomicBoolean();
+
+        private volatile Set<String> knownStudyIds;
+
+        private volatile long lastStudyIdsLoad;
+
+        /**
+         * @return The ids of the studies with files in the database, or null if they have not been loaded yet
+         */
+        Set<String> getKnownStudyIds(DB db) {
+            if (System.currentTimeMillis() - lastStudyIdsLoad >= checkIntervalMillis
+                    && loadingStudyIds.compareAndSet(false, true)) {
+                try {
+                    buildExecutor.execute(() -> {
+                        try {
+                            DBCollection files = db.getCollection(
+                                    mongoTemplate.getCollectionName(VariantSourceEntity.class));
+                            Set<String> studyIds = new HashSet<>();
+                            for (Object studyId : files.distinct(FILE_STUDY_ID_FIELD)) {
+                                studyIds.add(String.valueOf(studyId));
+                            }
+                            knownStudyIds = studyIds;
+                            lastStudyIdsLoad = System.currentTimeMillis();
+                            // the filters of the studies that were removed are discarded
+                            studiesFilters.keySet().retainAll(studyIds);
+                        } catch (RuntimeException e) {
+                            logger.warn("Could not load the studies of database {}", db.getName(), e);
+                        } finally {
+                            loadingStudyIds.set(false);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    loadingStudyIds.set(false);
+                    logger.debug("Studies of database {} not loaded, the executor is shut down", db.getName());
+                }
+            }
+            return knownStudyIds;
+        }
+    }
+
+    /**
+     * Filter of a single study, along with the number of variants of the study it was built from
+     */
+    private class StudyPresenceFilter {
+
+        private final String studyId;
+
+        private final AtomicBoolean building;
+
+        private final AtomicBoolean checking;
+
+        private volatile BloomFilter bloomFilter;
+
+        private volatile long builtVariantsCount = -1;
+
+        private volatile long builtTime;
+
+        private volatile long lastCheck;
+
+        StudyPresenceFilter(String studyId) {
+            this.studyId = studyId;
+            this.building = new AtomicBoolean();
+            this.checking = new AtomicBoolean();
+        }
+
+        /**
+         * Answers with the current filter, the variants are counted in the background when the check interval has
+         * elapsed, so no query waits for them.
+         */
+        boolean mightContain(DB db, String key) {
+            if (System.currentTimeMillis() - lastCheck >= checkIntervalMillis && checking.compareAndSet(false, true)) {
+                scheduleCheck(db);
+            }
+            BloomFilter currentFilter = bloomFilter;
+            return currentFilter == null || currentFilter.mightContain(key);
+        }
+
+        long getNumBits() {
+            BloomFilter currentFilter = bloomFilter;
+            return currentFilter == null ? 0 : currentFilter.getNumBits();
+        }
+
+        private void scheduleCheck(DB db) {
+            try {
+                buildExecutor.execute(() -> {
+                    try {
+                        check(db);
+                    } catch (RuntimeException e) {
+                        logger.warn("Could not count the variants of study {} in database {}", studyId, db.getName(),
+                                    e);
+                    } finally {
+                        checking.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                checking.set(false);
+                logger.debug("Variants of study {} not counted, the executor is shut down", studyId);
+            }
+        }
+
+        private synchronized void check(DB db) {
+            // the count is not retried before the next interval even if it fails
+            lastCheck = System.currentTimeMillis();
+            boolean variantsChanged = countVariants(db) != builtVariantsCount;
+            if (variantsChanged || System.currentTimeMillis() - builtTime >= maxAgeMillis) {
+                // the current filter would miss the variants loaded since it was built, or those reloaded without
+                // changing their number, so the database is queried until the new filter is ready
+                bloomFilter = null;
+                scheduleBuild(db);
+            }
+        }
+
+        private void scheduleBuild(DB db) {
+            if (!building.compareAndSet(false, true)) {
+                // a build already in progress is discarded when it finishes if the variants count changed
+                return;
+            }
+            try {
+                buildExecutor.execute(() -> {
+                    try {
+                        buildAndInstall(db);
+                    } catch (RuntimeException e) {
+                        logger.warn("Could not build the presence filter of study {} in database {}", studyId,
+                                    db.getName(), e);
+                    } finally {
+                        building.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                building.set(false);
+                logger.debug("Presence filter of study {} not built, the executor is shut down", studyId);
+            }
+        }
+
+        private void buildAndInstall(DB db) {
+            long startVariantsCount = countVariants(db);
+            long numBits = BloomFilter.getNumBits(2 * startVariantsCount, FALSE_POSITIVE_PROBABILITY);
+            if (getUsedBits(this) + numBits > maxBits) {
+                logger.warn("Presence filter of study {} in database {} not built, it would exceed the memory budget",
+                            studyId, db.getName());
+                return;
+            }
+
+            BloomFilter builtFilter = build(db, startVariantsCount);
+
+            // variants loaded during the build may be missing from the filter
+            long endVariantsCount = countVariants(db);
+            synchronized (this) {
+                if (endVariantsCount != startVariantsCount) {
+                    logger.debug("Presence filter of study {} in database {} discarded, its variants changed while "
+                                         + "it was built", studyId, db.getName());
+                    bloomFilter = null;
+                    lastCheck = 0;
+                    return;
+                }
+                synchronized (VariantPresenceIndex.this) {
+                    if (getUsedBits(this) + builtFilter.getNumBits() > maxBits) {
+                        logger.warn("Presence filter of study {} in database {} discarded, it would exceed the "
+                                            + "memory budget", studyId, db.getName());
+                        return;
+                    }
+                    bloomFilter = builtFilter;
+                }
+                builtVariantsCount = endVariantsCount;
+                builtTime = System.currentTimeMillis();
+            }
+        }
+
+        private long countVariants(DB db) {
+            DBCollection variants = db.getCollection(mongoTemplate.getCollectionName(VariantEntity.class));
+            return variants.count(new BasicDBObject(VARIANT_STUDY_ID_FIELD, studyId));
+        }
+
+        private BloomFilter build(DB db, long variantsCount) {
+            DBCollection variants = db.getCollection(mongoTemplate.getCollectionName(VariantEntity.class));
+            DBObject query = new BasicDBObject(VARIANT_STUDY_ID_FIELD, studyId);
+            DBObject projection = new BasicDBObject(CHROMOSOME_FIELD, 1).append(START_FIELD, 1)
+                                                                       .append(ALTERNATE_FIELD, 1)
+                                                                       .append(TYPE_FIELD, 1);
+
+            logger.debug("Building presence filter of study {} in database {} ({} variants)", studyId, db.getName(),
+                         variantsCount);
+
+            // two keys per variant
+            BloomFilter builtFilter = new BloomFilter(2 * variantsCount, FALSE_POSITIVE_PROBABILITY);
+            DBCursor cursor = variants.find(query, projection);
+            try {
+                while (cursor.hasNext()) {
+                    DBObject variant = cursor.next();
+                    String chromosome = (String) variant.get(CHROMOSOME_FIELD);
+                    int start = ((Number) variant.get(START_FIELD)).intValue();
+                    builtFilter.put(getAlternateKey(chromosome, start, (String) variant.get(ALTERNATE_FIELD)));
+                    builtFilter.put(getTypeKey(chromosome, start, (String) variant.get(TYPE_FIELD)));
+                }
+            } finally {
+                cursor.close();
+            }
+            return builtFilter;
+        }
+    }
+}
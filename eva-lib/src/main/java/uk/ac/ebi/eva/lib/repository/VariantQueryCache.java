@@ -0,0 +1,372 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import org.opencb.biodata.models.variant.VariantSourceEntry;
+
+import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Results of the variant queries, bounded by number of entries, estimated size and time to live. The same few loci
+ * are requested over and over, so this follows the W-TinyLFU policy, which keeps them cached while scans of rarely
+ * repeated queries go by: new results enter a small LRU window, and when it is full its oldest result is admitted into
+ * the main LRU area only if its query has been requested more often than the one it would evict. The request
+ * frequencies are estimated by a count-min sketch that is halved periodically, so old popularity fades.
+ *
+ * The size of each result is estimated by {@link #weigh(Object)}, mostly from its number of variants and samples.
+ * When the cached results exceed maxBytes, the least recently used ones are evicted, and a single result bigger than
+ * a hundredth of maxBytes, such as a large page of variants with their samples data, is never cached.
+ *
+ * The results are shared by all the callers, and must not be modified. A cache with no entries or bytes is disabled,
+ * and just runs the queries.
+ */
+class VariantQueryCache {
+
+    /**
+     * Proportion of the entries in the admission window
+     */
+    private static final double WINDOW_RATIO = 0.01;
+
+    /**
+     * Proportion of maxBytes that a single result may take
+     */
+    private static final double MAX_RESULT_RATIO = 0.01;
+
+    /**
+     * Estimated sizes of a count, of a variant without samples data, and of the data of each sample of a variant
+     */
+    static final long COUNT_BYTES = 16;
+
+    static final long VARIANT_BYTES = 1024;
+
+    static final long SAMPLE_BYTES = 64;
+
+    private final int maxEntries;
+
+    private final long maxBytes;
+
+    private final long maxResultBytes;
+
+    private final int windowMaxEntries;
+
+    private final int mainMaxEntries;
+
+    private final long timeToLiveMillis;
+
+    private final LinkedHashMap<VariantQueryKey, Entry> window;
+
+    private final LinkedHashMap<VariantQueryKey, Entry> main;
+
+    private final FrequencySketch frequencySketch;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private long rejections;
+
+    private long oversized;
+
+    private long bytes;
+
+    VariantQueryCache(int maxEntries, long timeToLiveMillis) {
+        this(maxEntries, Long.MAX_VALUE, timeToLiveMillis);
+    }
+
+    VariantQueryCache(int maxEntries, long maxBytes, long timeToLiveMillis) {
+        this.maxEntries = Math.max(maxEntries, 0);
+        this.maxBytes = Math.max(maxBytes, 0);
+        this.maxResultBytes = (long) (this.maxBytes * MAX_RESULT_RATIO);
+        this.windowMaxEntries = Math.max(1, (int) (this.maxEntries * WINDOW_RATIO));
+        this.mainMaxEntries = Math.max(0, this.maxEntries - windowMaxEntries);
+        this.timeToLiveMillis = timeToLiveMillis;
+        // access order, so the first entries are the least recently used
+        this.window = new LinkedHashMap<>(16, 0.75f, true);
+        this.main = new LinkedHashMap<>(16, 0.75f, true);
+        this.frequencySketch = new FrequencySketch(this.maxEntries);
+    }
+
+    boolean isEnabled() {
+        return maxEntries > 0 && maxBytes > 0;
+    }
+
+    /**
+     * @return the cached result of the query, or the result of running it if it was not cached or has expired
+     */
+    <T> T get(VariantQueryKey key, Supplier<T> query) {
+        if (!isEnabled()) {
+            return query.get();
+        }
+        Object cachedResult = getIfPresent(key);
+        if (cachedResult != null) {
+            return (T) cachedResult;
+        }
+        // the query runs outside the lock, so slow queries don't block the cache
+        T result = query.get();
+        if (result != null) {
+            // weighed outside the lock too, as that goes through every variant and sample of the result
+            put(key, result, weigh(result));
+        }
+        return result;
+    }
+
+    /**
+     * Discards the results of the queries run against a database, for instance after new variants are loaded in it
+     */
+    synchronized void invalidate(String databaseName) {
+        invalidate(window, databaseName);
+        invalidate(main, databaseName);
+    }
+
+    private void invalidate(LinkedHashMap<VariantQueryKey, Entry> area, String databaseName) {
+        Iterator<Map.Entry<VariantQueryKey, Entry>> iterator = area.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<VariantQueryKey, Entry> entry = iterator.next();
+            if (entry.getKey().getDatabaseName().equals(databaseName)) {
+                bytes -= entry.getValue().bytes;
+                iterator.remove();
+            }
+        }
+    }
+
+    synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("maxEntries", maxEntries);
+        statistics.put("entries", window.size() + main.size());
+        statistics.put("maxBytes", maxBytes);
+        statistics.put("bytes", bytes);
+        statistics.put("hits", hits);
+        statistics.put("misses", misses);
+        statistics.put("hitRatio", (hits + misses == 0) ? 0.0 : (double) hits / (hits + misses));
+        statistics.put("evictions", evictions);
+        statistics.put("rejections", rejections);
+        statistics.put("oversized", oversized);
+        return statistics;
+    }
+
+    private synchronized Object getIfPresent(VariantQueryKey key) {
+        frequencySketch.increment(key);
+        long now = System.currentTimeMillis();
+        Entry entry = window.get(key);
+        if (entry == null) {
+            entry = main.get(key);
+        }
+        if (entry != null && entry.expirationTime > now) {
+            hits++;
+            return entry.result;
+        }
+        if (entry != null) {
+            remove(key);
+        }
+        misses++;
+        return null;
+    }
+
+    private synchronized void put(VariantQueryKey key, Object result, long resultBytes) {
+        if (resultBytes > maxResultBytes) {
+            oversized++;
+            return;
+        }
+        Entry entry = new Entry(result, resultBytes, System.currentTimeMillis() + timeToLiveMillis);
+        boolean cachedInMain = main.containsKey(key);
+        remove(key);
+        bytes += entry.bytes;
+        if (cachedInMain) {
+            main.put(key, entry);
+        } else {
+            window.put(key, entry);
+            if (window.size() > windowMaxEntries) {
+                Iterator<Map.Entry<VariantQueryKey, Entry>> windowIterator = window.entrySet().iterator();
+                Map.Entry<VariantQueryKey, Entry> candidate = windowIterator.next();
+                windowIterator.remove();
+                admit(candidate.getKey(), candidate.getValue());
+            }
+        }
+        evictOverBudget();
+    }
+
+    private void admit(VariantQueryKey candidateKey, Entry candidate) {
+        if (main.size() < mainMaxEntries) {
+            main.put(candidateKey, candidate);
+            return;
+        }
+        if (main.isEmpty()) {
+            rejections++;
+            bytes -= candidate.bytes;
+            return;
+        }
+        Iterator<Map.Entry<VariantQueryKey, Entry>> mainIterator = main.entrySet().iterator();
+        Map.Entry<VariantQueryKey, Entry> victim = mainIterator.next();
+        if (frequencySketch.frequency(candidateKey) > frequencySketch.frequency(victim.getKey())) {
+            bytes -= victim.getValue().bytes;
+            mainIterator.remove();
+            evictions++;
+            main.put(candidateKey, candidate);
+        } else {
+            rejections++;
+            bytes -= candidate.bytes;
+        }
+    }
+
+    /**
+     * Evicts the least recently used results of the main area, and then of the window, until the cached results fit
+     * in maxBytes
+     */
+    private void evictOverBudget() {
+        while (bytes > maxBytes && !(main.isEmpty() && window.isEmpty())) {
+            LinkedHashMap<VariantQueryKey, Entry> area = main.isEmpty() ? window : main;
+            Iterator<Entry> iterator = area.values().iterator();
+            bytes -= iterator.next().bytes;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    private void remove(VariantQueryKey key) {
+        Entry entry = window.remove(key);
+        if (entry == null) {
+            entry = main.remove(key);
+        }
+        if (entry != null) {
+            bytes -= entry.bytes;
+        }
+    }
+
+    /**
+     * @return the estimated size in memory of a query result: a count, a list of variants or a page of them. The size
+     * of a variant grows with the number of samples in its files, which is what makes some results huge.
+     */
+    static long weigh(Object result) {
+        if (result instanceof VariantEntitySeekPage) {
+            return COUNT_BYTES + weigh(((VariantEntitySeekPage) result).getVariantEntities());
+        }
+        if (result instanceof Collection) {
+            long collectionBytes = COUNT_BYTES;
+            for (Object element : (Collection<?>) result) {
+                collectionBytes += weigh(element);
+            }
+            return collectionBytes;
+        }
+        if (result instanceof VariantEntity) {
+            long variantBytes = VARIANT_BYTES;
+            for (VariantSourceEntry sourceEntry : ((VariantEntity) result).getSourceEntries().values()) {
+                if (sourceEntry.getSamplesData() != null) {
+                    variantBytes += SAMPLE_BYTES * sourceEntry.getSamplesData().size();
+                }
+            }
+            return variantBytes;
+        }
+        return COUNT_BYTES;
+    }
+
+    private static class Entry {
+
+        private final Object result;
+
+        private final long bytes;
+
+        private final long expirationTime;
+
+        Entry(Object result, long bytes, long expirationTime) {
+            this.result = result;
+            this.bytes = bytes;
+            this.expirationTime = expirationTime;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4 rows of counters that saturate at 15, with 4 counters per expected entry in each row to
+     * keep the collisions low. When the number of increments reaches 10 times the expected entries, all the counters
+     * are halved.
+     */
+    static class FrequencySketch {
+
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+                0xcbf29ce484222325L};
+
+        private static final int MAX_FREQUENCY = 15;
+
+        private final byte[][] counters;
+
+        private final int mask;
+
+        private final int sampleSize;
+
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int width = Integer.highestOneBit(Math.max(4 * expectedEntries, 8) - 1) << 1;
+            counters = new byte[SEEDS.length][width];
+            mask = width - 1;
+            sampleSize = 10 * Math.max(expectedEntries, 1);
+        }
+
+        void increment(Object element) {
+            int hash = spread(element.hashCode());
+            boolean added = false;
+            for (int row = 0; row < SEEDS.length; row++) {
+                int index = indexOf(hash, row);
+                if (counters[row][index] < MAX_FREQUENCY) {
+                    counters[row][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(Object element) {
+            int hash = spread(element.hashCode());
+            int frequency = MAX_FREQUENCY;
+            for (int row = 0; row < SEEDS.length; row++) {
+                frequency = Math.min(frequency, counters[row][indexOf(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private void reset() {
+            for (byte[] row : counters) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>= 1;
+                }
+            }
+            additions /= 2;
+        }
+
+        private int indexOf(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return (int) h & mask;
+        }
+
+        private static int spread(int hash) {
+            hash *= 0x9e3779b9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent identical queries share a single execution. The first caller of a key runs the query, and the
+ * callers that arrive while it is running wait for its result instead of sending the same query to the database.
+ *
+ * A follower waits at most its own timeout, regardless of how long the query has been running, and then runs the
+ * query by itself. A failed query fails all its followers too. A disabled coalescer just runs the queries.
+ */
+class VariantQueryCoalescer {
+
+    protected static Logger logger = LoggerFactory.getLogger(VariantQueryCoalescer.class);
+
+    private final boolean enabled;
+
+    private final long followerTimeoutMillis;
+
+    private final ConcurrentMap<VariantQueryKey, CompletableFuture<Object>> inFlightQueries;
+
+    private final AtomicLong executions;
+
+    private final AtomicLong coalesced;
+
+    private final AtomicLong followerTimeouts;
+
+    VariantQueryCoalescer(boolean enabled, long followerTimeoutMillis) {
+        this.enabled = enabled;
+        this.followerTimeoutMillis = followerTimeoutMillis;
+        this.inFlightQueries = new ConcurrentHashMap<>();
+        this.executions = new AtomicLong();
+        this.coalesced = new AtomicLong();
+        this.followerTimeouts = new AtomicLong();
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the result of the query, run either by this caller or by a concurrent caller of the same key
+     */
+    <T> T run(VariantQueryKey key, Supplier<T> query) {
+        if (!enabled) {
+            return query.get();
+        }
+        CompletableFuture<Object> execution = new CompletableFuture<>();
+        CompletableFuture<Object> inFlightExecution = inFlightQueries.putIfAbsent(key, execution);
+        if (inFlightExecution == null) {
+            return lead(key, execution, query);
+        }
+        coalesced.incrementAndGet();
+        return follow(key, inFlightExecution, query);
+    }
+
+    private <T> T lead(VariantQueryKey key, CompletableFuture<Object> execution, Supplier<T> query) {
+        executions.incrementAndGet();
+        try {
+            T result = query.get();
+            execution.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            execution.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightQueries.remove(key, execution);
+        }
+    }
+
+    private <T> T follow(VariantQueryKey key, CompletableFuture<Object> inFlightExecution, Supplier<T> query) {
+        try {
+            // the leader ran the same query, so its result has the type requested by the follower
+            @SuppressWarnings("unchecked")
+            T result = (T) inFlightExecution.get(followerTimeoutMillis, TimeUnit.MILLISECONDS);
+            return result;
+        } catch (TimeoutException e) {
+            followerTimeouts.incrementAndGet();
+            logger.debug("Query {} still running after {} ms, running it again", key, followerTimeoutMillis);
+            return query.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for query " + key, e);
+        }
+    }
+
+    /**
+     * @return the number of executions, the requests that shared another request's execution, the proportion of
+     * requests collapsed that way, the followers that gave up waiting, and the queries running now
+     */
+    Map<String, Object> getStatistics() {
+        long executionsCount = executions.get();
+        long coalescedCount = coalesced.get();
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("enabled", enabled);
+        statistics.put("executions", executionsCount);
+        statistics.put("coalesced", coalescedCount);
+        statistics.put("collapseRatio", (executionsCount + coalescedCount == 0) ?
+                0.0 : (double) coalescedCount / (executionsCount + coalescedCount));
+        statistics.put("followerTimeouts", followerTimeouts.get());
+        statistics.put("inFlight", inFlightQueries.size());
+        return statistics;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import org.opencb.biodata.models.feature.Region;
+import org.springframework.data.domain.Pageable;
+
+import uk.ac.ebi.eva.lib.filter.FilterSpec;
+import uk.ac.ebi.eva.lib.filter.VariantEntityRepositoryFilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Identifies a variant query by the database it runs against, the repository operation and its parameters. The
+ * parameters are normalised so that queries with the same results have equal keys: regions are coalesced and sorted,
+ * the filters are replaced by their canonical specs, and the field lists are compared regardless of their order.
+ */
+final class VariantQueryKey {
+
+    private final String databaseName;
+
+    private final String operation;
+
+    private final List<Object> parameters;
+
+    VariantQueryKey(String databaseName, String operation, Object... parameters) {
+        this.databaseName = databaseName;
+        this.operation = operation;
+        this.parameters = Arrays.asList(parameters);
+    }
+
+    String getDatabaseName() {
+        return databaseName;
+    }
+
+    static List<String> regions(List<Region> regions) {
+        List<String> coalescedRegions = new ArrayList<>();
+        for (Region region : RegionQueryPlanner.coalesce(regions)) {
+            coalescedRegions.add(region.getChromosome() + ":" + region.getStart() + "-" + region.getEnd());
+        }
+        return coalescedRegions;
+    }
+
+    /**
+     * @return the canonical specs of the filters, which are sorted and compared by value
+     */
+    static List<FilterSpec> filterSpecs(List<VariantEntityRepositoryFilter> filters) {
+        return FilterSpec.canonicalize(filters);
+    }
+
+    /**
+     * @return the elements as a set, or null for a null or empty collection, which mean the same to the queries
+     */
+    static <T> Set<T> unordered(Collection<T> elements) {
+        return (elements == null || elements.isEmpty()) ? null : new HashSet<>(elements);
+    }
+
+    /**
+     * @return the offset and size of the page, the default one of the repository for null
+     */
+    static List<Integer> page(Pageable pageable) {
+        return (pageable == null) ? Arrays.asList(0, 10) : Arrays.asList(pageable.getOffset(), pageable.getPageSize());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof VariantQueryKey)) {
+            return false;
+        }
+
+        VariantQueryKey that = (VariantQueryKey) o;
+
+        if (!databaseName.equals(that.databaseName)) {
+            return false;
+        }
+        if (!operation.equals(that.operation)) {
+            return false;
+        }
+        return parameters.equals(that.parameters);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = databaseName.hashCode();
+        result = 31 * result + operation.hashCode();
+        result = 31 * result + parameters.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return databaseName + "." + operation + parameters;
+    }
+}
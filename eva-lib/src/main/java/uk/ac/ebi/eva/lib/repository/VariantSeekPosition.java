@@ -0,0 +1,88 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+/**
+ * Position of a variant in the (chromosome, start, _id) order used for keyset pagination.
+ *
+ * <p>A query resumed from a VariantSeekPosition will return only the variants strictly after it in that order, which
+ * the database can resolve with an index seek instead of skipping all the previous pages.
+ */
+public final class VariantSeekPosition {
+
+    private final String chromosome;
+
+    private final int start;
+
+    private final String id;
+
+    public VariantSeekPosition(String chromosome, int start, String id) {
+        if (chromosome == null || id == null) {
+            throw new IllegalArgumentException("Chromosome and id must be provided to build a seek position");
+        }
+        this.chromosome = chromosome;
+        this.start = start;
+        this.id = id;
+    }
+
+    public String getChromosome() {
+        return chromosome;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof VariantSeekPosition)) {
+            return false;
+        }
+
+        VariantSeekPosition that = (VariantSeekPosition) o;
+
+        if (start != that.start) {
+            return false;
+        }
+        if (!chromosome.equals(that.chromosome)) {
+            return false;
+        }
+        return id.equals(that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = chromosome.hashCode();
+        result = 31 * result + start;
+        result = 31 * result + id.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return chromosome + ":" + start + ":" + id;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository.projections;
+
+/**
+ * Number of variants of a chromosome and the positions they span
+ */
+public class ChromosomeSummary {
+
+    private String chromosome;
+
+    private long variantsCount;
+
+    /**
+     * Start of the first variant of the chromosome
+     */
+    private int start;
+
+    /**
+     * End of the last variant of the chromosome
+     */
+    private int end;
+
+    ChromosomeSummary() {
+        // for serialization
+    }
+
+    public ChromosomeSummary(String chromosome, long variantsCount, int start, int end) {
+        this.chromosome = chromosome;
+        this.variantsCount = variantsCount;
+        this.start = start;
+        this.end = end;
+    }
+
+    public String getChromosome() {
+        return chromosome;
+    }
+
+    public long getVariantsCount() {
+        return variantsCount;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ChromosomeSummary)) {
+            return false;
+        }
+
+        ChromosomeSummary that = (ChromosomeSummary) o;
+
+        return variantsCount == that.variantsCount && start == that.start && end == that.end
+                && chromosome.equals(that.chromosome);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = chromosome.hashCode();
+        result = 31 * result + Long.hashCode(variantsCount);
+        result = 31 * result + start;
+        result = 31 * result + end;
+        return result;
+    }
+}
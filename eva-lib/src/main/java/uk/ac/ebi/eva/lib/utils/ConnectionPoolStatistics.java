@@ -0,0 +1,81 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the statistics of the Mongo driver connection pools. The driver publishes one JMX MBean per pool (that is,
+ * per client and server) under the "org.mongodb.driver" domain.
+ */
+public class ConnectionPoolStatistics {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionPoolStatistics.class);
+
+    private static final ObjectName CONNECTION_POOL_MBEANS;
+
+    static {
+        try {
+            CONNECTION_POOL_MBEANS = new ObjectName("org.mongodb.driver:type=ConnectionPool,*");
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final String[] ATTRIBUTES = {"Host", "Port", "MinSize", "MaxSize", "Size", "CheckedOutCount",
+            "WaitQueueSize"};
+
+    private ConnectionPoolStatistics() {
+    }
+
+    /**
+     * @return one map per connection pool, with the client and server that identify the pool and its current size,
+     * connections in use and threads waiting for a connection
+     */
+    public static List<Map<String, Object>> getConnectionPoolStatistics() {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        List<Map<String, Object>> statistics = new ArrayList<>();
+        for (ObjectName pool : mBeanServer.queryNames(CONNECTION_POOL_MBEANS, null)) {
+            try {
+                Map<String, Object> poolStatistics = new LinkedHashMap<>();
+                poolStatistics.put("clusterId", pool.getKeyProperty("clusterId"));
+                for (String attribute : ATTRIBUTES) {
+                    poolStatistics.put(Character.toLowerCase(attribute.charAt(0)) + attribute.substring(1),
+                                       mBeanServer.getAttribute(pool, attribute));
+                }
+                statistics.add(poolStatistics);
+            } catch (JMException e) {
+                // the pool may have been closed since the query
+                logger.debug("Could not read the statistics of connection pool {}", pool, e);
+            }
+        }
+        return statistics;
+    }
+}
@@ -29,46 +29,193 @@ import org.opencb.opencga.storage.mongodb.utils.MongoCredentials;
 import org.opencb.opencga.storage.mongodb.variant.StudyMongoDBAdaptor;
 import org.opencb.opencga.storage.mongodb.variant.VariantMongoDBAdaptor;
 import org.opencb.opencga.storage.mongodb.variant.VariantSourceMongoDBAdaptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * Provides the OpenCGA adaptors for each species. Every adaptor owns its own Mongo client, so they are built once per
+ * species and reused. Species that have not been queried for a while are evicted and their clients closed, as are
+ * all the remaining ones when the application shuts down.
+ *
+ * Every adaptor returned is leased to the calling thread until it calls {@link #releaseAdaptors()}, which the web
+ * services do at the end of each request. The adaptors of an evicted species are only closed once all their leases
+ * have been released, so a request never has its Mongo client closed while it is querying.
+ *
+ * The registry can be tuned in eva.properties:
+ *  - eva.mongo.adaptors.max-species maximum number of species whose adaptors are kept open, 16 if unspecified
+ *  - eva.mongo.adaptors.idle-timeout milliseconds after which the adaptors of an unused species are closed,
+ *          600000 (10 minutes) if unspecified
  *
  * @author Cristina Yenyxe Gonzalez Garcia <cyenyxe@ebi.ac.uk>
  */
 @Component
 public class DBAdaptorConnector {
 
+    private static final Logger logger = LoggerFactory.getLogger(DBAdaptorConnector.class);
+
+    private static final int DEFAULT_MAX_SPECIES = 16;
+
+    private static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
     private Properties properties;
 
+    private final List<DataStoreServerAddress> servers;
+
+    private final int maxSpecies;
+
+    private final long idleTimeoutMillis;
+
+    private final ConcurrentMap<String, SpeciesAdaptors> adaptors;
+
+    private final ThreadLocal<List<SpeciesAdaptors>> leases = ThreadLocal.withInitial(ArrayList::new);
+
     public DBAdaptorConnector() throws IOException {
-        properties = new Properties();
+        this(loadProperties());
+    }
+
+    DBAdaptorConnector(Properties properties) {
+        this.properties = properties;
+        servers = getServerAddresses(properties);
+        maxSpecies = Integer.parseInt(getProperty(properties, "eva.mongo.adaptors.max-species",
+                                                  String.valueOf(DEFAULT_MAX_SPECIES)));
+        idleTimeoutMillis = Long.parseLong(getProperty(properties, "eva.mongo.adaptors.idle-timeout",
+                                                       String.valueOf(DEFAULT_IDLE_TIMEOUT_MILLIS)));
+        adaptors = new ConcurrentHashMap<>();
+    }
+
+    private static Properties loadProperties() throws IOException {
+        Properties properties = new Properties();
         properties.load(DBAdaptorConnector.class.getResourceAsStream("/eva.properties"));
+        return properties;
     }
 
     public VariantDBAdaptor getVariantDBAdaptor(String species)
             throws UnknownHostException, IllegalOpenCGACredentialsException, IOException {
-        return new VariantMongoDBAdaptor(getCredentials(species, properties),
-                properties.getProperty("eva.mongo.collections.variants"), 
-                properties.getProperty("eva.mongo.collections.files"));
+        return getSpeciesAdaptors(species).getVariantDBAdaptor();
     }
     
     public StudyDBAdaptor getStudyDBAdaptor(String species)
             throws UnknownHostException, IllegalOpenCGACredentialsException, IOException {
-        return new StudyMongoDBAdaptor(getCredentials(species, properties),
-                properties.getProperty("eva.mongo.collections.files"));
+        return getSpeciesAdaptors(species).getStudyDBAdaptor();
     }
     
     public VariantSourceDBAdaptor getVariantSourceDBAdaptor(String species)
             throws UnknownHostException, IllegalOpenCGACredentialsException, IOException {
-        return new VariantSourceMongoDBAdaptor(getCredentials(species, properties),
-                properties.getProperty("eva.mongo.collections.files"));
+        return getSpeciesAdaptors(species).getVariantSourceDBAdaptor();
+    }
+
+    /**
+     * Releases the leases taken by the current thread, closing the adaptors of the species that were evicted while
+     * they were in use
+     */
+    public void releaseAdaptors() {
+        List<SpeciesAdaptors> threadLeases = leases.get();
+        for (SpeciesAdaptors speciesAdaptors : threadLeases) {
+            speciesAdaptors.release();
+        }
+        threadLeases.clear();
+    }
+
+    /**
+     * Closes all the adaptors, even those still leased, as the application is shutting down
+     */
+    @PreDestroy
+    public void closeAdaptors() {
+        for (String species : adaptors.keySet()) {
+            SpeciesAdaptors speciesAdaptors = adaptors.remove(species);
+            if (speciesAdaptors != null) {
+                logger.debug("Closing database adaptors for species {}", species);
+                speciesAdaptors.close();
+            }
+        }
+    }
+
+    SpeciesAdaptors getSpeciesAdaptors(String species) throws IllegalOpenCGACredentialsException {
+        if (species == null || species.isEmpty()) {
+            throw new IllegalArgumentException("Please specify a species");
+        }
+
+        evictIdleSpecies();
+
+        while (true) {
+            SpeciesAdaptors speciesAdaptors = adaptors.get(species);
+            boolean created = false;
+            if (speciesAdaptors == null) {
+                SpeciesAdaptors newAdaptors = createSpeciesAdaptors(species);
+                speciesAdaptors = adaptors.putIfAbsent(species, newAdaptors);
+                if (speciesAdaptors == null) {
+                    speciesAdaptors = newAdaptors;
+                    created = true;
+                }
+            }
+
+            // the adaptors may have been evicted since they were read from the map, in which case new ones are needed
+            if (speciesAdaptors.acquire()) {
+                leases.get().add(speciesAdaptors);
+                if (created) {
+                    evictLeastRecentlyUsedSpecies(species);
+                }
+                return speciesAdaptors;
+            }
+        }
+    }
+
+    SpeciesAdaptors createSpeciesAdaptors(String species) throws IllegalOpenCGACredentialsException {
+        return new SpeciesAdaptors(species, getCredentials(species));
+    }
+
+    int getSpeciesCount() {
+        return adaptors.size();
+    }
+
+    private void evictIdleSpecies() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, SpeciesAdaptors> entry : adaptors.entrySet()) {
+            if (now - entry.getValue().getLastAccess() > idleTimeoutMillis) {
+                evict(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @param addedSpecies the species just added, which is never evicted
+     */
+    private void evictLeastRecentlyUsedSpecies(String addedSpecies) {
+        while (adaptors.size() > maxSpecies) {
+            Map.Entry<String, SpeciesAdaptors> leastRecentlyUsed = null;
+            for (Map.Entry<String, SpeciesAdaptors> entry : adaptors.entrySet()) {
+                if (entry.getKey().equals(addedSpecies)) {
+                    continue;
+                }
+                if (leastRecentlyUsed == null
+                        || entry.getValue().getLastAccess() < leastRecentlyUsed.getValue().getLastAccess()) {
+                    leastRecentlyUsed = entry;
+                }
+            }
+            if (leastRecentlyUsed == null) {
+                return;
+            }
+            evict(leastRecentlyUsed.getKey(), leastRecentlyUsed.getValue());
+        }
+    }
+
+    private void evict(String species, SpeciesAdaptors speciesAdaptors) {
+        if (adaptors.remove(species, speciesAdaptors)) {
+            logger.debug("Evicting database adaptors for species {}", species);
+            speciesAdaptors.evict();
+        }
     }
 
     /**
@@ -81,6 +228,16 @@ public class DBAdaptorConnector {
      *                   - eva.mongo.passwd
      *                   - eva.mongo.read-preference string, "secondaryPreferred" if unspecified. one of:
      *                          [primary, primaryPreferred, secondary, secondaryPreferred, nearest]
+     *                   - eva.mongo.connections-per-host maximum number of connections in the pool of each host
+     *                   - eva.mongo.min-pool-size minimum number of connections kept open in the pool of each host
+     *                   - eva.mongo.max-wait-time milliseconds a thread waits for a free connection before failing
+     *                   - eva.mongo.wait-queue-multiplier threads allowed to wait for a connection, as a multiple of
+     *                          eva.mongo.connections-per-host
+     *                   - eva.mongo.socket-timeout socket timeout in milliseconds
+     *                   - eva.mongo.connect-timeout connection timeout in milliseconds
+     *                   - eva.mongo.local-threshold milliseconds of latency to the fastest server within which other
+     *                          servers are also eligible for reads
+     *                   The driver defaults are used for any of the pool and timeout values left unspecified.
      * @return MongoClient with given credentials
      * @throws UnknownHostException
      */
@@ -112,32 +269,74 @@ public class DBAdaptorConnector {
         String readPreference = properties.getProperty("eva.mongo.read-preference");
         readPreference = readPreference == null || readPreference.isEmpty()? "secondaryPreferred" : readPreference;
 
-        MongoClientOptions options = MongoClientOptions.builder()
-                .readPreference(ReadPreference.valueOf(readPreference))
-                .build();
+        MongoClientOptions.Builder optionsBuilder = MongoClientOptions.builder()
+                .readPreference(ReadPreference.valueOf(readPreference));
+
+        String connectionsPerHost = properties.getProperty("eva.mongo.connections-per-host");
+        if (connectionsPerHost != null && !connectionsPerHost.isEmpty()) {
+            optionsBuilder.connectionsPerHost(Integer.parseInt(connectionsPerHost));
+        }
+        String minPoolSize = properties.getProperty("eva.mongo.min-pool-size");
+        if (minPoolSize != null && !minPoolSize.isEmpty()) {
+            optionsBuilder.minConnectionsPerHost(Integer.parseInt(minPoolSize));
+        }
+        String maxWaitTime = properties.getProperty("eva.mongo.max-wait-time");
+        if (maxWaitTime != null && !maxWaitTime.isEmpty()) {
+            optionsBuilder.maxWaitTime(Integer.parseInt(maxWaitTime));
+        }
+        String waitQueueMultiplier = properties.getProperty("eva.mongo.wait-queue-multiplier");
+        if (waitQueueMultiplier != null && !waitQueueMultiplier.isEmpty()) {
+            optionsBuilder.threadsAllowedToBlockForConnectionMultiplier(Integer.parseInt(waitQueueMultiplier));
+        }
+        String socketTimeout = properties.getProperty("eva.mongo.socket-timeout");
+        if (socketTimeout != null && !socketTimeout.isEmpty()) {
+            optionsBuilder.socketTimeout(Integer.parseInt(socketTimeout));
+        }
+        String connectTimeout = properties.getProperty("eva.mongo.connect-timeout");
+        if (connectTimeout != null && !connectTimeout.isEmpty()) {
+            optionsBuilder.connectTimeout(Integer.parseInt(connectTimeout));
+        }
+        String localThreshold = properties.getProperty("eva.mongo.local-threshold");
+        if (localThreshold != null && !localThreshold.isEmpty()) {
+            optionsBuilder.localThreshold(Integer.parseInt(localThreshold));
+        }
+
+        MongoClientOptions options = optionsBuilder.build();
 
         return new MongoClient(servers, mongoCredentialList, options);
     }
 
     /**
-     * Extract org.opencb.opencga.storage.mongodb.utils.MongoCredentials from a given Properties to a given species.
+     * Extract org.opencb.opencga.storage.mongodb.utils.MongoCredentials for a given species, using the server
+     * addresses parsed when this connector was created.
      *
-     * @param properties can have the next values:
+     * The properties used are:
      *                   - eva.mongo.auth.db authentication database
-     *                   - eva.mongo.host comma-separated strings of colon-separated host and port strings: host_1:port_1,host_2:port_2
      *                   - eva.mongo.user
      *                   - eva.mongo.passwd
      * @return org.opencb.opencga.storage.mongodb.utils.MongoCredentials
-     * @throws UnknownHostException
      */
-    private MongoCredentials getCredentials(String species, Properties properties)
-            throws IllegalOpenCGACredentialsException, IOException {
-        if (species == null || species.isEmpty()) {
-            throw new IllegalArgumentException("Please specify a species");
-        }
+    private MongoCredentials getCredentials(String species) throws IllegalOpenCGACredentialsException {
+        MongoCredentials credentials = new MongoCredentials(servers,
+                getDBName(species),
+                properties.getProperty("eva.mongo.user"),
+                properties.getProperty("eva.mongo.passwd"));
         
+        // Set authentication database, if specified in the configuration
+        credentials.setAuthenticationDatabase(properties.getProperty("eva.mongo.auth.db", null));
+        
+        return credentials;
+    }
+
+    /**
+     * Parse the server addresses for the OpenCGA adaptors.
+     *
+     * @param properties eva.mongo.host comma-separated strings of colon-separated host and port strings:
+     *                   host_1:port_1,host_2:port_2
+     */
+    private static List<DataStoreServerAddress> getServerAddresses(Properties properties) {
         String[] hosts = properties.getProperty("eva.mongo.host").split(",");
-        List<DataStoreServerAddress> servers = new ArrayList();
+        List<DataStoreServerAddress> servers = new ArrayList<>();
         
         // Get the list of hosts (optionally including the port number)
         for (String host : hosts) {
@@ -149,18 +348,144 @@ public class DBAdaptorConnector {
             }
         }
         
-        MongoCredentials credentials = new MongoCredentials(servers,
-                getDBName(species),
-                properties.getProperty("eva.mongo.user"),
-                properties.getProperty("eva.mongo.passwd"));
-        
-        // Set authentication database, if specified in the configuration
-        credentials.setAuthenticationDatabase(properties.getProperty("eva.mongo.auth.db", null));
-        
-        return credentials;
+        return Collections.unmodifiableList(servers);
+    }
+
+    private static String getProperty(Properties properties, String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null || value.isEmpty() ? defaultValue : value;
     }
 
     public static String getDBName(String species) {
         return "eva_" + species;
     }
+
+    /**
+     * The adaptors of a single species. Each of them is only built the first time it is requested.
+     *
+     * The leases count the threads using the adaptors. Once evicted, no new leases are granted, and the adaptors are
+     * closed when the last lease is released.
+     */
+    class SpeciesAdaptors {
+
+        private final String species;
+
+        private final MongoCredentials credentials;
+
+        private volatile long lastAccess;
+
+        private VariantDBAdaptor variantDBAdaptor;
+
+        private StudyDBAdaptor studyDBAdaptor;
+
+        private VariantSourceDBAdaptor variantSourceDBAdaptor;
+
+        private int leases;
+
+        private boolean evicted;
+
+        private boolean closed;
+
+        SpeciesAdaptors(String species, MongoCredentials credentials) {
+            this.species = species;
+            this.credentials = credentials;
+            touch();
+        }
+
+        void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+
+        long getLastAccess() {
+            return lastAccess;
+        }
+
+        synchronized boolean acquire() {
+            if (evicted || closed) {
+                return false;
+            }
+            leases++;
+            touch();
+            return true;
+        }
+
+        synchronized void release() {
+            leases--;
+            if (evicted && leases == 0) {
+                close();
+            }
+        }
+
+        synchronized void evict() {
+            evicted = true;
+            if (leases == 0) {
+                close();
+            }
+        }
+
+        synchronized int getLeases() {
+            return leases;
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        synchronized VariantDBAdaptor getVariantDBAdaptor()
+                throws UnknownHostException, IllegalOpenCGACredentialsException, IOException {
+            checkNotClosed();
+            if (variantDBAdaptor == null) {
+                variantDBAdaptor = new VariantMongoDBAdaptor(credentials,
+                        properties.getProperty("eva.mongo.collections.variants"),
+                        properties.getProperty("eva.mongo.collections.files"));
+            }
+            return variantDBAdaptor;
+        }
+
+        synchronized StudyDBAdaptor getStudyDBAdaptor()
+                throws UnknownHostException, IllegalOpenCGACredentialsException, IOException {
+            checkNotClosed();
+            if (studyDBAdaptor == null) {
+                studyDBAdaptor = new StudyMongoDBAdaptor(credentials,
+                        properties.getProperty("eva.mongo.collections.files"));
+            }
+            return studyDBAdaptor;
+        }
+
+        synchronized VariantSourceDBAdaptor getVariantSourceDBAdaptor()
+                throws UnknownHostException, IllegalOpenCGACredentialsException, IOException {
+            checkNotClosed();
+            if (variantSourceDBAdaptor == null) {
+                variantSourceDBAdaptor = new VariantSourceMongoDBAdaptor(credentials,
+                        properties.getProperty("eva.mongo.collections.files"));
+            }
+            return variantSourceDBAdaptor;
+        }
+
+        private void checkNotClosed() {
+            if (closed) {
+                throw new IllegalStateException("The adaptors for species " + species + " have already been closed");
+            }
+        }
+
+        synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closeAdaptors();
+        }
+
+        void closeAdaptors() {
+            if (variantDBAdaptor != null) {
+                variantDBAdaptor.close();
+            }
+            if (studyDBAdaptor != null) {
+                studyDBAdaptor.close();
+            }
+            if (variantSourceDBAdaptor != null) {
+                variantSourceDBAdaptor.close();
+            }
+        }
+    }
 }
@@ -0,0 +1,204 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.CodedOutputStream;
+import org.opencb.biodata.ga4gh.GASearchVariantsResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Encodes the GA4GH variant search responses with protocol buffers, following the schema in "ga4gh/variants.proto".
+ *
+ * <p>The response is first turned into a JSON tree by the given ObjectMapper, so the encoded fields are the same as in
+ * the JSON responses, whatever the Java types of the GA4GH model. Each JSON property is written with the field number
+ * of the schema, and the properties that are not in the schema are left out.
+ */
+public class GA4GHProtobufEncoder {
+
+    private enum FieldType { STRING, INT32, INT64, DOUBLE, MESSAGE, STRING_LIST_MAP }
+
+    private static class Field {
+
+        private final int number;
+
+        private final FieldType type;
+
+        private final Map<String, Field> messageFields;
+
+        Field(int number, FieldType type) {
+            this(number, type, Collections.emptyMap());
+        }
+
+        Field(int number, FieldType type, Map<String, Field> messageFields) {
+            this.number = number;
+            this.type = type;
+            this.messageFields = messageFields;
+        }
+    }
+
+    private static final Map<String, Field> CALL_FIELDS = new HashMap<>();
+
+    private static final Map<String, Field> VARIANT_FIELDS = new HashMap<>();
+
+    private static final Map<String, Field> SEARCH_VARIANTS_RESPONSE_FIELDS = new HashMap<>();
+
+    static {
+        CALL_FIELDS.put("callSetId", new Field(1, FieldType.STRING));
+        CALL_FIELDS.put("callSetName", new Field(2, FieldType.STRING));
+        CALL_FIELDS.put("variantId", new Field(3, FieldType.STRING));
+        CALL_FIELDS.put("genotype", new Field(4, FieldType.INT32));
+        CALL_FIELDS.put("phaseset", new Field(5, FieldType.STRING));
+        CALL_FIELDS.put("genotypeLikelihood", new Field(6, FieldType.DOUBLE));
+        CALL_FIELDS.put("info", new Field(7, FieldType.STRING_LIST_MAP));
+
+        VARIANT_FIELDS.put("id", new Field(1, FieldType.STRING));
+        VARIANT_FIELDS.put("variantSetId", new Field(2, FieldType.STRING));
+        VARIANT_FIELDS.put("names", new Field(3, FieldType.STRING));
+        VARIANT_FIELDS.put("created", new Field(4, FieldType.INT64));
+        VARIANT_FIELDS.put("updated", new Field(5, FieldType.INT64));
+        VARIANT_FIELDS.put("referenceName", new Field(6, FieldType.STRING));
+        VARIANT_FIELDS.put("start", new Field(7, FieldType.INT64));
+        VARIANT_FIELDS.put("end", new Field(8, FieldType.INT64));
+        VARIANT_FIELDS.put("referenceBases", new Field(9, FieldType.STRING));
+        VARIANT_FIELDS.put("alternateBases", new Field(10, FieldType.STRING));
+        VARIANT_FIELDS.put("info", new Field(11, FieldType.STRING_LIST_MAP));
+        VARIANT_FIELDS.put("calls", new Field(12, FieldType.MESSAGE, CALL_FIELDS));
+
+        SEARCH_VARIANTS_RESPONSE_FIELDS.put("variants", new Field(1, FieldType.MESSAGE, VARIANT_FIELDS));
+        SEARCH_VARIANTS_RESPONSE_FIELDS.put("nextPageToken", new Field(2, FieldType.STRING));
+    }
+
+    private static final int STRING_LIST_MAP_KEY = 1;
+
+    private static final int STRING_LIST_MAP_VALUE = 2;
+
+    private static final int STRING_LIST_VALUES = 1;
+
+    private final ObjectMapper objectMapper;
+
+    public GA4GHProtobufEncoder(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public void write(GASearchVariantsResponse response, OutputStream outputStream) throws IOException {
+        CodedOutputStream output = CodedOutputStream.newInstance(outputStream);
+        writeMessage(SEARCH_VARIANTS_RESPONSE_FIELDS, objectMapper.valueToTree(response), output);
+        output.flush();
+    }
+
+    public byte[] encode(GASearchVariantsResponse response) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        write(response, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private static void writeMessage(Map<String, Field> fields, JsonNode message, CodedOutputStream output)
+            throws IOException {
+        Iterator<Map.Entry<String, JsonNode>> properties = message.fields();
+        while (properties.hasNext()) {
+            Map.Entry<String, JsonNode> property = properties.next();
+            Field field = fields.get(property.getKey());
+            if (field == null) {
+                continue;
+            }
+            if (property.getValue().isArray()) {
+                // repeated fields are written unpacked, which every proto2 and proto3 parser accepts
+                for (JsonNode value : property.getValue()) {
+                    writeField(field, value, output);
+                }
+            } else {
+                writeField(field, property.getValue(), output);
+            }
+        }
+    }
+
+    private static void writeField(Field field, JsonNode value, CodedOutputStream output) throws IOException {
+        if (value.isNull()) {
+            return;
+        }
+        switch (field.type) {
+            case STRING:
+                output.writeString(field.number, value.asText());
+                break;
+            case INT32:
+                output.writeInt32(field.number, value.asInt());
+                break;
+            case INT64:
+                output.writeInt64(field.number, value.asLong());
+                break;
+            case DOUBLE:
+                output.writeDouble(field.number, value.asDouble());
+                break;
+            case MESSAGE:
+                output.writeByteArray(field.number, encodeMessage(field.messageFields, value));
+                break;
+            case STRING_LIST_MAP:
+                writeStringListMap(field, value, output);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported field type " + field.type);
+        }
+    }
+
+    /**
+     * A map is encoded as one entry message per key, holding the key and the list of values
+     */
+    private static void writeStringListMap(Field field, JsonNode map, CodedOutputStream output) throws IOException {
+        Iterator<Map.Entry<String, JsonNode>> entries = map.fields();
+        while (entries.hasNext()) {
+            Map.Entry<String, JsonNode> entry = entries.next();
+
+            ByteArrayOutputStream values = new ByteArrayOutputStream();
+            CodedOutputStream valuesOutput = CodedOutputStream.newInstance(values);
+            if (entry.getValue().isArray()) {
+                for (JsonNode value : entry.getValue()) {
+                    valuesOutput.writeString(STRING_LIST_VALUES, value.asText());
+                }
+            } else if (!entry.getValue().isNull()) {
+                valuesOutput.writeString(STRING_LIST_VALUES, entry.getValue().asText());
+            }
+            valuesOutput.flush();
+
+            ByteArrayOutputStream mapEntry = new ByteArrayOutputStream();
+            CodedOutputStream mapEntryOutput = CodedOutputStream.newInstance(mapEntry);
+            mapEntryOutput.writeString(STRING_LIST_MAP_KEY, entry.getKey());
+            mapEntryOutput.writeByteArray(STRING_LIST_MAP_VALUE, values.toByteArray());
+            mapEntryOutput.flush();
+
+            output.writeByteArray(field.number, mapEntry.toByteArray());
+        }
+    }
+
+    private static byte[] encodeMessage(Map<String, Field> fields, JsonNode message) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        CodedOutputStream output = CodedOutputStream.newInstance(outputStream);
+        writeMessage(fields, message, output);
+        output.flush();
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical binning scheme of the UCSC Genome Browser. Every interval is assigned the smallest bin that fully
+ * contains it, out of 5 levels of bins of 128 kb, 1 Mb, 8 Mb, 64 Mb and 512 Mb. The intervals overlapping a region
+ * can then only be in the few bins of each level that overlap the region, so they can be found with an equality
+ * match on the bin instead of a range scan. Intervals ending after 512 Mb use the extended scheme, that adds a level
+ * of 4 Gb bins and is numbered after the standard one.
+ *
+ * <p>Coordinates are 1-based and inclusive, as in the variants. Intervals ending before they start, such as
+ * insertions, are treated as covering their start position.
+ */
+public class UcscBins {
+
+    private static final int[] STANDARD_OFFSETS = {512 + 64 + 8 + 1, 64 + 8 + 1, 8 + 1, 1, 0};
+
+    private static final int[] EXTENDED_OFFSETS = {4096 + 512 + 64 + 8 + 1, 512 + 64 + 8 + 1, 64 + 8 + 1, 8 + 1, 1,
+            0};
+
+    private static final int EXTENDED_FIRST_BIN = 4681;
+
+    private static final int FIRST_SHIFT = 17;
+
+    private static final int NEXT_SHIFT = 3;
+
+    private static final long STANDARD_MAX_END = 512L * 1024 * 1024;
+
+    private UcscBins() {
+    }
+
+    /**
+     * @return the smallest bin that contains the interval
+     */
+    public static int getBin(long start, long end) {
+        long zeroBasedStart = Math.max(0, start - 1);
+        long zeroBasedEnd = Math.max(zeroBasedStart + 1, end);
+        if (zeroBasedEnd <= STANDARD_MAX_END) {
+            return getBin(zeroBasedStart, zeroBasedEnd, STANDARD_OFFSETS, 0);
+        } else {
+            return getBin(zeroBasedStart, zeroBasedEnd, EXTENDED_OFFSETS, EXTENDED_FIRST_BIN);
+        }
+    }
+
+    /**
+     * @return every bin, standard or extended, that could contain an interval overlapping the region
+     */
+    public static List<Integer> getOverlappingBins(long start, long end) {
+        long zeroBasedStart = Math.max(0, start - 1);
+        long zeroBasedEnd = Math.max(zeroBasedStart + 1, end);
+
+        List<Integer> bins = new ArrayList<>();
+        if (zeroBasedStart < STANDARD_MAX_END) {
+            addOverlappingBins(bins, zeroBasedStart, Math.min(zeroBasedEnd, STANDARD_MAX_END), STANDARD_OFFSETS, 0);
+        }
+        // a long interval may end after 512 Mb and still overlap the region
+        addOverlappingBins(bins, zeroBasedStart, zeroBasedEnd, EXTENDED_OFFSETS, EXTENDED_FIRST_BIN);
+        return bins;
+    }
+
+    private static int getBin(long zeroBasedStart, long zeroBasedEnd, int[] offsets, int firstBin) {
+        long startBin = zeroBasedStart >> FIRST_SHIFT;
+        long endBin = (zeroBasedEnd - 1) >> FIRST_SHIFT;
+        for (int offset : offsets) {
+            if (startBin == endBin) {
+                return firstBin + offset + (int) startBin;
+            }
+            startBin >>= NEXT_SHIFT;
+            endBin >>= NEXT_SHIFT;
+        }
+        throw new IllegalArgumentException(
+                "Interval " + (zeroBasedStart + 1) + "-" + zeroBasedEnd + " is out of the range of the bins");
+    }
+
+    private static void addOverlappingBins(List<Integer> bins, long zeroBasedStart, long zeroBasedEnd, int[] offsets,
+                                           int firstBin) {
+        long startBin = zeroBasedStart >> FIRST_SHIFT;
+        long endBin = (zeroBasedEnd - 1) >> FIRST_SHIFT;
+        for (int offset : offsets) {
+            for (long bin = startBin; bin <= endBin; bin++) {
+                bins.add(firstBin + offset + (int) bin);
+            }
+            startBin >>= NEXT_SHIFT;
+            endBin >>= NEXT_SHIFT;
+        }
+    }
+}
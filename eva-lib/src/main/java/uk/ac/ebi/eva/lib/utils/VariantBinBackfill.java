@@ -0,0 +1,116 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.utils;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientURI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adds the UCSC bin of every variant that doesn't have it yet, and the index that the bin queries use. It can be run
+ * again after loading new variants, as the variants already binned are skipped.
+ *
+ * <p>Usage: VariantBinBackfill &lt;mongo URI&gt; &lt;database&gt; &lt;variants collection&gt;
+ *
+ * @see UcscBins
+ */
+public class VariantBinBackfill {
+
+    public static final String BIN_FIELD = "bin";
+
+    private static final String CHROMOSOME_FIELD = "chr";
+
+    private static final String START_FIELD = "start";
+
+    private static final String END_FIELD = "end";
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final Logger logger = LoggerFactory.getLogger(VariantBinBackfill.class);
+
+    private final DBCollection variants;
+
+    public VariantBinBackfill(DBCollection variants) {
+        this.variants = variants;
+    }
+
+    /**
+     * @return the number of variants updated
+     */
+    public long backfill() {
+        DBObject query = new BasicDBObject(BIN_FIELD, new BasicDBObject("$exists", false));
+        DBObject projection = new BasicDBObject(START_FIELD, 1).append(END_FIELD, 1);
+
+        long updated = 0;
+        BulkWriteOperation bulk = variants.initializeUnorderedBulkOperation();
+        int pending = 0;
+        DBCursor cursor = variants.find(query, projection).batchSize(BATCH_SIZE);
+        try {
+            while (cursor.hasNext()) {
+                DBObject variant = cursor.next();
+                long start = ((Number) variant.get(START_FIELD)).longValue();
+                long end = ((Number) variant.get(END_FIELD)).longValue();
+                bulk.find(new BasicDBObject("_id", variant.get("_id")))
+                    .updateOne(new BasicDBObject("$set", new BasicDBObject(BIN_FIELD, UcscBins.getBin(start, end))));
+                if (++pending == BATCH_SIZE) {
+                    updated += bulk.execute().getMatchedCount();
+                    logger.info("{} variants binned", updated);
+                    bulk = variants.initializeUnorderedBulkOperation();
+                    pending = 0;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        if (pending > 0) {
+            updated += bulk.execute().getMatchedCount();
+        }
+        return updated;
+    }
+
+    /**
+     * Creates the index on chromosome, bin and start, if it doesn't exist already
+     */
+    public void createIndex() {
+        variants.createIndex(new BasicDBObject(CHROMOSOME_FIELD, 1).append(BIN_FIELD, 1).append(START_FIELD, 1),
+                             new BasicDBObject("background", true));
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.err.println("Usage: VariantBinBackfill <mongo URI> <database> <variants collection>");
+            System.exit(1);
+        }
+        MongoClient mongoClient = new MongoClient(new MongoClientURI(args[0]));
+        try {
+            VariantBinBackfill backfill = new VariantBinBackfill(mongoClient.getDB(args[1]).getCollection(args[2]));
+            long updated = backfill.backfill();
+            backfill.createIndex();
+            logger.info("Binned {} variants of {}.{}", updated, args[1], args[2]);
+        } finally {
+            mongoClient.close();
+        }
+    }
+}
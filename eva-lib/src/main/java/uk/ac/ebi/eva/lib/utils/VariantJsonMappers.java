@@ -0,0 +1,61 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import org.opencb.biodata.models.feature.Genotype;
+import org.opencb.biodata.models.variant.VariantSource;
+import org.opencb.biodata.models.variant.VariantSourceEntry;
+import org.opencb.biodata.models.variant.stats.VariantStats;
+import org.opencb.opencga.storage.core.variant.io.json.GenotypeJsonMixin;
+import org.opencb.opencga.storage.core.variant.io.json.VariantSourceEntryJsonMixin;
+import org.opencb.opencga.storage.core.variant.io.json.VariantSourceJsonMixin;
+import org.opencb.opencga.storage.core.variant.io.json.VariantStatsJsonMixin;
+import org.opencb.opencga.storage.core.variant.io.json.VariantStatsJsonSerializer;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * Configuration of the Jackson mappers that write the variants in the responses of the web services, shared with the
+ * code that must reproduce their output
+ */
+public class VariantJsonMappers {
+
+    private VariantJsonMappers() {
+    }
+
+    /**
+     * @return a new builder with the mixins and serializers of the variant models, and the defaults of
+     * Jackson2ObjectMapperBuilder, which can be further configured (e.g. with a binary format factory)
+     */
+    public static Jackson2ObjectMapperBuilder builder() {
+        Jackson2ObjectMapperBuilder builder = new Jackson2ObjectMapperBuilder()
+                .mixIn(VariantSourceEntry.class, VariantSourceEntryJsonMixin.class)
+                .mixIn(Genotype.class, GenotypeJsonMixin.class)
+                .mixIn(VariantStats.class, VariantStatsJsonMixin.class)
+                .mixIn(VariantSource.class, VariantSourceJsonMixin.class)
+                .serializationInclusion(JsonInclude.Include.NON_NULL);
+
+        SimpleModule module = new SimpleModule();
+        module.addSerializer(VariantStats.class, new VariantStatsJsonSerializer());
+        builder.modules(module);
+
+        return builder;
+    }
+}
@@ -2,6 +2,7 @@ package uk.ac.ebi.eva.lib.datastore;
 
 import com.mongodb.DB;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
 import com.mongodb.ReadPreference;
 import org.junit.Before;
 import org.junit.Test;
@@ -70,6 +71,37 @@ public class DBAdaptorConnectorTest {
         assertEquals(readPreference, mongoClient.getReadPreference());
     }
 
+    /**
+     * Check that the connection pool and timeout values are passed to the MongoClient options, and that the driver
+     * defaults are kept when they are not specified.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testConnectionPoolOptionsInMongoClient() throws Exception {
+        MongoClientOptions defaultOptions = MongoClientOptions.builder().build();
+        MongoClientOptions options = DBAdaptorConnector.getMongoClient(properties).getMongoClientOptions();
+        assertEquals(defaultOptions.getConnectionsPerHost(), options.getConnectionsPerHost());
+        assertEquals(defaultOptions.getSocketTimeout(), options.getSocketTimeout());
+
+        properties.put("eva.mongo.connections-per-host", "20");
+        properties.put("eva.mongo.min-pool-size", "5");
+        properties.put("eva.mongo.max-wait-time", "1000");
+        properties.put("eva.mongo.wait-queue-multiplier", "3");
+        properties.put("eva.mongo.socket-timeout", "2000");
+        properties.put("eva.mongo.connect-timeout", "3000");
+        properties.put("eva.mongo.local-threshold", "25");
+        options = DBAdaptorConnector.getMongoClient(properties).getMongoClientOptions();
+
+        assertEquals(20, options.getConnectionsPerHost());
+        assertEquals(5, options.getMinConnectionsPerHost());
+        assertEquals(1000, options.getMaxWaitTime());
+        assertEquals(3, options.getThreadsAllowedToBlockForConnectionMultiplier());
+        assertEquals(2000, options.getSocketTimeout());
+        assertEquals(3000, options.getConnectTimeout());
+        assertEquals(25, options.getLocalThreshold());
+    }
+
     @Before
     public void setUp() throws Exception {
         properties = new Properties();
@@ -0,0 +1,146 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.filter;
+
+import org.junit.Test;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import uk.ac.ebi.eva.lib.repository.VariantEntityRepository;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FilterSpecTest {
+
+    @Test
+    public void inValuesAreSortedAndDeduplicated() throws Exception {
+        FilterSpec spec = new VariantEntityRepositoryStudyFilter(Arrays.asList("PRJEB2", "PRJEB1", "PRJEB2")).getSpec();
+        assertEquals(Arrays.asList("PRJEB1", "PRJEB2"), spec.getValue());
+        assertEquals(VariantEntityRepository.RelationalOperator.IN, spec.getOperator());
+        assertEquals(VariantEntityRepositoryFilter.STUDY_ID_FIELD, spec.getField());
+        Criteria expected = Criteria.where(VariantEntityRepositoryFilter.STUDY_ID_FIELD)
+                                    .in(Arrays.asList("PRJEB1", "PRJEB2"));
+        assertEquals(expected, spec.getCriteria());
+    }
+
+    @Test
+    public void filtersSelectingTheSameVariantsAreEqual() throws Exception {
+        VariantEntityRepositoryFilter filter = new VariantEntityRepositoryStudyFilter(Arrays.asList("PRJEB1",
+                                                                                                    "PRJEB2"));
+        VariantEntityRepositoryFilter reordered = new VariantEntityRepositoryStudyFilter(Arrays.asList("PRJEB2",
+                                                                                                       "PRJEB1"));
+        assertEquals(filter, reordered);
+        assertEquals(filter.hashCode(), reordered.hashCode());
+        assertEquals(filter.getSpec(), reordered.getSpec());
+
+        assertNotEquals(new VariantEntityRepositoryMafFilter(">0.1").getSpec(),
+                        new VariantEntityRepositoryMafFilter(">=0.1").getSpec());
+        assertNotEquals(new VariantEntityRepositoryMafFilter(">0.1").getSpec(),
+                        new VariantEntityRepositoryPolyphenFilter(">0.1").getSpec());
+    }
+
+    @Test
+    public void canonicalizeSortsAndDeduplicates() throws Exception {
+        List<VariantEntityRepositoryFilter> filters = Arrays.asList(
+                new VariantEntityRepositorySiftFilter("<0.9"),
+                new VariantEntityRepositoryMafFilter(">0.1"),
+                new VariantEntityRepositoryStudyFilter(Collections.singletonList("PRJEB1")),
+                new VariantEntityRepositoryMafFilter(">0.1"));
+        List<VariantEntityRepositoryFilter> reordered = Arrays.asList(filters.get(2), filters.get(1), filters.get(0));
+
+        List<FilterSpec> specs = FilterSpec.canonicalize(filters);
+        assertEquals(3, specs.size());
+        assertEquals(specs, FilterSpec.canonicalize(reordered));
+        assertEquals("annot.ct.sift.sc LT 0.9", specs.get(0).toString());
+        assertEquals("files.sid IN [PRJEB1]", specs.get(1).toString());
+        assertEquals("st.maf GT 0.1", specs.get(2).toString());
+
+        assertTrue(FilterSpec.canonicalize(null).isEmpty());
+    }
+
+    @Test
+    public void compareToIsConsistentWithEquals() throws Exception {
+        FilterSpec integerSpec = new FilterSpec("start", VariantEntityRepository.RelationalOperator.EQ, 1583);
+        FilterSpec longSpec = new FilterSpec("start", VariantEntityRepository.RelationalOperator.EQ, 1583L);
+        FilterSpec integerListSpec = new FilterSpec("start", VariantEntityRepository.RelationalOperator.IN,
+                                                    Collections.singletonList(1583));
+        FilterSpec stringListSpec = new FilterSpec("start", VariantEntityRepository.RelationalOperator.IN,
+                                                   Collections.singletonList("1583"));
+        assertNotEquals(integerSpec, longSpec);
+        assertNotEquals(0, integerSpec.compareTo(longSpec));
+        assertEquals(-integerSpec.compareTo(longSpec), longSpec.compareTo(integerSpec));
+        assertNotEquals(integerListSpec, stringListSpec);
+        assertNotEquals(0, integerListSpec.compareTo(stringListSpec));
+        assertEquals(0, integerSpec.compareTo(new FilterSpec("start", VariantEntityRepository.RelationalOperator.EQ,
+                                                             1583)));
+
+        // numbers are sorted by value, not as strings
+        assertTrue(new FilterSpec("start", VariantEntityRepository.RelationalOperator.EQ, 9).compareTo(
+                new FilterSpec("start", VariantEntityRepository.RelationalOperator.EQ, 10)) < 0);
+
+        List<VariantEntityRepositoryFilter> filters = Arrays.asList(
+                new VariantEntityRepositoryFilter<Object>("start", 1583,
+                                                          VariantEntityRepository.RelationalOperator.EQ) { },
+                new VariantEntityRepositoryFilter<Object>("start", 1583L,
+                                                          VariantEntityRepository.RelationalOperator.EQ) { });
+        assertEquals(2, FilterSpec.canonicalize(filters).size());
+    }
+
+    @Test
+    public void filterBuilderEmitsCanonicalOrder() throws Exception {
+        FilterBuilder filterBuilder = new FilterBuilder().withStudies(Collections.singletonList("PRJEB1"))
+                                                         .withMaf(">0.1")
+                                                         .withSiftScore("<0.9");
+        List<FilterSpec> specs = filterBuilder.buildSpecs();
+        List<VariantEntityRepositoryFilter> filters = filterBuilder.build();
+
+        assertEquals(3, filters.size());
+        for (int i = 0; i < filters.size(); i++) {
+            assertEquals(specs.get(i), filters.get(i).getSpec());
+        }
+        assertEquals(specs, new FilterBuilder().getVariantEntityRepositoryFilters(">0.1", null, "<0.9",
+                                                                                  Collections.singletonList("PRJEB1"),
+                                                                                  null)
+                                               .stream().map(VariantEntityRepositoryFilter::getSpec)
+                                               .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void filterBuilderSortsXrefsWithTheOtherFilters() throws Exception {
+        List<VariantEntityRepositoryFilter> filters = new FilterBuilder()
+                .withXrefs(Arrays.asList("GENE2", "GENE1"))
+                .withStudies(Collections.singletonList("PRJEB1"))
+                .withSiftScore("<0.9")
+                .build();
+
+        assertEquals(3, filters.size());
+        assertEquals("annot.ct.sift.sc LT 0.9", filters.get(0).getSpec().toString());
+        assertEquals(VariantEntityRepositoryFilter.XREFS_ID_FIELD + " IN [GENE1, GENE2]",
+                     filters.get(1).getSpec().toString());
+        assertEquals("files.sid IN [PRJEB1]", filters.get(2).getSpec().toString());
+
+        assertTrue(new FilterBuilder().withXrefs(null).withXrefs(Collections.emptyList()).build().isEmpty());
+    }
+}
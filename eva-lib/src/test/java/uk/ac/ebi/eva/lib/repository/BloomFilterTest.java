@@ -0,0 +1,70 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for BloomFilter
+ */
+public class BloomFilterTest {
+
+    private static final int ELEMENTS = 10000;
+
+    @Test
+    public void testAddedElementsAreAlwaysFound() {
+        BloomFilter bloomFilter = new BloomFilter(ELEMENTS, 0.01);
+        for (int i = 0; i < ELEMENTS; i++) {
+            bloomFilter.put("a:1:" + i + ":A");
+        }
+        for (int i = 0; i < ELEMENTS; i++) {
+            assertTrue(bloomFilter.mightContain("a:1:" + i + ":A"));
+        }
+    }
+
+    @Test
+    public void testFalsePositivesAreRare() {
+        BloomFilter bloomFilter = new BloomFilter(ELEMENTS, 0.01);
+        for (int i = 0; i < ELEMENTS; i++) {
+            bloomFilter.put("a:1:" + i + ":A");
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < ELEMENTS; i++) {
+            if (bloomFilter.mightContain("a:2:" + i + ":A")) {
+                falsePositives++;
+            }
+        }
+        assertTrue("Too many false positives: " + falsePositives, falsePositives < ELEMENTS * 0.02);
+    }
+
+    @Test
+    public void testEmptyFilterContainsNothing() {
+        BloomFilter bloomFilter = new BloomFilter(0, 0.01);
+        assertFalse(bloomFilter.mightContain("a:1:1:A"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFalsePositiveProbability() {
+        new BloomFilter(ELEMENTS, 1);
+    }
+}
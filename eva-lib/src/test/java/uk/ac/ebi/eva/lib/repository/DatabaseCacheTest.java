@@ -0,0 +1,113 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import com.lordofthejars.nosqlunit.annotation.UsingDataSet;
+import com.lordofthejars.nosqlunit.mongodb.MongoDbRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import uk.ac.ebi.eva.lib.configuration.MongoRepositoryTestConfiguration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.lordofthejars.nosqlunit.mongodb.MongoDbRule.MongoDbRuleBuilder.newMongoDbRule;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for DatabaseCache
+ * <p>
+ * Uses in memory Mongo database spoof Fongo, and loading data from json using lordofthejars nosqlunit.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {MongoRepositoryTestConfiguration.class})
+@UsingDataSet(locations = {"/test-data/files.json"})
+public class DatabaseCacheTest {
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Rule
+    public MongoDbRule mongoDbRule = newMongoDbRule().defaultSpringMongoDb("test-db");
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Test
+    public void testValueIsLoadedOnce() {
+        AtomicInteger loads = new AtomicInteger();
+        DatabaseCache<String> cache = new DatabaseCache<>(mongoTemplate,
+                                                          db -> db.getName() + loads.incrementAndGet(),
+                                                          60_000, Runnable::run);
+
+        assertEquals("test-db1", cache.get());
+        assertEquals("test-db1", cache.get());
+        assertEquals(1, loads.get());
+
+        cache.invalidate();
+        assertEquals("test-db2", cache.get());
+    }
+
+    @Test
+    public void testStaleValueIsReturnedWhileRefreshing() {
+        AtomicInteger loads = new AtomicInteger();
+        List<Runnable> refreshes = new ArrayList<>();
+        DatabaseCache<Integer> cache = new DatabaseCache<>(mongoTemplate, db -> loads.incrementAndGet(), 0,
+                                                           refreshes::add);
+
+        // the first value is loaded in the calling thread
+        assertEquals(1, cache.get().intValue());
+        assertEquals(0, refreshes.size());
+
+        assertEquals(1, cache.get().intValue());
+        assertEquals(1, cache.get().intValue());
+        assertEquals("A refresh is scheduled only once", 1, refreshes.size());
+
+        refreshes.get(0).run();
+        assertEquals(2, cache.get().intValue());
+        assertEquals(2, refreshes.size());
+    }
+
+    @Test
+    public void testMissingValueIsLoadedInTheBackground() {
+        AtomicInteger loads = new AtomicInteger();
+        List<Runnable> refreshes = new ArrayList<>();
+        DatabaseCache<Integer> cache = new DatabaseCache<>(mongoTemplate, db -> loads.incrementAndGet(), 60_000,
+                                                           refreshes::add);
+
+        assertNull(cache.getIfLoaded());
+        assertNull(cache.getIfLoaded());
+        assertEquals(0, loads.get());
+        assertEquals("A load is scheduled only once", 1, refreshes.size());
+
+        refreshes.get(0).run();
+        assertEquals(1, cache.getIfLoaded().intValue());
+        assertEquals(1, cache.get().intValue());
+        assertEquals(1, refreshes.size());
+    }
+}
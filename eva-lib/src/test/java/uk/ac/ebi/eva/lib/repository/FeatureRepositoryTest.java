@@ -0,0 +1,92 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import com.lordofthejars.nosqlunit.annotation.UsingDataSet;
+import com.lordofthejars.nosqlunit.mongodb.MongoDbRule;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import uk.ac.ebi.eva.commons.models.data.FeatureCoordinates;
+import uk.ac.ebi.eva.lib.configuration.MongoRepositoryTestConfiguration;
+
+import java.util.List;
+
+import static com.lordofthejars.nosqlunit.mongodb.MongoDbRule.MongoDbRuleBuilder.newMongoDbRule;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for FeatureRepository
+ * <p>
+ * Uses in memory Mongo database spoof Fongo, and loading data from json using lordofthejars nosqlunit.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {MongoRepositoryTestConfiguration.class})
+@UsingDataSet(locations = {"/test-data/files.json"})
+public class FeatureRepositoryTest {
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Rule
+    public MongoDbRule mongoDbRule = newMongoDbRule().defaultSpringMongoDb("test-db");
+
+    @Autowired
+    private FeatureRepository featureRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Before
+    public void setUp() {
+        mongoTemplate.dropCollection(FeatureCoordinates.class);
+        mongoTemplate.save(new FeatureCoordinates("ENSG00000012048", "BRCA1", "gene", "17", 41196312, 41277500));
+        mongoTemplate.save(new FeatureCoordinates("ENSG00000141510", "TP53", "gene", "17", 7565097, 7590856));
+    }
+
+    @Test
+    public void testFeatureIsFoundByIdOrName() {
+        List<FeatureCoordinates> byId = featureRepository.findCachedByIdOrName("ENSG00000012048");
+        assertEquals(1, byId.size());
+        assertEquals("BRCA1", byId.get(0).getName());
+
+        List<FeatureCoordinates> byName = featureRepository.findCachedByIdOrName("TP53");
+        assertEquals(1, byName.size());
+        assertEquals(7565097, byName.get(0).getStart());
+
+        assertTrue(featureRepository.findCachedByIdOrName("notARealFeature").isEmpty());
+    }
+
+    @Test
+    public void testFeatureIsCached() {
+        assertEquals(1, featureRepository.findCachedByIdOrName("TP53").size());
+        mongoTemplate.dropCollection(FeatureCoordinates.class);
+
+        assertEquals(1, featureRepository.findCachedByIdOrName("TP53").size());
+        assertTrue(featureRepository.findByIdOrName("TP53", "TP53").isEmpty());
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import org.junit.Test;
+import org.opencb.biodata.models.feature.Region;
+
+import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for RegionQueryPlanner
+ */
+public class RegionQueryPlannerTest {
+
+    @Test
+    public void testOverlappingAndAdjacentRegionsAreCoalesced() {
+        List<Region> coalescedRegions = RegionQueryPlanner.coalesce(Arrays.asList(
+                new Region("2", 500, 600),
+                new Region("1", 300, 400),
+                new Region("1", 100, 200),
+                new Region("1", 150, 250),
+                new Region("1", 251, 260)));
+
+        assertEquals(3, coalescedRegions.size());
+        assertRegion("1", 100, 260, coalescedRegions.get(0));
+        assertRegion("1", 300, 400, coalescedRegions.get(1));
+        assertRegion("2", 500, 600, coalescedRegions.get(2));
+    }
+
+    @Test
+    public void testContainedRegionIsCoalesced() {
+        List<Region> coalescedRegions = RegionQueryPlanner.coalesce(Arrays.asList(
+                new Region("1", 100, 500),
+                new Region("1", 200, 300)));
+
+        assertEquals(1, coalescedRegions.size());
+        assertRegion("1", 100, 500, coalescedRegions.get(0));
+    }
+
+    @Test
+    public void testLongListsAreSplit() {
+        List<Region> regions = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            regions.add(new Region("1", i * 10, i * 10 + 5));
+        }
+        assertTrue(RegionQueryPlanner.isSingleQuery(regions.subList(0, RegionQueryPlanner.MAX_REGIONS_PER_QUERY)));
+        assertFalse(RegionQueryPlanner.isSingleQuery(regions));
+
+        List<List<Region>> chunks = RegionQueryPlanner.split(regions, 8);
+        assertEquals(3, chunks.size());
+        assertEquals(17, chunks.get(0).size());
+        assertEquals(16, chunks.get(2).size());
+
+        assertEquals(2, RegionQueryPlanner.split(regions, 2).size());
+    }
+
+    @Test
+    public void testMergeKeepsTheOrderAndSkipsDuplicates() {
+        List<VariantEntity> first = Arrays.asList(variant("1", 10), variant("1", 30), variant("2", 5));
+        List<VariantEntity> second = Arrays.asList(variant("1", 20), variant("1", 30), variant("1", 40));
+
+        List<VariantEntity> merged = RegionQueryPlanner.merge(Arrays.asList(first, second, Collections.emptyList()),
+                                                              0, 10);
+        assertEquals(5, merged.size());
+        assertStarts(merged, 10, 20, 30, 40, 5);
+        assertEquals("2", merged.get(4).getChromosome());
+
+        assertStarts(RegionQueryPlanner.merge(Arrays.asList(first, second), 1, 2), 20, 30);
+    }
+
+    private VariantEntity variant(String chromosome, int start) {
+        return new VariantEntity(chromosome, start, start, "A", "T");
+    }
+
+    private void assertRegion(String chromosome, long start, long end, Region region) {
+        assertEquals(chromosome, region.getChromosome());
+        assertEquals(start, region.getStart());
+        assertEquals(end, region.getEnd());
+    }
+
+    private void assertStarts(List<VariantEntity> variantEntities, int... starts) {
+        assertEquals(starts.length, variantEntities.size());
+        for (int i = 0; i < starts.length; i++) {
+            assertEquals(starts[i], variantEntities.get(i).getStart());
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import com.github.fakemongo.Fongo;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientURI;
+import com.mongodb.util.JSON;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opencb.biodata.models.feature.Region;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.MongoDbFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.SimpleMongoDbFactory;
+import org.springframework.data.mongodb.core.convert.CustomConversions;
+import org.springframework.data.mongodb.core.convert.DefaultDbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import uk.ac.ebi.eva.commons.models.converters.data.DBObjectToVariantEntityConverter;
+import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
+import uk.ac.ebi.eva.lib.utils.VariantBinBackfill;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the region queries by start and end range against the queries by UCSC bin, on the variants of the
+ * test-data fixtures. The fixtures are loaded in Fongo, which doesn't use indexes, unless the system property
+ * "eva.benchmark.mongo-uri" points to a Mongo server, where a temporary database is created with both indexes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RegionQueryStrategyBenchmark {
+
+    private static final String DATABASE_NAME = "eva_region_query_benchmark";
+
+    private static final String FIXTURES = "/test-data/variants.json";
+
+    @Param({"11:190000-190300", "11:191000-194000", "11:1-1000000"})
+    private String region;
+
+    private MongoClient mongoClient;
+
+    private List<Region> regions;
+
+    private VariantEntityRepositoryImpl rangeRepository;
+
+    private VariantEntityRepositoryImpl binRepository;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String mongoUri = System.getProperty("eva.benchmark.mongo-uri");
+        mongoClient = (mongoUri != null) ? new MongoClient(new MongoClientURI(mongoUri))
+                                         : new Fongo("benchmark").getMongo();
+        DB db = mongoClient.getDB(DATABASE_NAME);
+        db.dropDatabase();
+
+        MongoDbFactory mongoDbFactory = new SimpleMongoDbFactory(mongoClient, DATABASE_NAME);
+        MappingMongoConverter mappingMongoConverter = new MappingMongoConverter(
+                new DefaultDbRefResolver(mongoDbFactory), new MongoMappingContext());
+        mappingMongoConverter.setCustomConversions(
+                new CustomConversions(Collections.singletonList(new DBObjectToVariantEntityConverter())));
+        mappingMongoConverter.afterPropertiesSet();
+
+        rangeRepository = new VariantEntityRepositoryImpl(mongoDbFactory, mappingMongoConverter);
+        binRepository = new VariantEntityRepositoryImpl(mongoDbFactory, mappingMongoConverter);
+        binRepository.setBinQueries(true);
+
+        loadFixtures(db);
+        DBCollection variants = db.getCollection(
+                new MongoTemplate(mongoDbFactory, mappingMongoConverter).getCollectionName(VariantEntity.class));
+        variants.createIndex(new BasicDBObject("chr", 1).append("start", 1).append("end", 1));
+        VariantBinBackfill backfill = new VariantBinBackfill(variants);
+        backfill.backfill();
+        backfill.createIndex();
+
+        String[] chromosomeAndRange = region.split("[:-]");
+        regions = Collections.singletonList(new Region(chromosomeAndRange[0],
+                                                       Integer.parseInt(chromosomeAndRange[1]),
+                                                       Integer.parseInt(chromosomeAndRange[2])));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        rangeRepository.shutdownAsyncQueriesExecutor();
+        binRepository.shutdownAsyncQueriesExecutor();
+        mongoClient.getDB(DATABASE_NAME).dropDatabase();
+        mongoClient.close();
+    }
+
+    @Benchmark
+    public List<VariantEntity> rangeQuery() {
+        return rangeRepository.findByRegionsAndComplexFilters(regions, new ArrayList<>(), new ArrayList<>(),
+                                                              new PageRequest(0, 1000));
+    }
+
+    @Benchmark
+    public List<VariantEntity> binQuery() {
+        return binRepository.findByRegionsAndComplexFilters(regions, new ArrayList<>(), new ArrayList<>(),
+                                                            new PageRequest(0, 1000));
+    }
+
+    /**
+     * Inserts the documents of each collection of the fixtures file, in the format used by nosqlunit
+     */
+    @SuppressWarnings("unchecked")
+    private static void loadFixtures(DB db) throws IOException {
+        try (InputStream fixtures = RegionQueryStrategyBenchmark.class.getResourceAsStream(FIXTURES);
+             Scanner scanner = new Scanner(fixtures, StandardCharsets.UTF_8.name()).useDelimiter("\\A")) {
+            DBObject collections = (DBObject) JSON.parse(scanner.next());
+            for (String collection : collections.keySet()) {
+                db.getCollection(collection).insert((List<DBObject>) collections.get(collection));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(RegionQueryStrategyBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.github.fakemongo.Fongo;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnknownFieldSet;
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.util.JSON;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opencb.biodata.ga4gh.GASearchVariantsResponse;
+import org.opencb.biodata.models.feature.Region;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.ga4gh.GAVariantFactory;
+import org.opencb.datastore.core.QueryResponse;
+import org.opencb.datastore.core.QueryResult;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.MongoDbFactory;
+import org.springframework.data.mongodb.core.SimpleMongoDbFactory;
+import org.springframework.data.mongodb.core.convert.CustomConversions;
+import org.springframework.data.mongodb.core.convert.DefaultDbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import uk.ac.ebi.eva.commons.models.converters.data.DBObjectToVariantEntityConverter;
+import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
+import uk.ac.ebi.eva.lib.utils.GA4GHProtobufEncoder;
+import uk.ac.ebi.eva.lib.utils.VariantJsonMappers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the payload size and the encoding and decoding times of the responses in JSON and in the binary formats
+ * that the web services negotiate with the Accept header: Smile and CBOR for the v1 API, and protocol buffers for the
+ * GA4GH variant search. The responses hold all the variants of the test-data fixtures, with their samples data. The
+ * sizes are printed when each trial is set up.
+ *
+ * Decoding reads generic trees (a JsonNode, or protobuf fields by number), as a client without the EVA models would.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResponseEncodingBenchmark {
+
+    private static final String DATABASE_NAME = "eva_response_encoding_benchmark";
+
+    private static final String[] FIXTURES = {"/test-data/variants.json", "/test-data/files.json"};
+
+    private static final List<Region> REGIONS = Arrays.asList(new Region("2", 1, 20000000),
+                                                              new Region("9", 1, 20000000),
+                                                              new Region("11", 1, 20000000));
+
+    @State(Scope.Benchmark)
+    public static class QueryResponsePayload {
+
+        @Param({"json", "smile", "cbor"})
+        private String format;
+
+        private ObjectMapper objectMapper;
+
+        private QueryResponse<QueryResult<VariantEntity>> queryResponse;
+
+        private byte[] encoded;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            switch (format) {
+                case "smile":
+                    objectMapper = buildObjectMapper(new SmileFactory());
+                    break;
+                case "cbor":
+                    objectMapper = buildObjectMapper(new CBORFactory());
+                    break;
+                default:
+                    objectMapper = buildObjectMapper(new JsonFactory());
+            }
+
+            List<VariantEntity> variantEntities = findVariants();
+            QueryResult<VariantEntity> queryResult = new QueryResult<>();
+            queryResult.setResult(variantEntities);
+            queryResult.setNumResults(variantEntities.size());
+            queryResult.setNumTotalResults(variantEntities.size());
+            queryResponse = new QueryResponse<>();
+            queryResponse.setApiVersion("v1");
+            queryResponse.setResponse(Collections.singletonList(queryResult));
+
+            encoded = objectMapper.writeValueAsBytes(queryResponse);
+            System.out.println("\nQueryResponse of " + variantEntities.size() + " variants in " + format + ": "
+                                       + encoded.length + " bytes");
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class GA4GHPayload {
+
+        @Param({"json", "protobuf"})
+        private String format;
+
+        private ObjectMapper objectMapper;
+
+        private GA4GHProtobufEncoder protobufEncoder;
+
+        private GASearchVariantsResponse searchVariantsResponse;
+
+        private byte[] encoded;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            objectMapper = buildObjectMapper(new JsonFactory());
+            protobufEncoder = new GA4GHProtobufEncoder(objectMapper);
+
+            List<Variant> variants = Collections.unmodifiableList(findVariants());
+            searchVariantsResponse = new GASearchVariantsResponse(GAVariantFactory.create(variants), null);
+
+            encoded = encode();
+            System.out.println("\nGASearchVariantsResponse of " + variants.size() + " variants in " + format + ": "
+                                       + encoded.length + " bytes");
+        }
+
+        private byte[] encode() throws IOException {
+            return format.equals("protobuf") ? protobufEncoder.encode(searchVariantsResponse)
+                                             : objectMapper.writeValueAsBytes(searchVariantsResponse);
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeQueryResponse(QueryResponsePayload payload) throws IOException {
+        return payload.objectMapper.writeValueAsBytes(payload.queryResponse);
+    }
+
+    @Benchmark
+    public JsonNode decodeQueryResponse(QueryResponsePayload payload) throws IOException {
+        return payload.objectMapper.readTree(payload.encoded);
+    }
+
+    @Benchmark
+    public byte[] encodeGA4GHResponse(GA4GHPayload payload) throws IOException {
+        return payload.encode();
+    }
+
+    @Benchmark
+    public Object decodeGA4GHResponse(GA4GHPayload payload) throws IOException {
+        if (payload.format.equals("protobuf")) {
+            // field numbers from "ga4gh/variants.proto": SearchVariantsResponse.variants and Variant.calls
+            List<UnknownFieldSet> variants = new ArrayList<>();
+            for (ByteString variant : UnknownFieldSet.parseFrom(payload.encoded).getField(1)
+                                                     .getLengthDelimitedList()) {
+                UnknownFieldSet gaVariant = UnknownFieldSet.parseFrom(variant);
+                for (ByteString call : gaVariant.getField(12).getLengthDelimitedList()) {
+                    UnknownFieldSet.parseFrom(call);
+                }
+                variants.add(gaVariant);
+            }
+            return variants;
+        }
+        return payload.objectMapper.readTree(payload.encoded);
+    }
+
+    /**
+     * Configures the ObjectMapper like the web services do, with the given format
+     */
+    private static ObjectMapper buildObjectMapper(JsonFactory jsonFactory) {
+        return VariantJsonMappers.builder().factory(jsonFactory).build();
+    }
+
+    /**
+     * Loads the fixtures in Fongo and reads all their variants through the repository, so the samples data is
+     * expanded as in the responses of the web services
+     */
+    private static List<VariantEntity> findVariants() throws IOException {
+        MongoClient mongoClient = new Fongo("benchmark").getMongo();
+        try {
+            loadFixtures(mongoClient.getDB(DATABASE_NAME));
+
+            MongoDbFactory mongoDbFactory = new SimpleMongoDbFactory(mongoClient, DATABASE_NAME);
+            MappingMongoConverter mappingMongoConverter = new MappingMongoConverter(
+                    new DefaultDbRefResolver(mongoDbFactory), new MongoMappingContext());
+            mappingMongoConverter.setCustomConversions(
+                    new CustomConversions(Collections.singletonList(new DBObjectToVariantEntityConverter())));
+            mappingMongoConverter.afterPropertiesSet();
+
+            VariantEntityRepositoryImpl repository = new VariantEntityRepositoryImpl(mongoDbFactory,
+                                                                                     mappingMongoConverter);
+            try {
+                return repository.findByRegionsAndComplexFilters(REGIONS, new ArrayList<>(), new ArrayList<>(),
+                                                                 new PageRequest(0, 1000));
+            } finally {
+                repository.shutdownAsyncQueriesExecutor();
+            }
+        } finally {
+            mongoClient.close();
+        }
+    }
+
+    /**
+     * Inserts the documents of each collection of the fixtures files, in the format used by nosqlunit
+     */
+    @SuppressWarnings("unchecked")
+    private static void loadFixtures(DB db) throws IOException {
+        for (String fixturesFile : FIXTURES) {
+            try (InputStream fixtures = ResponseEncodingBenchmark.class.getResourceAsStream(fixturesFile);
+                 Scanner scanner = new Scanner(fixtures, StandardCharsets.UTF_8.name()).useDelimiter("\\A")) {
+                DBObject collections = (DBObject) JSON.parse(scanner.next());
+                for (String collection : collections.keySet()) {
+                    db.getCollection(collection).insert((List<DBObject>) collections.get(collection));
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ResponseEncodingBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
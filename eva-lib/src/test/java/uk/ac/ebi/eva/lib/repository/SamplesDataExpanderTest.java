@@ -0,0 +1,103 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.VariantSourceEntry;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SamplesDataExpanderTest {
+
+    private SamplesDataExpander samplesDataExpander;
+
+    @Before
+    public void setUp() {
+        Table<String, String, String[]> studyFileIdsToSampleNames = HashBasedTable.create();
+        studyFileIdsToSampleNames.put("STUDY_ID", "FILE_ID", new String[]{"S0", "S1", "S2", "S3"});
+        samplesDataExpander = new SamplesDataExpander(studyFileIdsToSampleNames);
+    }
+
+    @Test
+    public void testDefaultGenotypeIsExpandedToAllSamples() {
+        VariantSourceEntry sourceEntry = buildSourceEntry("FILE_ID", "0/0");
+        sourceEntry.getSamplesData().put("2", genotype("0/1"));
+
+        samplesDataExpander.expand(sourceEntry);
+
+        Map<String, Map<String, String>> samplesData = sourceEntry.getSamplesData();
+        assertEquals(4, samplesData.size());
+        assertEquals("0/0", samplesData.get("S0").get("GT"));
+        assertEquals("0/0", samplesData.get("S1").get("GT"));
+        assertEquals("0/1", samplesData.get("S2").get("GT"));
+        assertEquals("0/0", samplesData.get("S3").get("GT"));
+    }
+
+    @Test
+    public void testDefaultSampleDataIsShared() {
+        VariantSourceEntry firstSourceEntry = buildSourceEntry("FILE_ID", "0/0");
+        VariantSourceEntry secondSourceEntry = buildSourceEntry("FILE_ID", "0/0");
+
+        samplesDataExpander.expand(firstSourceEntry);
+        samplesDataExpander.expand(secondSourceEntry);
+
+        assertSame(firstSourceEntry.getSamplesData().get("S0"), firstSourceEntry.getSamplesData().get("S3"));
+        assertSame(firstSourceEntry.getSamplesData().get("S0"), secondSourceEntry.getSamplesData().get("S1"));
+    }
+
+    @Test
+    public void testUnknownPositionsAreKept() {
+        VariantSourceEntry sourceEntry = buildSourceEntry("FILE_ID", "0/0");
+        sourceEntry.getSamplesData().put("7", genotype("1/1"));
+
+        samplesDataExpander.expand(sourceEntry);
+
+        assertEquals(5, sourceEntry.getSamplesData().size());
+        assertEquals("1/1", sourceEntry.getSamplesData().get("7").get("GT"));
+    }
+
+    @Test
+    public void testUnknownFileIsNotExpanded() {
+        VariantSourceEntry sourceEntry = buildSourceEntry("OTHER_FILE_ID", "0/0");
+
+        samplesDataExpander.expand(sourceEntry);
+
+        assertEquals(Collections.singleton("def"), sourceEntry.getSamplesData().keySet());
+    }
+
+    private VariantSourceEntry buildSourceEntry(String fileId, String defaultGenotype) {
+        VariantSourceEntry sourceEntry = new VariantSourceEntry(fileId, "STUDY_ID");
+        sourceEntry.getSamplesData().put("def", genotype(defaultGenotype));
+        return sourceEntry;
+    }
+
+    private Map<String, String> genotype(String genotype) {
+        Map<String, String> sampleData = new HashMap<>();
+        sampleData.put("GT", genotype);
+        return sampleData;
+    }
+}
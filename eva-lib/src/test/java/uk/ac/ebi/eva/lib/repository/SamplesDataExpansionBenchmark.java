@@ -0,0 +1,177 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opencb.biodata.models.variant.VariantSourceEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the expansion of the samples data of one page of variants using the former per-sample maps against
+ * {@link SamplesDataExpander}. Run the main method (or JMH with "-prof gc") to get the allocation rate per operation,
+ * reported as "gc.alloc.rate.norm".
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SamplesDataExpansionBenchmark {
+
+    private static final String STUDY_ID = "STUDY_ID";
+
+    private static final String FILE_ID = "FILE_ID";
+
+    @Param({"2500"})
+    private int samplesCount;
+
+    @Param({"1000"})
+    private int variantsCount;
+
+    @Param({"0.05"})
+    private double nonDefaultGenotypesRatio;
+
+    private Table<String, String, Map<String, String>> studyFileIdsToPositionSamples;
+
+    private Table<String, String, String[]> studyFileIdsToSampleNames;
+
+    private List<VariantSourceEntry> sourceEntries;
+
+    @Setup(Level.Trial)
+    public void setUpSamples() {
+        Map<String, String> positionSamples = new HashMap<>();
+        String[] sampleNames = new String[samplesCount];
+        for (int i = 0; i < samplesCount; i++) {
+            positionSamples.put(Integer.toString(i), "SAMPLE_" + i);
+            sampleNames[i] = "SAMPLE_" + i;
+        }
+        studyFileIdsToPositionSamples = HashBasedTable.create();
+        studyFileIdsToPositionSamples.put(STUDY_ID, FILE_ID, positionSamples);
+        studyFileIdsToSampleNames = HashBasedTable.create();
+        studyFileIdsToSampleNames.put(STUDY_ID, FILE_ID, sampleNames);
+    }
+
+    /**
+     * The expansion modifies the entries in place, so a fresh page as read from the database is needed for every
+     * invocation. This setup is not included in the measurements.
+     */
+    @Setup(Level.Invocation)
+    public void setUpPage() {
+        Random random = new Random(42);
+        sourceEntries = new ArrayList<>(variantsCount);
+        for (int i = 0; i < variantsCount; i++) {
+            VariantSourceEntry sourceEntry = new VariantSourceEntry(FILE_ID, STUDY_ID);
+            sourceEntry.getSamplesData().put("def", genotype("0/0"));
+            for (int j = 0; j < samplesCount; j++) {
+                if (random.nextDouble() < nonDefaultGenotypesRatio) {
+                    String genotype = random.nextBoolean() ? "0/1" : "1/1";
+                    sourceEntry.getSamplesData().put(Integer.toString(j), genotype(genotype));
+                }
+            }
+            sourceEntries.add(sourceEntry);
+        }
+    }
+
+    @Benchmark
+    public List<VariantSourceEntry> perSampleMaps() {
+        for (VariantSourceEntry sourceEntry : sourceEntries) {
+            expandWithPerSampleMaps(sourceEntry, studyFileIdsToPositionSamples);
+        }
+        return sourceEntries;
+    }
+
+    @Benchmark
+    public List<VariantSourceEntry> sharedSampleData() {
+        SamplesDataExpander samplesDataExpander = new SamplesDataExpander(studyFileIdsToSampleNames);
+        for (VariantSourceEntry sourceEntry : sourceEntries) {
+            samplesDataExpander.expand(sourceEntry);
+        }
+        return sourceEntries;
+    }
+
+    /**
+     * Expansion as it was done before {@link SamplesDataExpander}, kept here as the baseline
+     */
+    private static VariantSourceEntry expandWithPerSampleMaps(VariantSourceEntry variantSourceEntry,
+                                                              Table<String, String, Map<String, String>>
+                                                                      studyFileIdsToPositionSamples) {
+        Map<String, Map<String, String>> samplesData = variantSourceEntry.getSamplesData();
+        if ((samplesData == null) || (samplesData.size() == 0)) {
+            return variantSourceEntry;
+        }
+
+        String defaultGt = samplesData.get("def").get("GT");
+        samplesData.remove("def");
+
+        Map<String, String> indexesToNames = studyFileIdsToPositionSamples.get(variantSourceEntry.getStudyId(),
+                                                                               variantSourceEntry.getFileId());
+        for (Map.Entry<String, String> indexToName : indexesToNames.entrySet()) {
+            String sampleIndex = indexToName.getKey();
+            String sampleName = indexToName.getValue();
+
+            Map<String, String> sampleData = new HashMap<>(1);
+            if (samplesData.containsKey(sampleIndex)) {
+                sampleData = samplesData.remove(sampleIndex);
+            } else {
+                sampleData.put("GT", defaultGt);
+            }
+            samplesData.put(sampleName, sampleData);
+        }
+        return variantSourceEntry;
+    }
+
+    private static Map<String, String> genotype(String genotype) {
+        Map<String, String> sampleData = new HashMap<>();
+        sampleData.put("GT", genotype);
+        return sampleData;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SamplesDataExpansionBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import com.google.common.collect.Table;
+import com.lordofthejars.nosqlunit.annotation.UsingDataSet;
+import com.lordofthejars.nosqlunit.mongodb.MongoDbRule;
+import com.mongodb.BasicDBObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import uk.ac.ebi.eva.commons.models.data.VariantSourceEntity;
+import uk.ac.ebi.eva.lib.configuration.MongoRepositoryTestConfiguration;
+
+
+import static com.lordofthejars.nosqlunit.mongodb.MongoDbRule.MongoDbRuleBuilder.newMongoDbRule;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for SamplesPositionCache
+ * <p>
+ * Uses in memory Mongo database spoof Fongo, and loading data from json using lordofthejars nosqlunit.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {MongoRepositoryTestConfiguration.class})
+@UsingDataSet(locations = {"/test-data/files.json"})
+public class SamplesPositionCacheTest {
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Rule
+    public MongoDbRule mongoDbRule = newMongoDbRule().defaultSpringMongoDb("test-db");
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private SamplesPositionCache samplesPositionCache;
+
+    @Before
+    public void setUp() {
+        samplesPositionCache = new SamplesPositionCache(mongoTemplate, 60_000);
+    }
+
+    @Test
+    public void testPositionsAreInverted() {
+        Table<String, String, String[]> studyFileIdsToSampleNames =
+                samplesPositionCache.getStudyFileIdsToSampleNames();
+
+        String[] sampleNames = studyFileIdsToSampleNames.get("PRJEB15385", "ERZ329750");
+        assertEquals(2, sampleNames.length);
+        assertEquals("NA12877", sampleNames[0]);
+        assertEquals("NA12878", sampleNames[1]);
+    }
+
+    @Test
+    public void testTableIsReusedWhileFilesDontChange() {
+        Table<String, String, String[]> firstTable = samplesPositionCache.getStudyFileIdsToSampleNames();
+        Table<String, String, String[]> secondTable = samplesPositionCache.getStudyFileIdsToSampleNames();
+
+        assertSame(firstTable, secondTable);
+        assertEquals(1, samplesPositionCache.getMissCount());
+        assertEquals(1, samplesPositionCache.getHitCount());
+    }
+
+    @Test
+    public void testTableIsRebuiltWhenFilesChange() {
+        samplesPositionCache = new SamplesPositionCache(mongoTemplate, 0);
+        samplesPositionCache.getStudyFileIdsToSampleNames();
+
+        mongoTemplate.getCollection(mongoTemplate.getCollectionName(VariantSourceEntity.class))
+                     .insert(new BasicDBObject("sid", "newStudyId").append("fid", "newFileId"));
+
+        samplesPositionCache.getStudyFileIdsToSampleNames();
+        assertEquals(2, samplesPositionCache.getMissCount());
+    }
+}
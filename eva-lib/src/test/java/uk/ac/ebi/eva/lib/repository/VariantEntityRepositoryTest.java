@@ -29,6 +29,11 @@ import org.opencb.biodata.models.variant.VariantSourceEntry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.MongoDbFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
@@ -38,9 +43,13 @@ import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
 import uk.ac.ebi.eva.lib.configuration.MongoRepositoryTestConfiguration;
 import uk.ac.ebi.eva.lib.filter.FilterBuilder;
 import uk.ac.ebi.eva.lib.filter.VariantEntityRepositoryFilter;
+import uk.ac.ebi.eva.lib.repository.projections.ChromosomeSummary;
+import uk.ac.ebi.eva.lib.utils.VariantBinBackfill;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -72,6 +81,15 @@ public class VariantEntityRepositoryTest {
     @Autowired
     private VariantEntityRepository variantEntityRepository;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MongoDbFactory mongoDbFactory;
+
+    @Autowired
+    private MappingMongoConverter mappingMongoConverter;
+
     @Test
     public void checkFieldPresence() throws IOException {
 
@@ -138,6 +156,95 @@ public class VariantEntityRepositoryTest {
         assertTrue(variantEntityList.size() == 0);
     }
 
+    @Test
+    public void testFindByIdsOrCoordinatesKeepsTheOrderOfTheInput() {
+        List<String> variantIds = Arrays.asList("9:10099:A:T", "notarealid", "rs148957270", "2:226803:C",
+                                                "2:226803:C:T", "rs575961545");
+        List<List<VariantEntity>> variantEntities = variantEntityRepository
+                .findByIdsOrCoordinatesAndComplexFilters(variantIds, new ArrayList<>(), new ArrayList<>());
+
+        assertEquals(variantIds.size(), variantEntities.size());
+        assertEquals(1, variantEntities.get(0).size());
+        assertEquals("9", variantEntities.get(0).get(0).getChromosome());
+        assertEquals(10099, variantEntities.get(0).get(0).getStart());
+        assertTrue(variantEntities.get(1).isEmpty());
+        assertEquals(1, variantEntities.get(2).size());
+        assertTrue(variantEntities.get(2).get(0).getIds().contains("rs148957270"));
+        assertEquals(1, variantEntities.get(3).size());
+        assertEquals("G", variantEntities.get(3).get(0).getAlternate());
+        assertTrue(variantEntities.get(4).isEmpty());
+        assertEquals(1, variantEntities.get(5).size());
+        assertTrue(variantEntities.get(5).get(0).getIds().contains("rs575961545"));
+    }
+
+    @Test
+    public void testFindByCoordinatesWithLeadingZeros() {
+        List<List<VariantEntity>> variantEntities = variantEntityRepository
+                .findByIdsOrCoordinatesAndComplexFilters(Arrays.asList("9:010099:A:T", "9:10099:A:T"),
+                                                         new ArrayList<>(), new ArrayList<>());
+
+        assertEquals(2, variantEntities.size());
+        assertEquals(1, variantEntities.get(0).size());
+        assertEquals(10099, variantEntities.get(0).get(0).getStart());
+        assertEquals(variantEntities.get(1).get(0).getIds(), variantEntities.get(0).get(0).getIds());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFindByIdsOrCoordinatesWithInvalidCoordinates() {
+        variantEntityRepository.findByIdsOrCoordinatesAndComplexFilters(Arrays.asList("rs148957270", "9:10099"),
+                                                                        new ArrayList<>(), new ArrayList<>());
+    }
+
+    @Test
+    public void testExistsByIdsOrCoordinatesKeepsTheOrderOfTheInput() {
+        List<String> variantIds = Arrays.asList("9:10099:A:T", "notarealid", "rs148957270", "2:226803:C",
+                                                "2:226803:C:T", "9:010099:A", "rs575961545");
+        assertEquals(Arrays.asList(true, false, true, true, false, true, true),
+                     variantEntityRepository.existsByIdsOrCoordinatesAndComplexFilters(variantIds, new ArrayList<>()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExistsByIdsOrCoordinatesWithInvalidCoordinates() {
+        variantEntityRepository.existsByIdsOrCoordinatesAndComplexFilters(Arrays.asList("rs148957270", "9:10099"),
+                                                                          new ArrayList<>());
+    }
+
+    @Test
+    public void testExistsByIdsAndComplexFilters() {
+        assertTrue(variantEntityRepository.existsByIdsAndComplexFilters("rs148957270", new ArrayList<>()));
+        assertFalse(variantEntityRepository.existsByIdsAndComplexFilters("notarealid", new ArrayList<>()));
+    }
+
+    @Test
+    public void testExistsByChromosomeAndStartAndAllelesAndComplexFilters() {
+        List<VariantEntityRepositoryFilter> filters = new FilterBuilder()
+                .withStudies(Collections.singletonList("PRJEB5439")).build();
+        assertTrue(variantEntityRepository.existsByChromosomeAndStartAndAllelesAndComplexFilters("11", 193051, "G",
+                                                                                                 "A", filters));
+        assertTrue(variantEntityRepository.existsByChromosomeAndStartAndAllelesAndComplexFilters("11", 193051, "G",
+                                                                                                 null, filters));
+        assertFalse(variantEntityRepository.existsByChromosomeAndStartAndAllelesAndComplexFilters("11", 193051, "G",
+                                                                                                  "C", filters));
+    }
+
+    @Test
+    public void testExistsByChromosomeAndStartAndAltAndStudyIn() {
+        List<String> studies = Arrays.asList("PRJEB5439", "PRJEB8705");
+        assertTrue(variantEntityRepository.existsByChromosomeAndStartAndAltAndStudyIn("11", 193051, "A", studies));
+        assertFalse(variantEntityRepository.existsByChromosomeAndStartAndAltAndStudyIn("11", 193051, "C", studies));
+        assertFalse(variantEntityRepository.existsByChromosomeAndStartAndAltAndStudyIn(
+                "11", 193051, "A", Collections.singletonList("PRJEB8639")));
+    }
+
+    @Test
+    public void testExistsByChromosomeAndStartAndTypeAndStudyIn() {
+        List<String> studies = Collections.singletonList("PRJEB6930");
+        assertTrue(variantEntityRepository.existsByChromosomeAndStartAndTypeAndStudyIn(
+                "11", 190063, Variant.VariantType.INDEL, studies));
+        assertFalse(variantEntityRepository.existsByChromosomeAndStartAndTypeAndStudyIn(
+                "11", 190063, Variant.VariantType.SNV, studies));
+    }
+
     @Test
     public void testVariantRegionIsFound() {
         String chr = "11";
@@ -180,6 +287,182 @@ public class VariantEntityRepositoryTest {
         }
     }
 
+    @Test
+    public void testStreamByRegionsAndComplexFilters() {
+        List<Region> regions = new ArrayList<>();
+        regions.add(new Region("11", 190000, 194000));
+
+        int count = 0;
+        VariantEntity prevVariantEntity = null;
+        try (CloseableIterator<VariantEntity> variantEntities = variantEntityRepository
+                .streamByRegionsAndComplexFilters(regions, new ArrayList<>(), new ArrayList<>())) {
+            while (variantEntities.hasNext()) {
+                VariantEntity currVariantEntity = variantEntities.next();
+                if (prevVariantEntity != null) {
+                    assertTrue(prevVariantEntity.getStart() <= currVariantEntity.getStart());
+                }
+                prevVariantEntity = currVariantEntity;
+                count++;
+            }
+        }
+        assertEquals(478, count);
+    }
+
+    @Test
+    public void testFindByRegionsAndComplexFiltersAfter() {
+        List<Region> regions = new ArrayList<>();
+        regions.add(new Region("11", 190000, 194000));
+
+        int count = 0;
+        VariantSeekPosition position = null;
+        VariantEntity prevVariantEntity = null;
+        do {
+            VariantEntitySeekPage page = variantEntityRepository
+                    .findByRegionsAndComplexFiltersAfter(regions, new ArrayList<>(), new ArrayList<>(), position, 100);
+            assertTrue(page.getVariantEntities().size() <= 100);
+            for (VariantEntity currVariantEntity : page.getVariantEntities()) {
+                if (prevVariantEntity != null) {
+                    assertTrue(prevVariantEntity.getStart() <= currVariantEntity.getStart());
+                }
+                prevVariantEntity = currVariantEntity;
+                count++;
+            }
+            position = page.getNextPosition();
+        } while (position != null);
+
+        assertEquals(478, count);
+    }
+
+    @Test
+    public void testManyRegionsAreQueriedInChunks() {
+        List<Region> regions = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            int start = 190000 + i * 100;
+            regions.add(new Region("11", start, start + 49));
+        }
+        List<VariantEntityRepositoryFilter> filters = new ArrayList<>();
+        List<String> exclude = new ArrayList<>();
+
+        List<VariantEntity> variantEntities = variantEntityRepository
+                .findByRegionsAndComplexFilters(regions, filters, exclude, new PageRequest(0, 1000000));
+        assertEquals(variantEntityRepository.countByRegionsAndComplexFilters(regions, filters),
+                     new Long(variantEntities.size()));
+        for (int i = 1; i < variantEntities.size(); i++) {
+            assertTrue(variantEntities.get(i - 1).getStart() <= variantEntities.get(i).getStart());
+        }
+
+        List<VariantEntity> secondPage = variantEntityRepository
+                .findByRegionsAndComplexFilters(regions, filters, exclude, new PageRequest(1, 10));
+        assertEquals(10, secondPage.size());
+        for (int i = 0; i < secondPage.size(); i++) {
+            assertEquals(variantEntities.get(10 + i).getStart(), secondPage.get(i).getStart());
+        }
+    }
+
+    @Test
+    public void testBinQueriesFindTheSameVariantsAsRangeQueries() {
+        VariantBinBackfill backfill = new VariantBinBackfill(
+                mongoTemplate.getCollection(mongoTemplate.getCollectionName(VariantEntity.class)));
+        assertEquals(mongoTemplate.count(new Query(), VariantEntity.class), backfill.backfill());
+        assertEquals(0, backfill.backfill());
+
+        VariantEntityRepositoryImpl binRepository = new VariantEntityRepositoryImpl(mongoDbFactory,
+                                                                                    mappingMongoConverter);
+        binRepository.setBinQueries(true);
+        try {
+            List<VariantEntityRepositoryFilter> filters = new ArrayList<>();
+            List<String> exclude = new ArrayList<>();
+            for (Region region : Arrays.asList(new Region("11", 190000, 190300), new Region("11", 191000, 194000),
+                                               new Region("11", 190064, 190064), new Region("9", 1, 20000000))) {
+                List<Region> regions = Collections.singletonList(region);
+                List<VariantEntity> expected = variantEntityRepository
+                        .findByRegionsAndComplexFilters(regions, filters, exclude, new PageRequest(0, 1000000));
+                List<VariantEntity> binned = binRepository
+                        .findByRegionsAndComplexFilters(regions, filters, exclude, new PageRequest(0, 1000000));
+
+                assertFalse(expected.isEmpty());
+                assertEquals(expected.size(), binned.size());
+                assertEquals(variantEntityRepository.countByRegionsAndComplexFilters(regions, filters),
+                             binRepository.countByRegionsAndComplexFilters(regions, filters));
+            }
+        } finally {
+            binRepository.shutdownAsyncQueriesExecutor();
+        }
+    }
+
+    @Test
+    public void testCachedQueriesReturnTheSameVariants() {
+        VariantEntityRepositoryImpl cachedRepository = new VariantEntityRepositoryImpl(mongoDbFactory,
+                                                                                       mappingMongoConverter);
+        cachedRepository.setQueryCache(100, 64 * 1024 * 1024, 60_000);
+        try {
+            List<VariantEntityRepositoryFilter> filters = new FilterBuilder().withMaf(">=0.125").build();
+            List<Region> regions = Arrays.asList(new Region("11", 191000, 194000), new Region("11", 190000, 190300));
+            List<Region> reorderedRegions = Arrays.asList(new Region("11", 190000, 190300),
+                                                          new Region("11", 191000, 194000));
+            List<VariantEntity> expected = variantEntityRepository
+                    .findByRegionsAndComplexFilters(regions, filters, null, new PageRequest(0, 1000),
+                                                    VariantEntityRepository.GenotypesMode.SPARSE);
+
+            List<VariantEntity> first = cachedRepository
+                    .findByRegionsAndComplexFilters(regions, filters, null, new PageRequest(0, 1000),
+                                                    VariantEntityRepository.GenotypesMode.SPARSE);
+            List<VariantEntity> second = cachedRepository
+                    .findByRegionsAndComplexFilters(reorderedRegions, filters, new ArrayList<>(),
+                                                    new PageRequest(0, 1000),
+                                                    VariantEntityRepository.GenotypesMode.SPARSE);
+            assertFalse(expected.isEmpty());
+            assertEquals(expected.size(), first.size());
+            assertEquals(expected.size(), second.size());
+            assertEquals(Long.valueOf(expected.size()),
+                         cachedRepository.countByRegionsAndComplexFilters(regions, filters));
+
+            Map<String, Object> statistics = cachedRepository.getQueryCacheStatistics();
+            assertEquals(1L, statistics.get("hits"));
+            assertEquals(2L, statistics.get("misses"));
+
+            cachedRepository.invalidateCachedQueries();
+            assertEquals(expected.size(), cachedRepository
+                    .findByRegionsAndComplexFilters(regions, filters, null, new PageRequest(0, 1000),
+                                                    VariantEntityRepository.GenotypesMode.SPARSE).size());
+            assertEquals(3L, cachedRepository.getQueryCacheStatistics().get("misses"));
+
+            // the results with the full genotypes and the pages are cached too when they fit in the budget
+            cachedRepository.findByRegionsAndComplexFilters(regions, filters, null, new PageRequest(0, 1000));
+            cachedRepository.findByRegionsAndComplexFilters(regions, filters, null, new PageRequest(0, 1000));
+            cachedRepository.findByRegionsAndComplexFiltersAfter(regions, filters, null, null, 10);
+            cachedRepository.findByRegionsAndComplexFiltersAfter(regions, filters, null, null, 10);
+            assertEquals(3L, cachedRepository.getQueryCacheStatistics().get("hits"));
+            assertEquals(5L, cachedRepository.getQueryCacheStatistics().get("misses"));
+        } finally {
+            cachedRepository.shutdownAsyncQueriesExecutor();
+        }
+    }
+
+    @Test
+    public void testResultsOverTheSizeLimitAreNotCached() {
+        VariantEntityRepositoryImpl cachedRepository = new VariantEntityRepositoryImpl(mongoDbFactory,
+                                                                                       mappingMongoConverter);
+        // a single result can take a hundredth of the budget, less than a variant
+        cachedRepository.setQueryCache(100, VariantQueryCache.VARIANT_BYTES, 60_000);
+        try {
+            List<Region> regions = Collections.singletonList(new Region("11", 191000, 194000));
+            List<VariantEntity> first = cachedRepository.findByRegionsAndComplexFilters(
+                    regions, new ArrayList<>(), null, new PageRequest(0, 1000));
+            List<VariantEntity> second = cachedRepository.findByRegionsAndComplexFilters(
+                    regions, new ArrayList<>(), null, new PageRequest(0, 1000));
+            assertFalse(first.isEmpty());
+            assertEquals(first.size(), second.size());
+
+            Map<String, Object> statistics = cachedRepository.getQueryCacheStatistics();
+            assertEquals(0L, statistics.get("hits"));
+            assertEquals(2L, statistics.get("misses"));
+            assertEquals(2L, statistics.get("oversized"));
+        } finally {
+            cachedRepository.shutdownAsyncQueriesExecutor();
+        }
+    }
+
     @Test
     public void testCountByRegionsAndComplexFilters() {
         String chr = "11";
@@ -193,6 +476,28 @@ public class VariantEntityRepositoryTest {
         assertEquals(new Long(418), count);
     }
 
+    @Test
+    public void testCappedCountByRegionsAndComplexFilters() {
+        List<Region> regions = new ArrayList<>();
+        regions.add(new Region("11", 191000, 194000));
+        List<VariantEntityRepositoryFilter> filters = new ArrayList<>();
+
+        assertEquals(100, variantEntityRepository.countByRegionsAndComplexFilters(regions, filters, 100));
+        assertEquals(418, variantEntityRepository.countByRegionsAndComplexFilters(regions, filters, 1000));
+    }
+
+    @Test
+    public void testCountByRegionsAndComplexFiltersAsync() {
+        List<Region> regions = new ArrayList<>();
+        regions.add(new Region("11", 191000, 194000));
+        List<VariantEntityRepositoryFilter> filters = new ArrayList<>();
+
+        assertEquals(new Long(418), variantEntityRepository.countByRegionsAndComplexFiltersAsync(regions, filters, 0)
+                                                           .join());
+        assertEquals(new Long(100), variantEntityRepository.countByRegionsAndComplexFiltersAsync(regions, filters, 100)
+                                                           .join());
+    }
+
     @Test
     public void testNonExistentVariantRegionIsNotFound() {
         String chr = "11";
@@ -429,6 +734,24 @@ public class VariantEntityRepositoryTest {
         assertEquals(expectedChromosomes, chromosomeSet);
     }
 
+    @Test
+    public void testFindChromosomeSummaries() throws InterruptedException {
+        // the summaries are computed in the background after the first request
+        long deadline = System.currentTimeMillis() + 10_000;
+        List<ChromosomeSummary> chromosomeSummaries = variantEntityRepository.findChromosomeSummaries();
+        while (chromosomeSummaries == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            chromosomeSummaries = variantEntityRepository.findChromosomeSummaries();
+        }
+        assertNotNull(chromosomeSummaries);
+
+        assertEquals(3, chromosomeSummaries.size());
+        assertEquals("11", chromosomeSummaries.get(0).getChromosome());
+        assertEquals(496, chromosomeSummaries.get(0).getVariantsCount());
+        assertEquals(new ChromosomeSummary("2", 1, 226803, 226803), chromosomeSummaries.get(1));
+        assertEquals(new ChromosomeSummary("9", 1, 10099, 10099), chromosomeSummaries.get(2));
+    }
+
     @Test
     public void testCountByChromosomeAndStartAndEndAndAltAndStudy() {
         List<String> studies = new ArrayList<>();
@@ -472,6 +795,80 @@ public class VariantEntityRepositoryTest {
         }
     }
 
+    @Test
+    public void testSamplesDataIsSparse() {
+        List<Region> regions = new ArrayList<>();
+        regions.add(new Region("11", 190062, 190064));
+
+        List<VariantEntity> variantEntityList =
+                variantEntityRepository.findByRegionsAndComplexFilters(regions, null, null, new PageRequest(0, 10000),
+                                                                       VariantEntityRepository.GenotypesMode.SPARSE);
+
+        assertEquals(1, variantEntityList.size());
+        for (VariantSourceEntry variantSourceEntry : variantEntityList.get(0).getSourceEntries().values()) {
+            if (!variantSourceEntry.getFileId().equals("ERZX00051")) {
+                continue;
+            }
+            Map<String, Map<String, String>> samplesData = variantSourceEntry.getSamplesData();
+            assertEquals("0|1", samplesData.get("def").get("GT"));
+            assertFalse(samplesData.containsKey("HG03805"));
+        }
+    }
+
+    @Test
+    public void testSamplesDataIsExcluded() {
+        List<Region> regions = new ArrayList<>();
+        regions.add(new Region("11", 190062, 190064));
+
+        List<VariantEntity> variantEntityList =
+                variantEntityRepository.findByRegionsAndComplexFilters(regions, null, null, new PageRequest(0, 10000),
+                                                                       VariantEntityRepository.GenotypesMode.NONE);
+
+        assertEquals(1, variantEntityList.size());
+        for (VariantSourceEntry variantSourceEntry : variantEntityList.get(0).getSourceEntries().values()) {
+            assertFalse(variantSourceEntry.getFileId().isEmpty());
+            assertTrue(variantSourceEntry.getSamplesData().isEmpty());
+        }
+    }
+
+    @Test
+    public void testOnlyIncludedFieldsAreRetrieved() {
+        List<Region> regions = new ArrayList<>();
+        regions.add(new Region("11", 190062, 190064));
+
+        List<VariantEntity> variantEntityList =
+                variantEntityRepository.findByRegionsAndComplexFilters(regions, null, null,
+                                                                       Collections.singletonList("ids"),
+                                                                       new PageRequest(0, 10000),
+                                                                       VariantEntityRepository.GenotypesMode.FULL);
+
+        assertEquals(1, variantEntityList.size());
+        VariantEntity variantEntity = variantEntityList.get(0);
+        assertEquals("11", variantEntity.getChromosome());
+        assertEquals(190063, variantEntity.getStart());
+        assertTrue(variantEntity.getIds().contains("rs144888868"));
+        assertTrue(variantEntity.getSourceEntries().isEmpty());
+    }
+
+    @Test
+    public void testIncludedFilesWithoutGenotypes() {
+        List<Region> regions = new ArrayList<>();
+        regions.add(new Region("11", 190062, 190064));
+
+        List<VariantEntity> variantEntityList =
+                variantEntityRepository.findByRegionsAndComplexFilters(regions, null, null,
+                                                                       Collections.singletonList("files"),
+                                                                       new PageRequest(0, 10000),
+                                                                       VariantEntityRepository.GenotypesMode.NONE);
+
+        assertEquals(1, variantEntityList.size());
+        assertFalse(variantEntityList.get(0).getSourceEntries().isEmpty());
+        for (VariantSourceEntry variantSourceEntry : variantEntityList.get(0).getSourceEntries().values()) {
+            assertFalse(variantSourceEntry.getFileId().isEmpty());
+            assertTrue(variantSourceEntry.getSamplesData().isEmpty());
+        }
+    }
+
     private void testFiltersHelperRegion(List<Region> regions, List<VariantEntityRepositoryFilter> filters,
                                          List<String> exclude, int expectedResultLength) {
         List<VariantEntity> variantEntityList =
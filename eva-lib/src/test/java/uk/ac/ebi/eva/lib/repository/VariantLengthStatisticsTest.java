@@ -0,0 +1,111 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import com.lordofthejars.nosqlunit.annotation.UsingDataSet;
+import com.lordofthejars.nosqlunit.mongodb.MongoDbRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
+import uk.ac.ebi.eva.lib.configuration.MongoRepositoryTestConfiguration;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.lordofthejars.nosqlunit.mongodb.MongoDbRule.MongoDbRuleBuilder.newMongoDbRule;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for VariantLengthStatistics
+ * <p>
+ * Uses in memory Mongo database spoof Fongo, and loading data from json using lordofthejars nosqlunit.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {MongoRepositoryTestConfiguration.class})
+@UsingDataSet(locations = {"/test-data/variants.json", "/test-data/files.json"})
+public class VariantLengthStatisticsTest {
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Rule
+    public MongoDbRule mongoDbRule = newMongoDbRule().defaultSpringMongoDb("test-db");
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Test
+    public void testMarginIsTheLongestVariantOfTheChromosome() {
+        // the statistics are computed in the calling thread
+        VariantLengthStatistics variantLengthStatistics = new VariantLengthStatistics(mongoTemplate, Runnable::run);
+
+        assertEquals(getMaxLength("11") + 1, variantLengthStatistics.getMargin("11"));
+        assertEquals(getMaxLength("9") + 1, variantLengthStatistics.getMargin("9"));
+        assertTrue(variantLengthStatistics.getMargin("11") < VariantLengthStatistics.DEFAULT_MARGIN);
+    }
+
+    @Test
+    public void testUnknownChromosomeUsesTheLongestVariantOfTheDatabase() {
+        VariantLengthStatistics variantLengthStatistics = new VariantLengthStatistics(mongoTemplate, Runnable::run);
+
+        int margin = variantLengthStatistics.getMargin("notARealChromosome");
+        assertTrue(margin >= variantLengthStatistics.getMargin("11"));
+        assertTrue(margin >= variantLengthStatistics.getMargin("9"));
+    }
+
+    @Test
+    public void testDefaultMarginIsUsedUntilTheStatisticsAreComputed() {
+        // the computations are never run
+        VariantLengthStatistics variantLengthStatistics = new VariantLengthStatistics(mongoTemplate, compute -> { });
+
+        assertEquals(VariantLengthStatistics.DEFAULT_MARGIN, variantLengthStatistics.getMargin("11"));
+    }
+
+    @Test
+    public void testPreloadedStatisticsAreNotRecomputed() {
+        AtomicInteger computations = new AtomicInteger();
+        VariantLengthStatistics variantLengthStatistics = new VariantLengthStatistics(mongoTemplate, compute -> {
+            computations.incrementAndGet();
+            compute.run();
+        });
+
+        variantLengthStatistics.preload();
+        assertEquals(1, computations.get());
+        assertEquals(getMaxLength("11") + 1, variantLengthStatistics.getMargin("11"));
+        assertEquals(1, computations.get());
+    }
+
+    private int getMaxLength(String chromosome) {
+        List<VariantEntity> variantEntities = mongoTemplate.find(new Query(Criteria.where("chr").is(chromosome)),
+                                                                 VariantEntity.class);
+        assertTrue(variantEntities.size() > 0);
+        return Math.max(0, variantEntities.stream().mapToInt(variant -> variant.getEnd() - variant.getStart())
+                                          .max().getAsInt());
+    }
+}
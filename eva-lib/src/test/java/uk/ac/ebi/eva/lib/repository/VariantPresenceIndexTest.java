@@ -0,0 +1,170 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import com.lordofthejars.nosqlunit.annotation.UsingDataSet;
+import com.mongodb.BasicDBObject;
+import com.lordofthejars.nosqlunit.mongodb.MongoDbRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
+import uk.ac.ebi.eva.lib.configuration.MongoRepositoryTestConfiguration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.lordofthejars.nosqlunit.mongodb.MongoDbRule.MongoDbRuleBuilder.newMongoDbRule;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for VariantPresenceIndex
+ * <p>
+ * Uses in memory Mongo database spoof Fongo, and loading data from json using lordofthejars nosqlunit.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {MongoRepositoryTestConfiguration.class})
+@UsingDataSet(locations = {"/test-data/variants.json", "/test-data/files.json"})
+public class VariantPresenceIndexTest {
+
+    private static final List<String> STUDY = Collections.singletonList("PRJEB5439");
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Rule
+    public MongoDbRule mongoDbRule = newMongoDbRule().defaultSpringMongoDb("test-db");
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Test
+    public void testVariantsOfTheStudyAreFound() {
+        // the filters are built in the calling thread
+        VariantPresenceIndex variantPresenceIndex = new VariantPresenceIndex(mongoTemplate, Runnable::run);
+
+        assertTrue(variantPresenceIndex.mightContainAlternate("11", 193051, "A", STUDY));
+        assertTrue(variantPresenceIndex.mightContainType("11", 193051, "SNV", STUDY));
+    }
+
+    @Test
+    public void testMostAbsentVariantsAreDiscarded() {
+        VariantPresenceIndex variantPresenceIndex = new VariantPresenceIndex(mongoTemplate, Runnable::run);
+
+        int positives = 0;
+        for (int start = 1; start <= 100; start++) {
+            if (variantPresenceIndex.mightContainAlternate("20", start, "A", STUDY)) {
+                positives++;
+            }
+        }
+        assertTrue("Too many false positives: " + positives, positives < 10);
+    }
+
+    @Test
+    public void testUnknownStudyContainsNothing() {
+        VariantPresenceIndex variantPresenceIndex = new VariantPresenceIndex(mongoTemplate, Runnable::run);
+
+        assertFalse(variantPresenceIndex.mightContainAlternate("11", 193051, "A",
+                                                               Collections.singletonList("notARealStudy")));
+    }
+
+    @Test
+    public void testEverythingMightBeContainedUntilTheFilterIsBuilt() {
+        // the builds are never run
+        VariantPresenceIndex variantPresenceIndex = new VariantPresenceIndex(mongoTemplate, build -> { });
+
+        assertTrue(variantPresenceIndex.mightContainAlternate("20", 1, "A", STUDY));
+        assertTrue(variantPresenceIndex.mightContainAlternate("11", 193051, "A",
+                                                              Collections.singletonList("notARealStudy")));
+    }
+
+    @Test
+    public void testFilterIsRebuiltWhenVariantsAreAdded() {
+        // the variants are counted in every query
+        VariantPresenceIndex variantPresenceIndex = new VariantPresenceIndex(mongoTemplate, Runnable::run, 0,
+                                                                             Long.MAX_VALUE, Long.MAX_VALUE);
+        assertTrue(variantPresenceIndex.mightContainAlternate("11", 193051, "A", STUDY));
+
+        mongoTemplate.getCollection(mongoTemplate.getCollectionName(VariantEntity.class)).insert(
+                new BasicDBObject("chr", "20").append("start", 123456).append("alt", "T").append("type", "SNV")
+                                              .append("files", Collections.singletonList(
+                                                      new BasicDBObject("sid", STUDY.get(0)))));
+
+        assertTrue(variantPresenceIndex.mightContainAlternate("20", 123456, "T", STUDY));
+        assertTrue(variantPresenceIndex.mightContainType("20", 123456, "SNV", STUDY));
+    }
+
+    @Test
+    public void testFilterIsDroppedWhileItIsRebuilt() {
+        // the counts and builds are run by the test, and every filter is too old to be kept
+        List<Runnable> tasks = new ArrayList<>();
+        VariantPresenceIndex variantPresenceIndex = new VariantPresenceIndex(mongoTemplate, tasks::add, 0, 0,
+                                                                             Long.MAX_VALUE);
+        assertTrue(variantPresenceIndex.mightContainAlternate("20", 1, "A", STUDY));
+        runAll(tasks);
+        assertTrue(variantPresenceIndex.mightContainAlternate("20", 1, "A", STUDY));
+        runAll(tasks);
+
+        // the variants are counted in the background, so the query is answered by the filter just built
+        assertFalse(variantPresenceIndex.mightContainAlternate("20", 1, "A", STUDY));
+        assertFalse(tasks.isEmpty());
+
+        // the count schedules a rebuild, and the database is queried until it finishes
+        runPending(tasks);
+        assertTrue(variantPresenceIndex.mightContainAlternate("20", 1, "A", STUDY));
+        runAll(tasks);
+        assertFalse(variantPresenceIndex.mightContainAlternate("20", 1, "A", STUDY));
+    }
+
+    /**
+     * Runs the tasks, and those they schedule
+     */
+    private static void runAll(List<Runnable> tasks) {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+    /**
+     * Runs the tasks scheduled so far, but not those they schedule
+     */
+    private static void runPending(List<Runnable> tasks) {
+        List<Runnable> pending = new ArrayList<>(tasks);
+        tasks.clear();
+        pending.forEach(Runnable::run);
+    }
+
+    @Test
+    public void testStudiesOverTheMemoryBudgetMightContainEverything() {
+        VariantPresenceIndex variantPresenceIndex = new VariantPresenceIndex(mongoTemplate, Runnable::run, 60_000,
+                                                                             Long.MAX_VALUE, 0);
+
+        for (int start = 1; start <= 100; start++) {
+            assertTrue(variantPresenceIndex.mightContainAlternate("20", start, "A", STUDY));
+        }
+    }
+}
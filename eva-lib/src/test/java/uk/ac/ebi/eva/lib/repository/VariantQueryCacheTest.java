@@ -0,0 +1,181 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import org.junit.Test;
+import org.opencb.biodata.models.variant.VariantSourceEntry;
+
+import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for VariantQueryCache
+ */
+public class VariantQueryCacheTest {
+
+    @Test
+    public void testRepeatedQueryIsServedFromCache() {
+        VariantQueryCache cache = new VariantQueryCache(100, 60_000);
+        AtomicInteger queries = new AtomicInteger();
+
+        assertEquals(1, (int) cache.get(key("db", "11:1-100"), queries::incrementAndGet));
+        assertEquals(1, (int) cache.get(key("db", "11:1-100"), queries::incrementAndGet));
+        assertEquals(1, queries.get());
+
+        Map<String, Object> statistics = cache.getStatistics();
+        assertEquals(1L, statistics.get("hits"));
+        assertEquals(1L, statistics.get("misses"));
+        assertEquals(0.5, statistics.get("hitRatio"));
+    }
+
+    @Test
+    public void testDisabledCacheRunsEveryQuery() {
+        VariantQueryCache cache = new VariantQueryCache(0, 60_000);
+        AtomicInteger queries = new AtomicInteger();
+
+        cache.get(key("db", "11:1-100"), queries::incrementAndGet);
+        cache.get(key("db", "11:1-100"), queries::incrementAndGet);
+        assertEquals(2, queries.get());
+    }
+
+    @Test
+    public void testExpiredResultsAreQueriedAgain() {
+        VariantQueryCache cache = new VariantQueryCache(100, 0);
+        AtomicInteger queries = new AtomicInteger();
+
+        cache.get(key("db", "11:1-100"), queries::incrementAndGet);
+        cache.get(key("db", "11:1-100"), queries::incrementAndGet);
+        assertEquals(2, queries.get());
+    }
+
+    @Test
+    public void testInvalidateOnlyDiscardsTheResultsOfOneDatabase() {
+        VariantQueryCache cache = new VariantQueryCache(100, 60_000);
+        AtomicInteger queries = new AtomicInteger();
+        cache.get(key("db1", "11:1-100"), queries::incrementAndGet);
+        cache.get(key("db2", "11:1-100"), queries::incrementAndGet);
+
+        cache.invalidate("db1");
+
+        assertEquals(3, (int) cache.get(key("db1", "11:1-100"), queries::incrementAndGet));
+        assertEquals(2, (int) cache.get(key("db2", "11:1-100"), queries::incrementAndGet));
+    }
+
+    @Test
+    public void testFrequentQueryIsNotEvictedByAScan() {
+        VariantQueryCache cache = new VariantQueryCache(100, 60_000);
+        AtomicInteger hotQueries = new AtomicInteger();
+        for (int i = 0; i < 5; i++) {
+            cache.get(key("db", "17:41196312-41277500"), hotQueries::incrementAndGet);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            cache.get(key("db", "1:" + i + "-" + i), () -> "one-off");
+        }
+
+        cache.get(key("db", "17:41196312-41277500"), hotQueries::incrementAndGet);
+        assertEquals(1, hotQueries.get());
+        Map<String, Object> statistics = cache.getStatistics();
+        assertNotEquals(0L, statistics.get("rejections"));
+        // a rejected result doesn't evict anything
+        assertTrue((long) statistics.get("evictions") < (long) statistics.get("rejections"));
+        assertEquals(100, cache.getStatistics().get("entries"));
+    }
+
+    @Test
+    public void testResultsAreEvictedOverTheByteBudget() {
+        // each result takes almost a hundredth of the budget, and there are more entries than those that fit in it
+        VariantQueryCache cache = new VariantQueryCache(1000, 1000 * VariantQueryCache.VARIANT_BYTES, 60_000);
+        for (int i = 0; i < 200; i++) {
+            cache.get(key("db", "1:" + i + "-" + i), () -> variants(9));
+        }
+
+        Map<String, Object> statistics = cache.getStatistics();
+        assertTrue((long) statistics.get("bytes") <= 1000 * VariantQueryCache.VARIANT_BYTES);
+        assertTrue((int) statistics.get("entries") < 200);
+        assertNotEquals(0L, statistics.get("evictions"));
+
+        cache.invalidate("db");
+        assertEquals(0L, cache.getStatistics().get("bytes"));
+        assertEquals(0, cache.getStatistics().get("entries"));
+    }
+
+    @Test
+    public void testLargeResultsAreNotCached() {
+        VariantQueryCache cache = new VariantQueryCache(100, 1000 * VariantQueryCache.VARIANT_BYTES, 60_000);
+        AtomicInteger queries = new AtomicInteger();
+
+        cache.get(key("db", "1:1-1000000"), () -> variants(10 + queries.incrementAndGet()));
+        cache.get(key("db", "1:1-1000000"), () -> variants(10 + queries.incrementAndGet()));
+        assertEquals(2, queries.get());
+        assertEquals(2L, cache.getStatistics().get("oversized"));
+        assertEquals(0L, cache.getStatistics().get("bytes"));
+    }
+
+    @Test
+    public void testWeighCountsVariantsAndSamples() {
+        VariantEntity variant = new VariantEntity("1", 1000, 1000, "A", "T");
+        VariantSourceEntry sourceEntry = new VariantSourceEntry("file", "study");
+        for (int i = 0; i < 10; i++) {
+            sourceEntry.getSamplesData().put("sample" + i, Collections.singletonMap("GT", "0|0"));
+        }
+        variant.addSourceEntry(sourceEntry);
+
+        assertEquals(VariantQueryCache.COUNT_BYTES, VariantQueryCache.weigh(5L));
+        assertEquals(VariantQueryCache.VARIANT_BYTES + 10 * VariantQueryCache.SAMPLE_BYTES,
+                     VariantQueryCache.weigh(variant));
+        assertEquals(VariantQueryCache.COUNT_BYTES + 2 * VariantQueryCache.weigh(variant),
+                     VariantQueryCache.weigh(Arrays.asList(variant, variant)));
+    }
+
+    @Test
+    public void testFrequencySketch() {
+        VariantQueryCache.FrequencySketch sketch = new VariantQueryCache.FrequencySketch(64);
+        for (int i = 0; i < 20; i++) {
+            sketch.increment("frequent");
+        }
+        sketch.increment("rare");
+
+        assertEquals(15, sketch.frequency("frequent"));
+        assertEquals(1, sketch.frequency("rare"));
+        assertEquals(0, sketch.frequency("absent"));
+    }
+
+    private List<VariantEntity> variants(int count) {
+        List<VariantEntity> variants = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            variants.add(new VariantEntity("1", i + 1, i + 1, "A", "T"));
+        }
+        return variants;
+    }
+
+    private VariantQueryKey key(String databaseName, String region) {
+        return new VariantQueryKey(databaseName, "findByRegions", region);
+    }
+}
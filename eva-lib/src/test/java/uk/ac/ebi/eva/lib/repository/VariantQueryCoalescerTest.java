@@ -0,0 +1,158 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.repository;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for VariantQueryCoalescer
+ */
+public class VariantQueryCoalescerTest {
+
+    private static final int CONCURRENT_QUERIES = 8;
+
+    @Test
+    public void testConcurrentIdenticalQueriesShareOneExecution() throws Exception {
+        VariantQueryCoalescer coalescer = new VariantQueryCoalescer(true, 60_000);
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENT_QUERIES);
+        try {
+            List<CompletableFuture<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < CONCURRENT_QUERIES; i++) {
+                results.add(CompletableFuture.supplyAsync(() -> coalescer.run(key("11:1-100"), () -> {
+                    await(release);
+                    return executions.incrementAndGet();
+                }), executor));
+            }
+            waitForFollowers(coalescer, CONCURRENT_QUERIES - 1);
+            release.countDown();
+
+            for (CompletableFuture<Integer> result : results) {
+                assertEquals(1, (int) result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, executions.get());
+
+            Map<String, Object> statistics = coalescer.getStatistics();
+            assertEquals(1L, statistics.get("executions"));
+            assertEquals((long) CONCURRENT_QUERIES - 1, statistics.get("coalesced"));
+            assertEquals((CONCURRENT_QUERIES - 1.0) / CONCURRENT_QUERIES, statistics.get("collapseRatio"));
+            assertEquals(0, statistics.get("inFlight"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFollowerRunsTheQueryAfterItsTimeout() throws Exception {
+        VariantQueryCoalescer coalescer = new VariantQueryCoalescer(true, 10);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<String> leader = CompletableFuture.supplyAsync(
+                    () -> coalescer.run(key("11:1-100"), () -> {
+                        await(release);
+                        return "leader";
+                    }), executor);
+            waitForExecutions(coalescer, 1);
+
+            assertEquals("follower", coalescer.run(key("11:1-100"), () -> "follower"));
+            assertEquals(1L, coalescer.getStatistics().get("followerTimeouts"));
+
+            release.countDown();
+            assertEquals("leader", leader.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedQueryIsNotShared() {
+        VariantQueryCoalescer coalescer = new VariantQueryCoalescer(true, 60_000);
+        try {
+            coalescer.run(key("11:1-100"), () -> {
+                throw new IllegalStateException("query failed");
+            });
+            fail("The exception of the query should be thrown");
+        } catch (IllegalStateException e) {
+            assertEquals("query failed", e.getMessage());
+        }
+
+        assertEquals("retried", coalescer.run(key("11:1-100"), () -> "retried"));
+        assertEquals(2L, coalescer.getStatistics().get("executions"));
+    }
+
+    @Test
+    public void testDisabledCoalescerRunsEveryQuery() {
+        VariantQueryCoalescer coalescer = new VariantQueryCoalescer(false, 60_000);
+        AtomicInteger executions = new AtomicInteger();
+
+        coalescer.run(key("11:1-100"), executions::incrementAndGet);
+        coalescer.run(key("11:1-100"), executions::incrementAndGet);
+        assertEquals(2, executions.get());
+        assertEquals(0L, coalescer.getStatistics().get("executions"));
+    }
+
+    private VariantQueryKey key(String region) {
+        return new VariantQueryKey("db", "findByRegions", region);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void waitForFollowers(VariantQueryCoalescer coalescer, long followers) throws InterruptedException {
+        waitForStatistic(coalescer, "coalesced", followers);
+    }
+
+    private static void waitForExecutions(VariantQueryCoalescer coalescer, long executions)
+            throws InterruptedException {
+        waitForStatistic(coalescer, "executions", executions);
+    }
+
+    private static void waitForStatistic(VariantQueryCoalescer coalescer, String statistic, long expected)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while ((long) coalescer.getStatistics().get(statistic) < expected) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for " + expected + " " + statistic + ", got "
+                             + coalescer.getStatistics().get(statistic));
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the eviction and leasing of the per-species adaptors of DBAdaptorConnector. The adaptors are not built, the
+ * closes are only recorded.
+ */
+public class DBAdaptorConnectorRegistryTest {
+
+    private Properties properties;
+
+    private List<String> closedSpecies;
+
+    @Before
+    public void setUp() {
+        properties = new Properties();
+        properties.put("eva.mongo.host", "localhost:27017");
+        closedSpecies = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @Test
+    public void testIdleSpeciesAreEvicted() throws Exception {
+        properties.put("eva.mongo.adaptors.idle-timeout", "1");
+        DBAdaptorConnector connector = new RecordingDBAdaptorConnector(properties);
+
+        connector.getSpeciesAdaptors("hsapiens_grch37");
+        connector.releaseAdaptors();
+        Thread.sleep(10);
+
+        connector.getSpeciesAdaptors("btaurus_umd31");
+        assertEquals(Collections.singletonList("hsapiens_grch37"), closedSpecies);
+        assertEquals(1, connector.getSpeciesCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedSpeciesIsEvicted() throws Exception {
+        properties.put("eva.mongo.adaptors.max-species", "2");
+        DBAdaptorConnector connector = new RecordingDBAdaptorConnector(properties);
+
+        connector.getSpeciesAdaptors("hsapiens_grch37");
+        Thread.sleep(2);
+        connector.getSpeciesAdaptors("btaurus_umd31");
+        Thread.sleep(2);
+        connector.getSpeciesAdaptors("hsapiens_grch37");
+        connector.releaseAdaptors();
+        Thread.sleep(2);
+
+        connector.getSpeciesAdaptors("ggallus_galgal4");
+        connector.releaseAdaptors();
+        assertEquals(Collections.singletonList("btaurus_umd31"), closedSpecies);
+        assertEquals(2, connector.getSpeciesCount());
+    }
+
+    @Test
+    public void testAdaptorsInUseAreClosedWhenReleased() throws Exception {
+        properties.put("eva.mongo.adaptors.max-species", "1");
+        DBAdaptorConnector connector = new RecordingDBAdaptorConnector(properties);
+
+        DBAdaptorConnector.SpeciesAdaptors inUse = connector.getSpeciesAdaptors("hsapiens_grch37");
+        Thread.sleep(2);
+        DBAdaptorConnector.SpeciesAdaptors other = connector.getSpeciesAdaptors("btaurus_umd31");
+
+        // evicted, but still leased by this thread
+        assertTrue(closedSpecies.isEmpty());
+        assertFalse(inUse.isClosed());
+        assertEquals(1, inUse.getLeases());
+
+        // a new request for the evicted species gets new adaptors
+        DBAdaptorConnector.SpeciesAdaptors reloaded = connector.getSpeciesAdaptors("hsapiens_grch37");
+        assertNotSame(inUse, reloaded);
+
+        connector.releaseAdaptors();
+        assertTrue(inUse.isClosed());
+        assertTrue(other.isClosed());
+        assertFalse(reloaded.isClosed());
+        assertEquals(0, reloaded.getLeases());
+        assertEquals(2, closedSpecies.size());
+    }
+
+    @Test
+    public void testAdaptorsAreLeasedByEachThread() throws Exception {
+        properties.put("eva.mongo.adaptors.max-species", "1");
+        DBAdaptorConnector connector = new RecordingDBAdaptorConnector(properties);
+
+        DBAdaptorConnector.SpeciesAdaptors shared = connector.getSpeciesAdaptors("hsapiens_grch37");
+        Thread otherRequest = new Thread(() -> {
+            try {
+                assertSame(shared, connector.getSpeciesAdaptors("hsapiens_grch37"));
+                connector.releaseAdaptors();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        otherRequest.start();
+        otherRequest.join();
+        assertEquals(1, shared.getLeases());
+
+        connector.releaseAdaptors();
+        assertEquals(0, shared.getLeases());
+        assertFalse(shared.isClosed());
+    }
+
+    @Test
+    public void testShutdownClosesAllAdaptors() throws Exception {
+        DBAdaptorConnector connector = new RecordingDBAdaptorConnector(properties);
+
+        DBAdaptorConnector.SpeciesAdaptors leased = connector.getSpeciesAdaptors("hsapiens_grch37");
+        connector.getSpeciesAdaptors("btaurus_umd31");
+        connector.closeAdaptors();
+
+        assertTrue(leased.isClosed());
+        assertEquals(2, closedSpecies.size());
+        assertEquals(0, connector.getSpeciesCount());
+
+        // releasing after the shutdown doesn't close them again
+        connector.releaseAdaptors();
+        assertEquals(2, closedSpecies.size());
+    }
+
+    private class RecordingDBAdaptorConnector extends DBAdaptorConnector {
+
+        RecordingDBAdaptorConnector(Properties properties) {
+            super(properties);
+        }
+
+        @Override
+        SpeciesAdaptors createSpeciesAdaptors(String species) {
+            return new SpeciesAdaptors(species, null) {
+                @Override
+                void closeAdaptors() {
+                    closedSpecies.add(species);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.lib.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for UcscBins
+ */
+public class UcscBinsTest {
+
+    @Test
+    public void testBinOfEachLevel() {
+        assertEquals(585, UcscBins.getBin(1, 1));
+        assertEquals(585, UcscBins.getBin(1, 131072));
+        assertEquals(586, UcscBins.getBin(131073, 131073));
+        assertEquals(73, UcscBins.getBin(131072, 131073));
+        assertEquals(9, UcscBins.getBin(1, 1024 * 1024 + 1));
+        assertEquals(1, UcscBins.getBin(1, 8 * 1024 * 1024 + 1));
+        assertEquals(0, UcscBins.getBin(1, 512 * 1024 * 1024));
+    }
+
+    @Test
+    public void testIntervalEndingAfter512MbUsesExtendedBins() {
+        assertEquals(4681, UcscBins.getBin(1, 600_000_000));
+        assertTrue(UcscBins.getBin(600_000_000, 600_000_000) > 4681 + 4681);
+    }
+
+    @Test
+    public void testInsertionIsBinnedAtItsStart() {
+        assertEquals(UcscBins.getBin(1000, 1000), UcscBins.getBin(1000, 999));
+    }
+
+    @Test
+    public void testOverlappingIntervalsAreInTheBinsOfTheRegion() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            long regionStart = 1 + random.nextInt(700_000_000);
+            long regionEnd = regionStart + random.nextInt(2_000_000);
+            List<Integer> bins = UcscBins.getOverlappingBins(regionStart, regionEnd);
+
+            long start = regionStart - random.nextInt(1_000_000) + random.nextInt(1_000_000);
+            long end = start + random.nextInt(i % 100 == 0 ? 100_000_000 : 10_000);
+            if (start >= 1 && start <= regionEnd && end >= regionStart) {
+                assertTrue(start + "-" + end + " not in the bins of " + regionStart + "-" + regionEnd,
+                           bins.contains(UcscBins.getBin(start, end)));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIntervalOutOfRange() {
+        UcscBins.getBin(1, 1L << 33);
+    }
+}
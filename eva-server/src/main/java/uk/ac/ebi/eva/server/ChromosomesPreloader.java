@@ -0,0 +1,78 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import uk.ac.ebi.eva.lib.repository.VariantEntityRepository;
+import uk.ac.ebi.eva.lib.utils.DBAdaptorConnector;
+import uk.ac.ebi.eva.lib.utils.MultiMongoDbFactory;
+
+/**
+ * Fills the chromosome caches of the configured species once the application has started, so the first request of
+ * each species doesn't have to wait for them, and starts computing the variant lengths that bound the region queries.
+ * The species are loaded one after another in a background thread. The chromosome summaries and the variant lengths
+ * are only requested here, as the repository always computes them in the background, and the web services report the
+ * summaries as not ready until then.
+ */
+@Component
+public class ChromosomesPreloader {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChromosomesPreloader.class);
+
+    @Autowired
+    private VariantEntityRepository variantEntityRepository;
+
+    @Value("${eva.mongo.chromosomes.preload-species:}")
+    private String[] species;
+
+    @Value("${eva.mongo.chromosomes.preload-summaries:false}")
+    private boolean preloadSummaries;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void preloadChromosomes() {
+        if (species.length == 0) {
+            return;
+        }
+        Thread preloader = new Thread(() -> {
+            for (String speciesName : species) {
+                MultiMongoDbFactory.setDatabaseNameForCurrentThread(DBAdaptorConnector.getDBName(speciesName.trim()));
+                try {
+                    variantEntityRepository.findDistinctChromosomes();
+                    variantEntityRepository.preloadVariantLengthStatistics();
+                    if (preloadSummaries) {
+                        variantEntityRepository.findChromosomeSummaries();
+                    }
+                    logger.info("Chromosomes of species {} preloaded", speciesName);
+                } catch (RuntimeException e) {
+                    logger.warn("Could not preload the chromosomes of species {}", speciesName, e);
+                }
+            }
+            MultiMongoDbFactory.clearDatabaseNameForCurrentThread();
+        }, "chromosomes-preloader");
+        preloader.setDaemon(true);
+        preloader.start();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.server;
+
+import org.opencb.biodata.ga4gh.GASearchVariantsResponse;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import uk.ac.ebi.eva.lib.utils.GA4GHProtobufEncoder;
+
+import java.io.IOException;
+
+/**
+ * Writes the GA4GH variant search responses with protocol buffers, see GA4GHProtobufEncoder. Requests with a
+ * protobuf body are not supported.
+ */
+public class GA4GHProtobufHttpMessageConverter extends AbstractHttpMessageConverter<GASearchVariantsResponse> {
+
+    public static final String APPLICATION_PROTOBUF_VALUE = "application/x-protobuf";
+
+    private final GA4GHProtobufEncoder encoder;
+
+    public GA4GHProtobufHttpMessageConverter(GA4GHProtobufEncoder encoder) {
+        super(MediaType.parseMediaType(APPLICATION_PROTOBUF_VALUE));
+        this.encoder = encoder;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return GASearchVariantsResponse.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected GASearchVariantsResponse readInternal(Class<? extends GASearchVariantsResponse> clazz,
+                                                    HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Protobuf requests are not supported");
+    }
+
+    @Override
+    protected void writeInternal(GASearchVariantsResponse response, HttpOutputMessage outputMessage)
+            throws IOException {
+        encoder.write(response, outputMessage.getBody());
+    }
+}
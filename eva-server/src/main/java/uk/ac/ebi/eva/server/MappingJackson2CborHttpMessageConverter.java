@@ -0,0 +1,39 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.util.Assert;
+
+/**
+ * Reads and writes CBOR (RFC 7049) with Jackson, like MappingJackson2SmileHttpMessageConverter does for Smile, which
+ * Spring does not provide for CBOR yet.
+ */
+public class MappingJackson2CborHttpMessageConverter extends AbstractJackson2HttpMessageConverter {
+
+    public static final String APPLICATION_CBOR_VALUE = "application/cbor";
+
+    public MappingJackson2CborHttpMessageConverter(ObjectMapper objectMapper) {
+        super(objectMapper, MediaType.parseMediaType(APPLICATION_CBOR_VALUE));
+        Assert.isInstanceOf(CBORFactory.class, objectMapper.getFactory(), "CBORFactory required");
+    }
+}
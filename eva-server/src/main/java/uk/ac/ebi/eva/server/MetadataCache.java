@@ -0,0 +1,160 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.server;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.opencb.datastore.core.QueryResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the results of the metadata queries (species, studies...), which change only when new data is loaded, so
+ * most requests don't reach the metadata databases.
+ *
+ * Each result lives for a configurable time and, when more keys than the maximum are cached, the least recently used
+ * ones are evicted. Concurrent requests for a missing or expired key wait for a single query instead of all running
+ * it. Every result carries an ETag and a Last-Modified date, so that clients can revalidate them with conditional
+ * requests.
+ */
+@Component
+public class MetadataCache {
+
+    @Value("${eva.metadata.cache.time-to-live:3600000}")
+    private long timeToLiveMillis;
+
+    @Value("${eva.metadata.cache.max-entries:1000}")
+    private int maxEntries;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param key Identifies the query, including all the parameters that change its result
+     * @param loader Runs the query, only if there is no valid result for the key
+     */
+    public CachedQueryResult get(String key, Supplier<QueryResult> loader) {
+        CachedQueryResult cachedQueryResult = entries.computeIfAbsent(key, k -> new Entry()).get(loader);
+        evictLeastRecentlyUsed();
+        return cachedQueryResult;
+    }
+
+    /**
+     * Discards every result, so the next requests query the databases again. Results being loaded right now are not
+     * affected.
+     */
+    public void invalidate() {
+        entries.clear();
+    }
+
+    private void evictLeastRecentlyUsed() {
+        while (entries.size() > maxEntries) {
+            entries.entrySet().stream()
+                   .min(Comparator.comparingLong(entry -> entry.getValue().lastAccess))
+                   .map(Map.Entry::getKey)
+                   .ifPresent(entries::remove);
+        }
+    }
+
+    private String computeETag(QueryResult queryResult) {
+        try {
+            // the result list only: the query times are different each time the query runs
+            byte[] serializedResult = objectMapper.writeValueAsBytes(queryResult.getResult());
+            return "\"" + DigestUtils.md5DigestAsHex(serializedResult) + "\"";
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Metadata query result could not be serialized", e);
+        }
+    }
+
+    private class Entry {
+
+        private volatile CachedQueryResult cachedQueryResult;
+
+        private volatile long lastAccess;
+
+        CachedQueryResult get(Supplier<QueryResult> loader) {
+            long now = System.currentTimeMillis();
+            lastAccess = now;
+            CachedQueryResult current = cachedQueryResult;
+            if (current != null && !current.isExpired(now)) {
+                return current;
+            }
+            synchronized (this) {
+                current = cachedQueryResult;
+                if (current == null || current.isExpired(now)) {
+                    QueryResult queryResult = loader.get();
+                    String eTag = computeETag(queryResult);
+                    // HTTP dates have a resolution of seconds; an unchanged result keeps its date
+                    long lastModified = (current != null && current.getETag().equals(eTag)) ?
+                            current.getLastModified() : now / 1000 * 1000;
+                    current = new CachedQueryResult(queryResult, eTag, lastModified, now + timeToLiveMillis);
+                    cachedQueryResult = current;
+                }
+                return current;
+            }
+        }
+    }
+
+    public static class CachedQueryResult {
+
+        private final QueryResult queryResult;
+
+        private final String eTag;
+
+        private final long lastModified;
+
+        private final long expirationTime;
+
+        CachedQueryResult(QueryResult queryResult, String eTag, long lastModified, long expirationTime) {
+            this.queryResult = queryResult;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.expirationTime = expirationTime;
+        }
+
+        /**
+         * The result is shared by all the requests, and must not be modified
+         */
+        public QueryResult getQueryResult() {
+            return queryResult;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expirationTime;
+        }
+    }
+}
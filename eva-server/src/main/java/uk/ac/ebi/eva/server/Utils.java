@@ -25,26 +25,66 @@ import org.opencb.datastore.core.QueryResult;
 import org.springframework.data.domain.PageRequest;
 
 import uk.ac.ebi.eva.commons.models.data.VariantSourceEntity;
+import uk.ac.ebi.eva.lib.repository.VariantEntityRepository;
+import uk.ac.ebi.eva.lib.repository.VariantSeekPosition;
+import uk.ac.ebi.eva.server.exception.InvalidPageTokenException;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class Utils {
 
+    private static final String PAGE_TOKEN_SEPARATOR = "\t";
+
+    private static final Pattern FIRST_PAGE_NUMBER_TOKEN = Pattern.compile("0+");
+
+    private static final Pattern PAGE_NUMBER_TOKEN = Pattern.compile("[0-9]+");
+
     private static Map<String, String> apiToMongoDocNameMap;
 
+    private static Map<String, String> apiToMongoIncludedDocNameMap;
+
     static {
         apiToMongoDocNameMap = initApiToMongoDocNameMap();
+        apiToMongoIncludedDocNameMap = initApiToMongoIncludedDocNameMap();
     }
 
     public static Map<String, String> getApiToMongoDocNameMap() {
         return Collections.unmodifiableMap(apiToMongoDocNameMap);
     }
 
+    /**
+     * Maps the "include" query option to the fields of the variant Mongo documents.
+     *
+     * @return the Mongo fields, or null if no fields were included
+     * @throws IllegalArgumentException if any of the fields is not recognised
+     */
+    public static List<String> getIncludedMongoFields(QueryOptions queryOptions) {
+        List<String> include = (List<String>) queryOptions.get("include");
+        if (include == null) {
+            return null;
+        }
+        List<String> includeMapped = new ArrayList<>();
+        for (String field : include) {
+            if (field.isEmpty()) {
+                continue;
+            }
+            String docPath = apiToMongoIncludedDocNameMap.get(field);
+            if (docPath == null) {
+                throw new IllegalArgumentException("Unrecognised include field: " + field);
+            }
+            includeMapped.add(docPath);
+        }
+        return includeMapped;
+    }
+
     public static PageRequest getPageRequest(QueryOptions queryOptions) {
         int limit = (queryOptions.get("limit") == null) ? 10 : (int) queryOptions.get("limit");
         int skip = (queryOptions.get("skip") == null) ? 0 : (int) queryOptions.get("skip");
@@ -70,6 +110,69 @@ public class Utils {
         return (idxLastElement < numTotalResults) ? String.valueOf(pageRequest.getPageNumber() + 1) : null;
     }
 
+    /**
+     * Encodes the position of the last variant returned as an opaque token, to resume the query from there.
+     *
+     * @return token for the next page, or null if there is no next page
+     */
+    public static String getNextPageToken(VariantSeekPosition nextPosition) {
+        if (nextPosition == null) {
+            return null;
+        }
+        String position = nextPosition.getChromosome() + PAGE_TOKEN_SEPARATOR + nextPosition.getStart()
+                + PAGE_TOKEN_SEPARATOR + nextPosition.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a token generated by {@link #getNextPageToken(VariantSeekPosition)}.
+     *
+     * The page numbers used as tokens by previous versions are still accepted for the first page ("0"). Encoded
+     * positions are never made only of digits, because the chromosome names they start with are ASCII.
+     *
+     * @return position to resume the query from, or null if no token is provided (first page)
+     * @throws InvalidPageTokenException if the token is malformed, or is a page number other than the first one
+     */
+    public static VariantSeekPosition getSeekPosition(String pageToken) {
+        if (pageToken == null || pageToken.isEmpty() || FIRST_PAGE_NUMBER_TOKEN.matcher(pageToken).matches()) {
+            return null;
+        }
+        if (PAGE_NUMBER_TOKEN.matcher(pageToken).matches()) {
+            throw new InvalidPageTokenException("Page numbers are no longer accepted as pageToken: " + pageToken
+                                                        + ", please request the first page again");
+        }
+        try {
+            String position = new String(Base64.getUrlDecoder().decode(pageToken), StandardCharsets.UTF_8);
+            String[] fields = position.split(PAGE_TOKEN_SEPARATOR, 3);
+            if (fields.length != 3) {
+                throw new InvalidPageTokenException("Malformed pageToken: " + pageToken);
+            }
+            return new VariantSeekPosition(fields[0], Integer.parseInt(fields[1]), fields[2]);
+        } catch (InvalidPageTokenException e) {
+            throw e;
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException and Base64 decoding errors are IllegalArgumentExceptions as well
+            throw new InvalidPageTokenException("Malformed pageToken: " + pageToken, e);
+        }
+    }
+
+    /**
+     * Reads the "genotypes" query option: "none", "sparse" or "full" (the default).
+     *
+     * @throws IllegalArgumentException if the value is not one of those
+     */
+    public static VariantEntityRepository.GenotypesMode getGenotypesMode(QueryOptions queryOptions) {
+        String genotypes = queryOptions.getString("genotypes");
+        if (genotypes == null || genotypes.isEmpty()) {
+            return VariantEntityRepository.GenotypesMode.FULL;
+        }
+        try {
+            return VariantEntityRepository.GenotypesMode.valueOf(genotypes.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unrecognised genotypes mode: " + genotypes, e);
+        }
+    }
+
     public static String createExclusionFieldString(List<String> excludeList) {
         List<String> formattedList = excludeList.stream().map(field -> String.format("'%s' : 0", field))
                                                 .collect(Collectors.toList());
@@ -85,6 +188,25 @@ public class Utils {
         return map;
     }
 
+    /**
+     * Fields that can be included, besides the ones that can be excluded. The coordinates are always retrieved
+     */
+    private static Map<String, String> initApiToMongoIncludedDocNameMap() {
+        Map<String, String> map = initApiToMongoDocNameMap();
+        map.put("ids", "ids");
+        map.put("hgvs", "hgvs");
+        map.put("chromosome", "chr");
+        map.put("start", "start");
+        map.put("end", "end");
+        map.put("reference", "ref");
+        map.put("alternate", "alt");
+        map.put("type", "type");
+        map.put("length", "len");
+        map.put("annotation.consequenceTypes", "annot.ct");
+        map.put("annotation.xrefs", "annot.xrefs");
+        return map;
+    }
+
     public static <T> QueryResult<T> buildQueryResult(List<T> results) {
         return buildQueryResult(results, results.size());
     }
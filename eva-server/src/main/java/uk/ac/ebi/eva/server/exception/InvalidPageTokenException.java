@@ -0,0 +1,34 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.server.exception;
+
+/**
+ * The page token sent by a client was not generated by this server, so the query cannot be resumed from it.
+ */
+@SuppressWarnings("serial")
+public class InvalidPageTokenException extends IllegalArgumentException {
+
+    public InvalidPageTokenException(String msg) {
+        super(msg);
+    }
+
+    public InvalidPageTokenException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
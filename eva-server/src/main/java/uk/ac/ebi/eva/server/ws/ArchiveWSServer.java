@@ -22,38 +22,53 @@ package uk.ac.ebi.eva.server.ws;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.swagger.annotations.Api;
+import org.opencb.datastore.core.QueryOptions;
 import org.opencb.datastore.core.QueryResponse;
 import org.opencb.datastore.core.QueryResult;
 import org.opencb.opencga.lib.auth.IllegalOpenCGACredentialsException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import uk.ac.ebi.eva.lib.metadata.ArchiveDgvaDBAdaptor;
 import uk.ac.ebi.eva.lib.metadata.ArchiveEvaproDBAdaptor;
 import uk.ac.ebi.eva.lib.metadata.StudyDgvaDBAdaptor;
 import uk.ac.ebi.eva.lib.metadata.StudyEvaproDBAdaptor;
+import uk.ac.ebi.eva.lib.repository.VariantEntityRepository;
 import uk.ac.ebi.eva.lib.repository.VariantStudySummaryRepository;
 import uk.ac.ebi.eva.lib.repository.projections.VariantStudySummary;
+import uk.ac.ebi.eva.lib.utils.ConnectionPoolStatistics;
 import uk.ac.ebi.eva.lib.utils.DBAdaptorConnector;
 import uk.ac.ebi.eva.lib.utils.MultiMongoDbFactory;
+import uk.ac.ebi.eva.server.MetadataCache;
 
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 
 /**
  * @author Cristina Yenyxe Gonzalez Garcia <cyenyxe@ebi.ac.uk>
  */
 @RestController
-@RequestMapping(value = "/v1/meta", produces = "application/json")
+@RequestMapping(value = "/v1/meta",
+        produces = {"application/json", EvaWSServer.APPLICATION_SMILE_VALUE, EvaWSServer.APPLICATION_CBOR_VALUE})
 @Api(tags = {"archive"})
 public class ArchiveWSServer extends EvaWSServer {
 
+    public static final String CACHE_ADMIN_TOKEN_HEADER = "X-Cache-Admin-Token";
+
     @Autowired
     private ArchiveDgvaDBAdaptor archiveDgvaDbAdaptor;
     @Autowired
@@ -65,6 +80,14 @@ public class ArchiveWSServer extends EvaWSServer {
     private StudyEvaproDBAdaptor studyEvaproDbAdaptor;
     @Autowired
     private VariantStudySummaryRepository variantStudySummaryRepository;
+    @Autowired
+    private VariantEntityRepository variantEntityRepository;
+
+    @Autowired
+    private MetadataCache metadataCache;
+
+    @Value("${eva.cache.admin-token:}")
+    private String cacheAdminToken;
 
     private Properties properties;
     
@@ -74,30 +97,47 @@ public class ArchiveWSServer extends EvaWSServer {
     }
 
     @RequestMapping(value = "/files/count", method = RequestMethod.GET)
-    public QueryResponse countFiles() {
-        return setQueryResponse(archiveEvaproDbAdaptor.countFiles());
+    public QueryResponse countFiles(WebRequest webRequest) {
+        QueryContext queryContext = initializeQuery();
+        return setCachedQueryResponse(queryContext, webRequest,
+                                      metadataCache.get("files/count", archiveEvaproDbAdaptor::countFiles));
     }
 
     @RequestMapping(value = "/species/count", method = RequestMethod.GET)
     public QueryResponse countSpecies() {
-        return setQueryResponse(archiveEvaproDbAdaptor.countSpecies());
+        QueryContext queryContext = initializeQuery();
+        return setQueryResponse(queryContext, archiveEvaproDbAdaptor.countSpecies());
     }
 
     @RequestMapping(value = "/species/list", method = RequestMethod.GET)
-    public QueryResponse getSpecies() {
-        return setQueryResponse(archiveEvaproDbAdaptor.getSpecies(properties.getProperty("eva.version"), true));
+    public QueryResponse getSpecies(WebRequest webRequest) {
+        QueryContext queryContext = initializeQuery();
+        String version = properties.getProperty("eva.version");
+        return setCachedQueryResponse(queryContext, webRequest,
+                                      metadataCache.get("species/list:" + version,
+                                                        () -> archiveEvaproDbAdaptor.getSpecies(version, true)));
+    }
+
+    @RequestMapping(value = "/connection-pools", method = RequestMethod.GET)
+    public QueryResponse getConnectionPoolStatistics() {
+        QueryContext queryContext = initializeQuery();
+        List<Map<String, Object>> statistics = ConnectionPoolStatistics.getConnectionPoolStatistics();
+        return setQueryResponse(queryContext, buildQueryResult(queryContext, statistics));
     }
 
     @RequestMapping(value = "/studies/count", method = RequestMethod.GET)
     public QueryResponse countStudies() {
-        return setQueryResponse(archiveEvaproDbAdaptor.countStudies());
+        QueryContext queryContext = initializeQuery();
+        return setQueryResponse(queryContext, archiveEvaproDbAdaptor.countStudies());
     }
 
     @RequestMapping(value = "/studies/all", method = RequestMethod.GET)
     public QueryResponse getStudies(@RequestParam(name = "species", required = false) String species,
                                     @RequestParam(name = "type", required = false) String types,
-                                    @RequestParam(name = "structural", defaultValue = "false") boolean structural) {
-        initializeQuery();
+                                    @RequestParam(name = "structural", defaultValue = "false") boolean structural,
+                                    WebRequest webRequest) {
+        QueryContext queryContext = initializeQuery();
+        QueryOptions queryOptions = queryContext.getQueryOptions();
         if (species != null && !species.isEmpty()) {
             queryOptions.put("species", Arrays.asList(species.split(",")));
         }
@@ -105,27 +145,29 @@ public class ArchiveWSServer extends EvaWSServer {
             queryOptions.put("type", Arrays.asList(types.split(",")));
         }
 
-        if (structural) {
-            return setQueryResponse(studyDgvaDbAdaptor.getAllStudies(queryOptions));
-        } else {
-            return setQueryResponse(studyEvaproDbAdaptor.getAllStudies(queryOptions));
-        }
+        String key = "studies/all:" + structural + ":" + new TreeMap<>(queryOptions);
+        MetadataCache.CachedQueryResult cachedQueryResult = metadataCache.get(key, () -> structural ?
+                studyDgvaDbAdaptor.getAllStudies(queryOptions) : studyEvaproDbAdaptor.getAllStudies(queryOptions));
+        return setCachedQueryResponse(queryContext, webRequest, cachedQueryResult);
     }
 
     @RequestMapping(value = "/studies/list", method = RequestMethod.GET)
     public QueryResponse getBrowsableStudies(@RequestParam("species") String species)
             throws IllegalOpenCGACredentialsException, IOException {
+        QueryContext queryContext = initializeQuery();
         MultiMongoDbFactory.setDatabaseNameForCurrentThread(DBAdaptorConnector.getDBName(species));
         List<VariantStudySummary> uniqueStudies = variantStudySummaryRepository.findBy();
-        QueryResult<VariantStudySummary> result = buildQueryResult(uniqueStudies);
-        return setQueryResponse(result);
+        QueryResult<VariantStudySummary> result = buildQueryResult(queryContext, uniqueStudies);
+        return setQueryResponse(queryContext, result);
     }
 
     @RequestMapping(value = "/studies/stats", method = RequestMethod.GET)
     public QueryResponse getStudiesStats(@RequestParam(name = "species", required = false) List<String> species,
                                          @RequestParam(name = "type", required = false) List<String> types,
-                                         @RequestParam(name = "structural", defaultValue = "false") boolean structural) {
-        initializeQuery();
+                                         @RequestParam(name = "structural", defaultValue = "false") boolean structural,
+                                         WebRequest webRequest) {
+        QueryContext queryContext = initializeQuery();
+        QueryOptions queryOptions = queryContext.getQueryOptions();
         if (species != null && !species.isEmpty()) {
             queryOptions.put("species", species);
         }
@@ -133,6 +175,13 @@ public class ArchiveWSServer extends EvaWSServer {
             queryOptions.put("type", types);
         }
 
+        String key = "studies/stats:" + structural + ":" + new TreeMap<>(queryOptions);
+        MetadataCache.CachedQueryResult cachedQueryResult = metadataCache.get(
+                key, () -> countStudiesPerSpeciesAndType(queryOptions, structural));
+        return setCachedQueryResponse(queryContext, webRequest, cachedQueryResult);
+    }
+
+    private QueryResult countStudiesPerSpeciesAndType(QueryOptions queryOptions, boolean structural) {
         QueryResult<Map.Entry<String, Long>> resultSpecies, resultTypes;
 
         if (structural) {
@@ -165,6 +214,71 @@ public class ArchiveWSServer extends EvaWSServer {
         }
         root.put("type", typesNode);
 
-        return setQueryResponse(combinedQueryResult);
+        return combinedQueryResult;
+    }
+
+    /**
+     * Clears the metadata cache. Only allowed with the admin token of the server, so the endpoint is disabled unless
+     * one is configured.
+     */
+    @RequestMapping(value = "/cache", method = RequestMethod.DELETE)
+    public QueryResponse invalidateMetadataCache(
+            @RequestHeader(name = CACHE_ADMIN_TOKEN_HEADER, required = false) String token,
+            HttpServletResponse response) {
+        QueryContext queryContext = initializeQuery();
+        if (!isCacheAdminToken(token)) {
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            return setErrorQueryResponse(queryContext, "Please provide a valid " + CACHE_ADMIN_TOKEN_HEADER);
+        }
+        metadataCache.invalidate();
+        return setQueryResponse(queryContext, "Metadata cache cleared");
+    }
+
+    /**
+     * Discards the cached variant queries of a species, for instance after loading new variants. Only allowed with the
+     * admin token of the server, like {@link #invalidateMetadataCache}.
+     */
+    @RequestMapping(value = "/query-cache", method = RequestMethod.DELETE)
+    public QueryResponse invalidateQueryCache(
+            @RequestHeader(name = CACHE_ADMIN_TOKEN_HEADER, required = false) String token,
+            @RequestParam("species") String species,
+            HttpServletResponse response) {
+        QueryContext queryContext = initializeQuery();
+        if (!isCacheAdminToken(token)) {
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            return setErrorQueryResponse(queryContext, "Please provide a valid " + CACHE_ADMIN_TOKEN_HEADER);
+        }
+        if (species.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return setErrorQueryResponse(queryContext, "Please specify a species");
+        }
+        MultiMongoDbFactory.setDatabaseNameForCurrentThread(DBAdaptorConnector.getDBName(species));
+        variantEntityRepository.invalidateCachedQueries();
+        return setQueryResponse(queryContext, "Variant queries cache of " + species + " cleared");
+    }
+
+    private boolean isCacheAdminToken(String token) {
+        if (cacheAdminToken.isEmpty() || token == null) {
+            return false;
+        }
+        // constant time comparison, so the token can't be guessed from the response times
+        return MessageDigest.isEqual(cacheAdminToken.getBytes(StandardCharsets.UTF_8),
+                                     token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @RequestMapping(value = "/query-cache", method = RequestMethod.GET)
+    public QueryResponse getQueryCacheStatistics() {
+        QueryContext queryContext = initializeQuery();
+        List<Map<String, Object>> statistics = Collections.singletonList(
+                variantEntityRepository.getQueryCacheStatistics());
+        return setQueryResponse(queryContext, buildQueryResult(queryContext, statistics));
+    }
+
+    @RequestMapping(value = "/query-coalescing", method = RequestMethod.GET)
+    public QueryResponse getQueryCoalescingStatistics() {
+        QueryContext queryContext = initializeQuery();
+        List<Map<String, Object>> statistics = Collections.singletonList(
+                variantEntityRepository.getQueryCoalescingStatistics());
+        return setQueryResponse(queryContext, buildQueryResult(queryContext, statistics));
     }
 }
@@ -19,46 +19,67 @@
 
 package uk.ac.ebi.eva.server.ws;
 
-import com.fasterxml.jackson.annotation.JsonInclude.Include;
-import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.google.common.base.Splitter;
-import org.opencb.biodata.models.feature.Genotype;
-import org.opencb.biodata.models.variant.VariantSource;
-import org.opencb.biodata.models.variant.VariantSourceEntry;
-import org.opencb.biodata.models.variant.stats.VariantStats;
 import org.opencb.datastore.core.QueryOptions;
 import org.opencb.datastore.core.QueryResponse;
 import org.opencb.datastore.core.QueryResult;
-import org.opencb.opencga.storage.core.variant.io.json.GenotypeJsonMixin;
-import org.opencb.opencga.storage.core.variant.io.json.VariantSourceEntryJsonMixin;
-import org.opencb.opencga.storage.core.variant.io.json.VariantSourceJsonMixin;
-import org.opencb.opencga.storage.core.variant.io.json.VariantStatsJsonMixin;
-import org.opencb.opencga.storage.core.variant.io.json.VariantStatsJsonSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.context.request.WebRequest;
 
 import uk.ac.ebi.eva.lib.utils.DBAdaptorConnector;
+import uk.ac.ebi.eva.lib.utils.GA4GHProtobufEncoder;
+import uk.ac.ebi.eva.lib.utils.VariantJsonMappers;
+import uk.ac.ebi.eva.server.GA4GHProtobufHttpMessageConverter;
+import uk.ac.ebi.eva.server.MappingJackson2CborHttpMessageConverter;
+import uk.ac.ebi.eva.server.MetadataCache;
 
 import javax.servlet.http.HttpServletRequest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class EvaWSServer {
 
     protected final String version = "v1";
 
+    /**
+     * When the exact number of results is not requested ("count=true"), the count stops at this value, and a
+     * numTotalResults equal to it is only a lower bound.
+     */
+    protected static final long CAPPED_COUNT_LIMIT = 10000;
+
+    /**
+     * Binary encodings of the responses, selected with the Accept header. JSON stays the first media type of every
+     * controller, so it is still used when the client accepts anything.
+     */
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+
+    public static final String APPLICATION_CBOR_VALUE = MappingJackson2CborHttpMessageConverter.APPLICATION_CBOR_VALUE;
+
+    public static final String APPLICATION_PROTOBUF_VALUE =
+            GA4GHProtobufHttpMessageConverter.APPLICATION_PROTOBUF_VALUE;
+
+    private static final List<MediaType> NEGOTIATED_MEDIA_TYPES = Arrays.asList(
+            MediaType.APPLICATION_JSON, MediaType.parseMediaType(APPLICATION_SMILE_VALUE),
+            MediaType.parseMediaType(APPLICATION_CBOR_VALUE));
+
     @Autowired
     protected HttpServletRequest httpServletRequest;
 
-    protected QueryOptions queryOptions;
-    protected long startTime;
-    protected long endTime;
-
     protected static Logger logger = LoggerFactory.getLogger(EvaWSServer.class);
 
     @Autowired
@@ -66,35 +87,44 @@ public class EvaWSServer {
 
     @Bean
     public Jackson2ObjectMapperBuilder jacksonBuilder() {
-        Jackson2ObjectMapperBuilder builder = new Jackson2ObjectMapperBuilder()
-                       .mixIn(VariantSourceEntry.class, VariantSourceEntryJsonMixin.class)
-                       .mixIn(Genotype.class, GenotypeJsonMixin.class)
-                       .mixIn(VariantStats.class, VariantStatsJsonMixin.class)
-                       .mixIn(VariantSource.class, VariantSourceJsonMixin.class)
-                       .serializationInclusion(Include.NON_NULL);
-        
-        SimpleModule module = new SimpleModule();
-        module.addSerializer(VariantStats.class, new VariantStatsJsonSerializer());
-        builder.modules(module);
-        
-        return builder;
+        return VariantJsonMappers.builder();
+    }
+
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter() {
+        return new MappingJackson2SmileHttpMessageConverter(jacksonBuilder().factory(new SmileFactory()).build());
+    }
+
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter() {
+        return new MappingJackson2CborHttpMessageConverter(jacksonBuilder().factory(new CBORFactory()).build());
+    }
+
+    @Bean
+    public GA4GHProtobufHttpMessageConverter ga4ghProtobufHttpMessageConverter() {
+        return new GA4GHProtobufHttpMessageConverter(new GA4GHProtobufEncoder(jacksonBuilder().build()));
     }
     
     public EvaWSServer() { }
 
-    protected void initializeQuery() {
-        startTime = System.currentTimeMillis();
-        initializeQueryOptions();
+    /**
+     * Parses the common query options of the current request. The returned context must be passed to the methods that
+     * build the response, so that concurrent requests don't share any state.
+     */
+    protected QueryContext initializeQuery() {
+        long startTime = System.currentTimeMillis();
+        return new QueryContext(initializeQueryOptions(), startTime);
     }
 
-    private void initializeQueryOptions() {
-        this.queryOptions = new QueryOptions();
+    private QueryOptions initializeQueryOptions() {
+        QueryOptions queryOptions = new QueryOptions();
         Map<String, String[]> multivaluedMap = httpServletRequest.getParameterMap();
 
         boolean metadata = (multivaluedMap.get("metadata") != null) ? multivaluedMap.get("metadata")[0].equals("true") : true ;
         int limit = (multivaluedMap.get("limit") != null) ? Integer.parseInt(multivaluedMap.get("limit")[0]) : -1;
         int skip = (multivaluedMap.get("skip") != null) ? Integer.parseInt(multivaluedMap.get("skip")[0]) : -1;
         boolean count = (multivaluedMap.get("count") != null) ? multivaluedMap.get("count")[0].equals("true") : false ;
+        String genotypes = (multivaluedMap.get("genotypes") != null) ? multivaluedMap.get("genotypes")[0] : "full";
 
         String[] exclude = multivaluedMap.get("exclude");
         String[] include = multivaluedMap.get("include");
@@ -105,11 +135,13 @@ public class EvaWSServer {
         queryOptions.put("limit", (limit > 0) ? limit : -1);
         queryOptions.put("skip", (skip > 0) ? skip : -1);
         queryOptions.put("count", count);
+        queryOptions.put("genotypes", genotypes);
         logger.debug(queryOptions.toJson());
+        return queryOptions;
     }
 
-    protected <T> QueryResponse<T> setQueryResponse(T obj) {
-        QueryResponse<T> queryResponse = buildQueryResponse();
+    protected <T> QueryResponse<T> setQueryResponse(QueryContext queryContext, T obj) {
+        QueryResponse<T> queryResponse = buildQueryResponse(queryContext);
 
         List<T> coll = new ArrayList<>();
         coll.add(obj);
@@ -118,35 +150,138 @@ public class EvaWSServer {
         return queryResponse;
     }
 
-    protected <T> QueryResponse<T> setErrorQueryResponse(String message) {
-        QueryResponse<T> queryResponse = buildQueryResponse();
+    /**
+     * Builds the response of a cached result, or returns null when the client sent the ETag or Last-Modified date of
+     * the same result, in which case the response has already been set to 304 Not Modified.
+     */
+    protected QueryResponse setCachedQueryResponse(QueryContext queryContext, WebRequest webRequest,
+                                                   MetadataCache.CachedQueryResult cachedQueryResult) {
+        String eTag = getNegotiatedETag(cachedQueryResult.getETag(), webRequest.getHeader(HttpHeaders.ACCEPT));
+        if (webRequest.checkNotModified(eTag, cachedQueryResult.getLastModified())) {
+            return null;
+        }
+        return setQueryResponse(queryContext, cachedQueryResult.getQueryResult());
+    }
+
+    /**
+     * The same result has different bytes in each format, so the ETag of a result in a binary format has the format
+     * appended, and the JSON ETag is left as it is
+     */
+    static String getNegotiatedETag(String eTag, String accept) {
+        MediaType mediaType = getNegotiatedMediaType(accept);
+        if (MediaType.APPLICATION_JSON.equals(mediaType)) {
+            return eTag;
+        }
+        return eTag.substring(0, eTag.length() - 1) + "-" + mediaType.getSubtype() + "\"";
+    }
+
+    /**
+     * @return the media type among NEGOTIATED_MEDIA_TYPES that the response will be written in, chosen like the
+     * message converters do: the most specific accepted media type with the highest quality wins, and wildcards select
+     * JSON. JSON for a missing or malformed Accept header too.
+     */
+    static MediaType getNegotiatedMediaType(String accept) {
+        if (accept == null || accept.isEmpty()) {
+            return MediaType.APPLICATION_JSON;
+        }
+        List<MediaType> acceptedMediaTypes;
+        try {
+            acceptedMediaTypes = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return MediaType.APPLICATION_JSON;
+        }
+        MediaType.sortBySpecificityAndQuality(acceptedMediaTypes);
+        for (MediaType acceptedMediaType : acceptedMediaTypes) {
+            if (acceptedMediaType.getQualityValue() == 0) {
+                continue;
+            }
+            for (MediaType mediaType : NEGOTIATED_MEDIA_TYPES) {
+                if (acceptedMediaType.includes(mediaType)) {
+                    return mediaType;
+                }
+            }
+        }
+        return MediaType.APPLICATION_JSON;
+    }
+
+    /**
+     * Builds a response with one element per object, in the same order, for endpoints that resolve several queries
+     * in a single request.
+     */
+    protected <T> QueryResponse<T> setQueryResponses(QueryContext queryContext, List<T> objs) {
+        QueryResponse<T> queryResponse = buildQueryResponse(queryContext);
+        queryResponse.setResponse(objs);
+        return queryResponse;
+    }
+
+    protected <T> QueryResponse<T> setErrorQueryResponse(QueryContext queryContext, String message) {
+        QueryResponse<T> queryResponse = buildQueryResponse(queryContext);
 
         queryResponse.setResponse(Collections.EMPTY_LIST);
         queryResponse.setError(message);
         return queryResponse;
     }
 
-    private <T> QueryResponse<T> buildQueryResponse() {
+    private <T> QueryResponse<T> buildQueryResponse(QueryContext queryContext) {
         QueryResponse<T> queryResponse = new QueryResponse<>();
-        endTime = System.currentTimeMillis();
+        long endTime = System.currentTimeMillis();
         queryResponse.setApiVersion(version);
-        queryResponse.setQueryOptions(queryOptions);
+        queryResponse.setQueryOptions(queryContext.getQueryOptions());
 
         // TODO why the QueryResponse.time is null when the tests get the QueryResponse from the WS? because it's a native int?
-        queryResponse.setTime(new Long(endTime - startTime).intValue());
+        queryResponse.setTime(new Long(endTime - queryContext.getStartTime()).intValue());
         return queryResponse;
     }
 
-    protected <T> QueryResult<T> buildQueryResult(List<T> results) {
-        return buildQueryResult(results, results.size());
+    protected <T> QueryResult<T> buildQueryResult(QueryContext queryContext, List<T> results) {
+        return buildQueryResult(queryContext, results, results.size());
+    }
+
+    /**
+     * @return Maximum number of results to count, or 0 if the exact number was requested
+     */
+    protected long getCountLimit(QueryContext queryContext) {
+        return queryContext.isExactCountRequested() ? 0 : CAPPED_COUNT_LIMIT;
+    }
+
+    /**
+     * Waits for a count issued with {@link #getCountLimit(QueryContext)} and builds the QueryResult with it
+     */
+    protected <T> QueryResult<T> buildQueryResult(QueryContext queryContext, List<T> results,
+                                                  CompletableFuture<Long> numTotalResults) {
+        long count;
+        try {
+            count = numTotalResults.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return queryContext.isExactCountRequested() ? buildQueryResult(queryContext, results, count)
+                                                    : buildCappedCountQueryResult(queryContext, results, count);
+    }
+
+    /**
+     * Builds a QueryResult whose total was counted up to {@link #CAPPED_COUNT_LIMIT}, flagging it with a warning
+     * when it is not exact.
+     */
+    protected <T> QueryResult<T> buildCappedCountQueryResult(QueryContext queryContext, List<T> results,
+                                                             long cappedCount) {
+        QueryResult<T> queryResult = buildQueryResult(queryContext, results, cappedCount);
+        if (cappedCount >= CAPPED_COUNT_LIMIT) {
+            queryResult.setWarningMsg("numTotalResults is a lower bound, there are at least " + cappedCount
+                                              + " results. Use count=true to get the exact number");
+        }
+        return queryResult;
     }
 
-    protected <T> QueryResult<T> buildQueryResult(List<T> results, long numTotalResults) {
+    protected <T> QueryResult<T> buildQueryResult(QueryContext queryContext, List<T> results, long numTotalResults) {
         QueryResult<T> queryResult = new QueryResult<>();
         queryResult.setResult(results);
         queryResult.setNumResults(results.size());
         queryResult.setNumTotalResults(numTotalResults);
-        queryResult.setDbTime(new Long(System.currentTimeMillis() - startTime).intValue());
+        queryResult.setDbTime(new Long(System.currentTimeMillis() - queryContext.getStartTime()).intValue());
         return queryResult;
     }
 }
@@ -43,7 +43,8 @@ import java.util.List;
  */
 
 @RestController
-@RequestMapping(value = "/v1/features", produces = "application/json")
+@RequestMapping(value = "/v1/features",
+        produces = {"application/json", EvaWSServer.APPLICATION_SMILE_VALUE, EvaWSServer.APPLICATION_CBOR_VALUE})
 @Api(tags = { "features" })
 public class FeatureWSServer extends EvaWSServer {
 
@@ -57,19 +58,19 @@ public class FeatureWSServer extends EvaWSServer {
                                               @RequestParam("species") String species,
                                               HttpServletResponse response)
             throws IllegalOpenCGACredentialsException, IOException {
-        initializeQuery();
+        QueryContext queryContext = initializeQuery();
 
         if (species.isEmpty()) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            return setErrorQueryResponse("Please specify a species");
+            return setErrorQueryResponse(queryContext, "Please specify a species");
         }
 
         MultiMongoDbFactory.setDatabaseNameForCurrentThread(DBAdaptorConnector.getDBName(species));
 
-        List<FeatureCoordinates> features = featureRepository.findByIdOrName(featureIdOrName, featureIdOrName);
+        List<FeatureCoordinates> features = featureRepository.findCachedByIdOrName(featureIdOrName);
 
-        QueryResult<FeatureCoordinates> queryResult = buildQueryResult(features);
-        return setQueryResponse(queryResult);
+        QueryResult<FeatureCoordinates> queryResult = buildQueryResult(queryContext, features);
+        return setQueryResponse(queryContext, queryResult);
     }
 
 }
@@ -41,7 +41,8 @@ import java.util.Arrays;
  * @author Cristina Yenyxe Gonzalez Garcia <cyenyxe@ebi.ac.uk>
  */
 @RestController
-@RequestMapping(value = "/v1/files", produces = "application/json")
+@RequestMapping(value = "/v1/files",
+        produces = {"application/json", EvaWSServer.APPLICATION_SMILE_VALUE, EvaWSServer.APPLICATION_CBOR_VALUE})
 @Api(tags = {"files"})
 public class FilesWSServer extends EvaWSServer {
 
@@ -55,17 +56,18 @@ public class FilesWSServer extends EvaWSServer {
 //    @ApiOperation(httpMethod = "GET", value = "Gets the files of a species")
     public QueryResponse getFiles(@RequestParam("species") String species)
             throws IllegalOpenCGACredentialsException, IOException {
-        initializeQuery();
+        QueryContext queryContext = initializeQuery();
 
         MultiMongoDbFactory.setDatabaseNameForCurrentThread(DBAdaptorConnector.getDBName(species));
-        return setQueryResponse(buildQueryResult(variantSourceEntityRepository.findAll()));
+        return setQueryResponse(queryContext, buildQueryResult(queryContext, variantSourceEntityRepository.findAll()));
     }
 
     @RequestMapping(value = "/{files}/url", method = RequestMethod.GET)
 //    @ApiOperation(httpMethod = "GET", value = "Gets the URL of a file")
     public QueryResponse getFileUrl(@PathVariable("files") String filenames) {
-        initializeQuery();
-        return setQueryResponse(variantSourceEvaproDbAdaptor.getSourceDownloadUrlByName(Arrays.asList(filenames.split(","))));
+        QueryContext queryContext = initializeQuery();
+        return setQueryResponse(queryContext, variantSourceEvaproDbAdaptor
+                .getSourceDownloadUrlByName(Arrays.asList(filenames.split(","))));
     }
 
 }
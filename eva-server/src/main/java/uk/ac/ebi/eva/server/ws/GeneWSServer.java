@@ -20,34 +20,57 @@
 package uk.ac.ebi.eva.server.ws;
 
 import io.swagger.annotations.Api;
+import org.opencb.biodata.models.feature.Region;
 import org.opencb.datastore.core.QueryResponse;
 import org.opencb.datastore.core.QueryResult;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import uk.ac.ebi.eva.commons.models.data.FeatureCoordinates;
 import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
 import uk.ac.ebi.eva.lib.filter.FilterBuilder;
 import uk.ac.ebi.eva.lib.filter.VariantEntityRepositoryFilter;
+import uk.ac.ebi.eva.lib.repository.FeatureRepository;
 import uk.ac.ebi.eva.lib.repository.VariantEntityRepository;
 import uk.ac.ebi.eva.lib.utils.DBAdaptorConnector;
 import uk.ac.ebi.eva.lib.utils.MultiMongoDbFactory;
 import uk.ac.ebi.eva.server.Utils;
 
 import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
-@RequestMapping(value = "/v1/genes", produces = "application/json")
+@RequestMapping(value = "/v1/genes",
+        produces = {"application/json", EvaWSServer.APPLICATION_SMILE_VALUE, EvaWSServer.APPLICATION_CBOR_VALUE})
 @Api(tags = { "genes" })
 public class GeneWSServer extends EvaWSServer {
 
     @Autowired
     private VariantEntityRepository variantEntityRepository;
 
+    @Autowired
+    private FeatureRepository featureRepository;
+
+    /**
+     * Query the variants of the genes by their coordinates, instead of by the gene xrefs of their annotation
+     */
+    @Value("${eva.mongo.variants.gene-coordinates-queries:false}")
+    private boolean geneCoordinatesQueries;
+
+    /**
+     * Bases added at both sides of a gene when querying by its coordinates, so the upstream and downstream variants
+     * annotated with the gene are found too. VEP annotates them up to 5000 bases away by default
+     */
+    @Value("${eva.mongo.variants.gene-coordinates-padding:5000}")
+    private int geneCoordinatesPadding = 5000;
+
     public GeneWSServer() { }
 
     @RequestMapping(value = "/{geneIds}/variants", method = RequestMethod.GET)
@@ -61,26 +84,56 @@ public class GeneWSServer extends EvaWSServer {
                                            @RequestParam(name = "sift", required = false) String siftScore,
                                            @RequestParam(name = "exclude", required = false) List<String> exclude,
                                            HttpServletResponse response) {
-        initializeQuery();
+        QueryContext queryContext = initializeQuery();
 
         if (species.isEmpty()) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            return setQueryResponse("Please specify a species");
+            return setQueryResponse(queryContext, "Please specify a species");
         }
 
         MultiMongoDbFactory.setDatabaseNameForCurrentThread(DBAdaptorConnector.getDBName(species));
 
-        List<VariantEntityRepositoryFilter> filters =
-                new FilterBuilder().getVariantEntityRepositoryFilters(maf, polyphenScore, siftScore, studies,
-                                                                      consequenceType);
+        VariantEntityRepository.GenotypesMode genotypesMode;
+        List<String> includeMapped;
+        try {
+            genotypesMode = Utils.getGenotypesMode(queryContext.getQueryOptions());
+            includeMapped = Utils.getIncludedMongoFields(queryContext.getQueryOptions());
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return setQueryResponse(queryContext, e.getMessage());
+        }
+
+        List<Region> geneRegions = geneCoordinatesQueries ? getGeneRegions(geneIds) : null;
+
+        // a region query uses the coordinates index, and the xrefs only filter out the variants of other genes
+        List<VariantEntityRepositoryFilter> filters = new FilterBuilder()
+                .withMaf(maf)
+                .withPolyphenScore(polyphenScore)
+                .withSiftScore(siftScore)
+                .withStudies(studies)
+                .withConsequenceType(consequenceType)
+                .withXrefs(geneRegions != null ? geneIds : null)
+                .build();
 
-        List<VariantEntity> variantEntities =
-                variantEntityRepository.findByGenesAndComplexFilters(geneIds, filters, exclude,
-                                                                     Utils.getPageRequest(queryOptions));
-        Long numTotalResults = variantEntityRepository.countByGenesAndComplexFilters(geneIds, filters);
+        CompletableFuture<Long> numTotalResults;
+        List<VariantEntity> variantEntities;
+        if (geneRegions != null) {
+            numTotalResults = variantEntityRepository.countByRegionsAndComplexFiltersAsync(
+                    geneRegions, filters, getCountLimit(queryContext));
+            variantEntities = variantEntityRepository.findByRegionsAndComplexFilters(
+                    geneRegions, filters, exclude, includeMapped,
+                    Utils.getPageRequest(queryContext.getQueryOptions()), genotypesMode);
+        } else {
+            // the count runs in parallel with the query for the page of results
+            numTotalResults = variantEntityRepository.countByGenesAndComplexFiltersAsync(
+                    geneIds, filters, getCountLimit(queryContext));
+            variantEntities = variantEntityRepository.findByGenesAndComplexFilters(
+                    geneIds, filters, exclude, includeMapped, Utils.getPageRequest(queryContext.getQueryOptions()),
+                    genotypesMode);
+        }
 
-        QueryResult<VariantEntity> queryResult = buildQueryResult(variantEntities, numTotalResults);
-        return setQueryResponse(queryResult);
+        QueryResult<VariantEntity> queryResult = buildQueryResult(queryContext, variantEntities, numTotalResults);
+        return setQueryResponse(queryContext, queryResult);
     }
 
     @RequestMapping(value = "/{geneIds}/variants", method = RequestMethod.POST)
@@ -97,4 +150,24 @@ public class GeneWSServer extends EvaWSServer {
                                  response);
     }
 
+    /**
+     * @return the coordinates of every feature with the given IDs or names, padded by geneCoordinatesPadding, or null
+     * if any of them is not a known feature, so the variants annotated with it are still found by xref
+     */
+    private List<Region> getGeneRegions(List<String> geneIds) {
+        List<Region> geneRegions = new ArrayList<>();
+        for (String geneId : geneIds) {
+            List<FeatureCoordinates> features = featureRepository.findCachedByIdOrName(geneId);
+            if (features.isEmpty()) {
+                return null;
+            }
+            for (FeatureCoordinates feature : features) {
+                geneRegions.add(new Region(feature.getChromosome(),
+                                           Math.max(1, feature.getStart() - geneCoordinatesPadding),
+                                           feature.getEnd() + geneCoordinatesPadding));
+            }
+        }
+        return geneRegions;
+    }
+
 }
@@ -0,0 +1,51 @@
+/*
+ * European Variation Archive (EVA) - Open-access database of all types of genetic
+ * variation data from all species
+ *
+ * Copyright 2017 EMBL - European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.ebi.eva.server.ws;
+
+import org.opencb.datastore.core.QueryOptions;
+
+/**
+ * State of a single request to the web services: the options parsed from its parameters and the time it started.
+ *
+ * The controllers are singletons shared by all the concurrent requests, so this state is created by
+ * {@link EvaWSServer#initializeQuery()} and passed along by each handler, instead of being kept in the controller.
+ */
+public class QueryContext {
+
+    private final QueryOptions queryOptions;
+
+    private final long startTime;
+
+    public QueryContext(QueryOptions queryOptions, long startTime) {
+        this.queryOptions = queryOptions;
+        this.startTime = startTime;
+    }
+
+    public QueryOptions getQueryOptions() {
+        return queryOptions;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public boolean isExactCountRequested() {
+        return queryOptions.getBoolean("count", false);
+    }
+}
@@ -19,6 +19,7 @@
 
 package uk.ac.ebi.eva.server.ws;
 
+import com.fasterxml.jackson.databind.ObjectWriter;
 import io.swagger.annotations.Api;
 import org.opencb.biodata.models.feature.Region;
 import org.opencb.datastore.core.QueryResponse;
@@ -28,16 +29,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
 import uk.ac.ebi.eva.lib.filter.FilterBuilder;
 import uk.ac.ebi.eva.lib.repository.VariantEntityRepository;
+import uk.ac.ebi.eva.lib.repository.projections.ChromosomeSummary;
 import uk.ac.ebi.eva.lib.utils.DBAdaptorConnector;
 import uk.ac.ebi.eva.lib.utils.MultiMongoDbFactory;
 import uk.ac.ebi.eva.lib.filter.VariantEntityRepositoryFilter;
@@ -45,19 +51,29 @@ import uk.ac.ebi.eva.server.Utils;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
-@RequestMapping(value = "/v1/segments", produces = "application/json")
+@RequestMapping(value = "/v1/segments",
+        produces = {"application/json", EvaWSServer.APPLICATION_SMILE_VALUE, EvaWSServer.APPLICATION_CBOR_VALUE})
 @Api(tags = { "segments" })
 public class RegionWSServer extends EvaWSServer {
 
     @Autowired
     private VariantEntityRepository variantEntityRepository;
 
+    /**
+     * Writes the streamed variants with the same configuration as the responses, built once for all the requests
+     */
+    private final ObjectWriter variantWriter = jacksonBuilder().build().writer();
+
     protected static Logger logger = LoggerFactory.getLogger(FeatureWSServer.class);
 
+    private static final int CHROMOSOME_SUMMARIES_RETRY_AFTER_SECONDS = 60;
+
     public RegionWSServer() {
     }
 
@@ -74,11 +90,11 @@ public class RegionWSServer extends EvaWSServer {
                                              @RequestParam(name = "exclude", required = false) List<String> exclude,
                                              HttpServletResponse response)
             throws IllegalOpenCGACredentialsException, IOException {
-        initializeQuery();
+        QueryContext queryContext = initializeQuery();
 
         if (species.isEmpty()) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            return setQueryResponse("Please specify a species");
+            return setQueryResponse(queryContext, "Please specify a species");
         }
 
         MultiMongoDbFactory.setDatabaseNameForCurrentThread(DBAdaptorConnector.getDBName(species));
@@ -86,7 +102,7 @@ public class RegionWSServer extends EvaWSServer {
         List<VariantEntityRepositoryFilter> filters = new FilterBuilder()
                 .getVariantEntityRepositoryFilters(maf, polyphenScore, siftScore, studies, consequenceType);
         List<Region> regions = Region.parseRegions(regionId);
-        PageRequest pageRequest = Utils.getPageRequest(queryOptions);
+        PageRequest pageRequest = Utils.getPageRequest(queryContext.getQueryOptions());
 
         List<String> excludeMapped = new ArrayList<>();
         if (exclude != null && !exclude.isEmpty()){
@@ -94,24 +110,100 @@ public class RegionWSServer extends EvaWSServer {
                 String docPath = Utils.getApiToMongoDocNameMap().get(e);
                 if (docPath == null) {
                     response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                    return setQueryResponse("Unrecognised exclude field: " + e);
+                    return setQueryResponse(queryContext, "Unrecognised exclude field: " + e);
                 }
                 excludeMapped.add(docPath);
             }
         }
 
+        VariantEntityRepository.GenotypesMode genotypesMode;
+        List<String> includeMapped;
+        try {
+            genotypesMode = Utils.getGenotypesMode(queryContext.getQueryOptions());
+            includeMapped = Utils.getIncludedMongoFields(queryContext.getQueryOptions());
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return setQueryResponse(queryContext, e.getMessage());
+        }
+
+        // the count runs in parallel with the query for the page of results
+        CompletableFuture<Long> numTotalResults = variantEntityRepository
+                .countByRegionsAndComplexFiltersAsync(regions, filters, getCountLimit(queryContext));
+
         List<VariantEntity> variantEntities =
-                variantEntityRepository.findByRegionsAndComplexFilters(regions, filters, excludeMapped, pageRequest);
+                variantEntityRepository.findByRegionsAndComplexFilters(regions, filters, excludeMapped, includeMapped,
+                                                                       pageRequest, genotypesMode);
 
-        Long numTotalResults = variantEntityRepository.countByRegionsAndComplexFilters(regions, filters);
+        QueryResult<VariantEntity> queryResult = buildQueryResult(queryContext, variantEntities, numTotalResults);
+        return setQueryResponse(queryContext, queryResult);
+    }
 
-        QueryResult<VariantEntity> queryResult = buildQueryResult(variantEntities, numTotalResults);
-        return setQueryResponse(queryResult);
+    /**
+     * Writes all the variants in the regions as newline-delimited JSON, one VariantEntity per line. There is no
+     * paging: the variants are read from a Mongo cursor and written as they arrive, so whole chromosomes can be
+     * downloaded without re-querying per page.
+     */
+    @RequestMapping(value = "/{regionId}/variants/stream", method = RequestMethod.GET,
+            produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> streamVariantsByRegion(
+            @PathVariable("regionId") String regionId,
+            @RequestParam(name = "species") String species,
+            @RequestParam(name = "studies", required = false) List<String> studies,
+            @RequestParam(name = "annot-ct", required = false) List<String> consequenceType,
+            @RequestParam(name = "maf", required = false) String maf,
+            @RequestParam(name = "polyphen", required = false) String polyphenScore,
+            @RequestParam(name = "sift", required = false) String siftScore,
+            @RequestParam(name = "exclude", required = false) List<String> exclude) {
+        if (species.isEmpty()) {
+            return streamErrorResponse("Please specify a species");
+        }
+
+        MultiMongoDbFactory.setDatabaseNameForCurrentThread(DBAdaptorConnector.getDBName(species));
+
+        List<VariantEntityRepositoryFilter> filters = new FilterBuilder()
+                .getVariantEntityRepositoryFilters(maf, polyphenScore, siftScore, studies, consequenceType);
+        List<Region> regions = Region.parseRegions(regionId);
+
+        List<String> excludeMapped = new ArrayList<>();
+        if (exclude != null && !exclude.isEmpty()){
+            for (String e : exclude) {
+                String docPath = Utils.getApiToMongoDocNameMap().get(e);
+                if (docPath == null) {
+                    return streamErrorResponse("Unrecognised exclude field: " + e);
+                }
+                excludeMapped.add(docPath);
+            }
+        }
+
+        // the cursor is opened in this thread, because the database name is only set for the current thread
+        CloseableIterator<VariantEntity> variantEntities =
+                variantEntityRepository.streamByRegionsAndComplexFilters(regions, filters, excludeMapped);
+
+        StreamingResponseBody responseBody = outputStream -> {
+            try {
+                while (variantEntities.hasNext()) {
+                    outputStream.write(variantWriter.writeValueAsBytes(variantEntities.next()));
+                    outputStream.write('\n');
+                }
+            } finally {
+                variantEntities.close();
+            }
+        };
+        return ResponseEntity.ok(responseBody);
+    }
+
+    private ResponseEntity<StreamingResponseBody> streamErrorResponse(String message) {
+        StreamingResponseBody responseBody = outputStream -> {
+            outputStream.write(message.getBytes(StandardCharsets.UTF_8));
+            outputStream.write('\n');
+        };
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(responseBody);
     }
 
     @RequestMapping(value = "/{regionId}/variants", method = RequestMethod.OPTIONS)
     public QueryResponse getVariantsByRegion() {
-        return setQueryResponse("");
+        QueryContext queryContext = initializeQuery();
+        return setQueryResponse(queryContext, "");
     }
 
     @RequestMapping(value = "", method = RequestMethod.GET)
@@ -120,14 +212,39 @@ public class RegionWSServer extends EvaWSServer {
     public QueryResponse getChromosomes(@RequestParam(name = "species") String species,
                                         HttpServletResponse response)
             throws IllegalOpenCGACredentialsException, IOException {
+        QueryContext queryContext = initializeQuery();
+
         if (species.isEmpty()) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            return setQueryResponse("Please specify a species");
+            return setQueryResponse(queryContext, "Please specify a species");
         }
 
         MultiMongoDbFactory.setDatabaseNameForCurrentThread(DBAdaptorConnector.getDBName(species));
         List<String> chromosomeList = new ArrayList<>(variantEntityRepository.findDistinctChromosomes());
-        QueryResult<String> queryResult = buildQueryResult(chromosomeList);
-        return setQueryResponse(queryResult);
+        QueryResult<String> queryResult = buildQueryResult(queryContext, chromosomeList);
+        return setQueryResponse(queryContext, queryResult);
+    }
+
+    @RequestMapping(value = "/summary", method = RequestMethod.GET)
+    public QueryResponse getChromosomeSummaries(@RequestParam(name = "species") String species,
+                                                HttpServletResponse response) {
+        QueryContext queryContext = initializeQuery();
+
+        if (species.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return setQueryResponse(queryContext, "Please specify a species");
+        }
+
+        MultiMongoDbFactory.setDatabaseNameForCurrentThread(DBAdaptorConnector.getDBName(species));
+        List<ChromosomeSummary> chromosomeSummaries = variantEntityRepository.findChromosomeSummaries();
+        if (chromosomeSummaries == null) {
+            // they are being computed in the background, as that reads every variant of the species
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", String.valueOf(CHROMOSOME_SUMMARIES_RETRY_AFTER_SECONDS));
+            return setQueryResponse(queryContext, "The chromosome summaries of species " + species
+                    + " are not ready yet, please try again later");
+        }
+        QueryResult<ChromosomeSummary> queryResult = buildQueryResult(queryContext, chromosomeSummaries);
+        return setQueryResponse(queryContext, queryResult);
     }
 }
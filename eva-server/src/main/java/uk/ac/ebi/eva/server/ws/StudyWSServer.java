@@ -20,6 +20,7 @@
 package uk.ac.ebi.eva.server.ws;
 
 import io.swagger.annotations.Api;
+import org.opencb.datastore.core.QueryOptions;
 import org.opencb.datastore.core.QueryResponse;
 import org.opencb.datastore.core.QueryResult;
 import org.opencb.opencga.lib.auth.IllegalOpenCGACredentialsException;
@@ -29,6 +30,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import uk.ac.ebi.eva.lib.metadata.StudyDgvaDBAdaptor;
 import uk.ac.ebi.eva.lib.metadata.StudyEvaproDBAdaptor;
@@ -37,18 +39,21 @@ import uk.ac.ebi.eva.lib.repository.VariantStudySummaryRepository;
 import uk.ac.ebi.eva.lib.repository.projections.VariantStudySummary;
 import uk.ac.ebi.eva.lib.utils.DBAdaptorConnector;
 import uk.ac.ebi.eva.lib.utils.MultiMongoDbFactory;
+import uk.ac.ebi.eva.server.MetadataCache;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.Collections;
 import java.util.List;
+import java.util.TreeMap;
 
 /**
  * @author Cristina Yenyxe Gonzalez Garcia <cyenyxe@ebi.ac.uk>
  */
 @RestController
-@RequestMapping(value = "/v1/studies", produces = "application/json")
+@RequestMapping(value = "/v1/studies",
+        produces = {"application/json", EvaWSServer.APPLICATION_SMILE_VALUE, EvaWSServer.APPLICATION_CBOR_VALUE})
 @Api(tags = {"studies"})
 public class StudyWSServer extends EvaWSServer {
 
@@ -60,6 +65,8 @@ public class StudyWSServer extends EvaWSServer {
     private VariantStudySummaryRepository variantStudySummaryRepository;
     @Autowired
     private VariantSourceEntityRepository variantSourceEntityRepository;
+    @Autowired
+    private MetadataCache metadataCache;
 
     @RequestMapping(value = "/{study}/files", method = RequestMethod.GET)
 //    @ApiOperation(httpMethod = "GET", value = "Retrieves all the files from a study", response = QueryResponse.class)
@@ -67,21 +74,21 @@ public class StudyWSServer extends EvaWSServer {
                                          @RequestParam("species") String species,
                                          HttpServletResponse response)
             throws UnknownHostException, IllegalOpenCGACredentialsException, IOException {
-        initializeQuery();
+        QueryContext queryContext = initializeQuery();
 
         MultiMongoDbFactory.setDatabaseNameForCurrentThread(DBAdaptorConnector.getDBName(species));
         List variantSourceEntityList = variantSourceEntityRepository.findByStudyIdOrStudyName(study, study);
         QueryResult queryResult;
 
         if (variantSourceEntityList.size() == 0) {
-            queryResult = buildQueryResult(Collections.emptyList());
+            queryResult = buildQueryResult(queryContext, Collections.emptyList());
             queryResult.setErrorMsg("Study identifier not found");
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            return setQueryResponse(queryResult);
+            return setQueryResponse(queryContext, queryResult);
         }
 
-        queryResult = buildQueryResult(variantSourceEntityList);
-        return setQueryResponse(queryResult);
+        queryResult = buildQueryResult(queryContext, variantSourceEntityList);
+        return setQueryResponse(queryContext, queryResult);
     }
 
     @RequestMapping(value = "/{study}/view", method = RequestMethod.GET)
@@ -90,29 +97,32 @@ public class StudyWSServer extends EvaWSServer {
                                   @RequestParam(name = "species") String species,
                                   HttpServletResponse response)
             throws UnknownHostException, IllegalOpenCGACredentialsException, IOException {
-        initializeQuery();
+        QueryContext queryContext = initializeQuery();
 
         MultiMongoDbFactory.setDatabaseNameForCurrentThread(DBAdaptorConnector.getDBName(species));
         VariantStudySummary variantStudySummary = variantStudySummaryRepository.findByStudyNameOrStudyId(study);
 
         QueryResult<VariantStudySummary> queryResult;
         if (variantStudySummary == null) {
-            queryResult = buildQueryResult(Collections.emptyList());
+            queryResult = buildQueryResult(queryContext, Collections.emptyList());
             queryResult.setErrorMsg("Study identifier not found");
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
         } else {
-            queryResult = buildQueryResult(Collections.singletonList(variantStudySummary));
+            queryResult = buildQueryResult(queryContext, Collections.singletonList(variantStudySummary));
         }
-        return setQueryResponse(queryResult);
+        return setQueryResponse(queryContext, queryResult);
     }
 
     @RequestMapping(value = "/{study}/summary", method = RequestMethod.GET)
     public QueryResponse getStudySummary(@PathVariable("study") String study,
-                                         @RequestParam(name = "structural", defaultValue = "false") boolean structural) {
-        if (structural) {
-            return setQueryResponse(studyDgvaDbAdaptor.getStudyById(study, queryOptions));
-        } else {
-            return setQueryResponse(studyEvaproDbAdaptor.getStudyById(study, queryOptions));
-        }
+                                         @RequestParam(name = "structural", defaultValue = "false") boolean structural,
+                                         WebRequest webRequest) {
+        QueryContext queryContext = initializeQuery();
+        QueryOptions queryOptions = queryContext.getQueryOptions();
+        String key = "studies/" + study + "/summary:" + structural + ":" + new TreeMap<>(queryOptions);
+        MetadataCache.CachedQueryResult cachedQueryResult = metadataCache.get(key, () -> structural ?
+                studyDgvaDbAdaptor.getStudyById(study, queryOptions) :
+                studyEvaproDbAdaptor.getStudyById(study, queryOptions));
+        return setCachedQueryResponse(queryContext, webRequest, cachedQueryResult);
     }
 }
@@ -26,7 +26,9 @@ import org.opencb.opencga.lib.auth.IllegalOpenCGACredentialsException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -46,9 +48,11 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
-@RequestMapping(value = "/v1/variants", produces = "application/json")
+@RequestMapping(value = "/v1/variants",
+        produces = {"application/json", EvaWSServer.APPLICATION_SMILE_VALUE, EvaWSServer.APPLICATION_CBOR_VALUE})
 @Api(tags = {"variants"})
 public class VariantWSServer extends EvaWSServer {
 
@@ -57,6 +61,11 @@ public class VariantWSServer extends EvaWSServer {
 
     protected static Logger logger = LoggerFactory.getLogger(FeatureWSServer.class);
 
+    /**
+     * Maximum number of identifiers or coordinates accepted by the batch endpoints
+     */
+    static final int MAX_BATCH_SIZE = 10000;
+
     @RequestMapping(value = "/{variantId}/info", method = RequestMethod.GET)
 //    @ApiOperation(httpMethod = "GET", value = "Retrieves the information about a variant", response = QueryResponse.class)
     public QueryResponse getVariantById(@PathVariable("variantId") String variantId,
@@ -69,24 +78,24 @@ public class VariantWSServer extends EvaWSServer {
                                         @RequestParam(name = "exclude", required = false) List<String> exclude,
                                         HttpServletResponse response)
             throws IllegalOpenCGACredentialsException, UnknownHostException, IOException {
-        initializeQuery();
+        QueryContext queryContext = initializeQuery();
 
         if (species.isEmpty()) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            return setQueryResponse("Please specify a species");
+            return setQueryResponse(queryContext, "Please specify a species");
         }
 
         MultiMongoDbFactory.setDatabaseNameForCurrentThread(DBAdaptorConnector.getDBName(species));
 
         List<VariantEntity> variantEntities;
-        Long numTotalResults;
+        QueryResult<VariantEntity> queryResult;
 
         if (variantId.contains(":")) {
             String[] regionId = variantId.split(":");
             String alternate = (regionId.length > 3) ? regionId[3] : null;
             variantEntities = queryByCoordinatesAndAlleles(regionId[0], Integer.parseInt(regionId[1]), regionId[2],
                                                            alternate);
-            numTotalResults = (long) variantEntities.size();
+            queryResult = buildQueryResult(queryContext, variantEntities);
         } else {
             List<VariantEntityRepositoryFilter> filters = new FilterBuilder()
                     .getVariantEntityRepositoryFilters(maf, polyphenScore, siftScore, studies, consequenceType);
@@ -97,20 +106,144 @@ public class VariantWSServer extends EvaWSServer {
                     String docPath = Utils.getApiToMongoDocNameMap().get(e);
                     if (docPath == null) {
                         response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                        return setQueryResponse("Unrecognised exclude field: " + e);
+                        return setQueryResponse(queryContext, "Unrecognised exclude field: " + e);
                     }
                     excludeMapped.add(docPath);
                 }
             }
 
+            List<String> includeMapped;
+            try {
+                includeMapped = Utils.getIncludedMongoFields(queryContext.getQueryOptions());
+            } catch (IllegalArgumentException e) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                return setQueryResponse(queryContext, e.getMessage());
+            }
+
+            // the count runs in parallel with the query for the page of results
+            CompletableFuture<Long> numTotalResults =
+                    variantEntityRepository.countByIdsAndComplexFiltersAsync(variantId, filters,
+                                                                             getCountLimit(queryContext));
+
+            PageRequest pageRequest = Utils.getPageRequest(queryContext.getQueryOptions());
             variantEntities = variantEntityRepository.findByIdsAndComplexFilters(variantId, filters, excludeMapped,
-                                                                                 Utils.getPageRequest(queryOptions));
+                                                                                 includeMapped, pageRequest);
+
+            queryResult = buildQueryResult(queryContext, variantEntities, numTotalResults);
+        }
+
+        return setQueryResponse(queryContext, queryResult);
+    }
+
+    /**
+     * Retrieves the variants of many identifiers or chr:pos:ref[:alt] coordinates, sent as a JSON array in the request
+     * body. The response contains one result per element of the array, in the same order.
+     */
+    @RequestMapping(value = "/batch", method = RequestMethod.POST)
+    public QueryResponse getVariantsByIds(@RequestBody List<String> variantIds,
+                                          @RequestParam(name = "studies", required = false) List<String> studies,
+                                          @RequestParam(name = "species") String species,
+                                          @RequestParam(name = "annot-ct", required = false)
+                                                  List<String> consequenceType,
+                                          @RequestParam(name = "maf", required = false) String maf,
+                                          @RequestParam(name = "polyphen", required = false) String polyphenScore,
+                                          @RequestParam(name = "sift", required = false) String siftScore,
+                                          @RequestParam(name = "exclude", required = false) List<String> exclude,
+                                          HttpServletResponse response) {
+        QueryContext queryContext = initializeQuery();
+
+        String batchError = checkBatch(variantIds, species);
+        if (batchError != null) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return setErrorQueryResponse(queryContext, batchError);
+        }
+
+        List<String> excludeMapped = new ArrayList<>();
+        if (exclude != null && !exclude.isEmpty()) {
+            for (String e : exclude) {
+                String docPath = Utils.getApiToMongoDocNameMap().get(e);
+                if (docPath == null) {
+                    response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    return setErrorQueryResponse(queryContext, "Unrecognised exclude field: " + e);
+                }
+                excludeMapped.add(docPath);
+            }
+        }
+
+        MultiMongoDbFactory.setDatabaseNameForCurrentThread(DBAdaptorConnector.getDBName(species));
+
+        List<VariantEntityRepositoryFilter> filters = new FilterBuilder()
+                .getVariantEntityRepositoryFilters(maf, polyphenScore, siftScore, studies, consequenceType);
+
+        List<List<VariantEntity>> variantEntities;
+        try {
+            variantEntities = variantEntityRepository.findByIdsOrCoordinatesAndComplexFilters(variantIds, filters,
+                                                                                              excludeMapped);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return setErrorQueryResponse(queryContext, e.getMessage());
+        }
+
+        List<QueryResult<VariantEntity>> queryResults = new ArrayList<>(variantIds.size());
+        for (int i = 0; i < variantIds.size(); i++) {
+            QueryResult<VariantEntity> queryResult = buildQueryResult(queryContext, variantEntities.get(i));
+            queryResult.setId(variantIds.get(i));
+            queryResults.add(queryResult);
+        }
+        return setQueryResponses(queryContext, queryResults);
+    }
 
-            numTotalResults = variantEntityRepository.countByIdsAndComplexFilters(variantId, filters);
+    /**
+     * Checks whether variants exist for many identifiers or chr:pos:ref[:alt] coordinates, sent as a JSON array in
+     * the request body. The response contains one result per element of the array, in the same order.
+     */
+    @RequestMapping(value = "/exists/batch", method = RequestMethod.POST)
+    public QueryResponse checkVariantsExist(@RequestBody List<String> variantIds,
+                                            @RequestParam(name = "studies", required = false) List<String> studies,
+                                            @RequestParam("species") String species,
+                                            HttpServletResponse response) {
+        QueryContext queryContext = initializeQuery();
+
+        String batchError = checkBatch(variantIds, species);
+        if (batchError != null) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return setErrorQueryResponse(queryContext, batchError);
         }
 
-        QueryResult<VariantEntity> queryResult = buildQueryResult(variantEntities, numTotalResults);
-        return setQueryResponse(queryResult);
+        MultiMongoDbFactory.setDatabaseNameForCurrentThread(DBAdaptorConnector.getDBName(species));
+
+        List<VariantEntityRepositoryFilter> filters = new FilterBuilder().withStudies(studies).build();
+
+        List<Boolean> exist;
+        try {
+            exist = variantEntityRepository.existsByIdsOrCoordinatesAndComplexFilters(variantIds, filters);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return setErrorQueryResponse(queryContext, e.getMessage());
+        }
+
+        List<QueryResult> queryResults = new ArrayList<>(variantIds.size());
+        for (int i = 0; i < variantIds.size(); i++) {
+            QueryResult queryResult = new QueryResult();
+            queryResult.setId(variantIds.get(i));
+            queryResult.setResult(Arrays.asList(exist.get(i)));
+            queryResult.setResultType(Boolean.class.getCanonicalName());
+            queryResults.add(queryResult);
+        }
+        return setQueryResponses(queryContext, queryResults);
+    }
+
+    private String checkBatch(List<String> variantIds, String species) {
+        if (species.isEmpty()) {
+            return "Please specify a species";
+        }
+        if (variantIds == null || variantIds.isEmpty()) {
+            return "Please specify at least one variant identifier or coordinates";
+        }
+        if (variantIds.size() > MAX_BATCH_SIZE) {
+            return "A batch can't contain more than " + MAX_BATCH_SIZE + " variant identifiers or coordinates";
+        }
+        return null;
     }
 
     private List<VariantEntity> queryByCoordinatesAndAlleles(String chromosome, int start, String reference, String alternate) {
@@ -129,17 +262,17 @@ public class VariantWSServer extends EvaWSServer {
                                             @RequestParam("species") String species,
                                             HttpServletResponse response)
             throws IllegalOpenCGACredentialsException, UnknownHostException, IOException {
-        initializeQuery();
+        QueryContext queryContext = initializeQuery();
 
         if (species.isEmpty()) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            return setQueryResponse("Please specify a species");
+            return setQueryResponse(queryContext, "Please specify a species");
         }
 
         MultiMongoDbFactory.setDatabaseNameForCurrentThread(DBAdaptorConnector.getDBName(species));
 
-        List<VariantEntity> variantEntities;
-        Long numTotalResults;
+        List<VariantEntityRepositoryFilter> filters = new FilterBuilder().withStudies(studies).build();
+        boolean exists;
 
         String invalidCoordinatesMessage =
                 "Invalid position and alleles combination, please use chr:pos:ref or chr:pos:ref:alt";
@@ -148,42 +281,20 @@ public class VariantWSServer extends EvaWSServer {
             String[] regionId = variantId.split(":", -1);
             if (regionId.length < 3) {
                 response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                return setErrorQueryResponse(invalidCoordinatesMessage);
+                return setErrorQueryResponse(queryContext, invalidCoordinatesMessage);
             }
 
             String alternate = (regionId.length > 3) ? regionId[3] : null;
-
-            if (studies != null && !studies.isEmpty()) {
-                variantEntities = queryByCoordinatesAndAllelesAndStudyIds(regionId[0], Integer.parseInt(regionId[1]),
-                                                                          regionId[2], alternate, studies);
-            } else {
-                variantEntities = queryByCoordinatesAndAlleles(regionId[0], Integer.parseInt(regionId[1]),
-                                                               regionId[2], alternate);
-            }
-
+            exists = variantEntityRepository.existsByChromosomeAndStartAndAllelesAndComplexFilters(
+                    regionId[0], Integer.parseInt(regionId[1]), regionId[2], alternate, filters);
         } else {
-            List<VariantEntityRepositoryFilter> filters = new FilterBuilder().withStudies(studies).build();
-            variantEntities = variantEntityRepository.findByIdsAndComplexFilters(variantId, filters, null, Utils.getPageRequest(queryOptions));
+            exists = variantEntityRepository.existsByIdsAndComplexFilters(variantId, filters);
         }
 
-        numTotalResults = (long) variantEntities.size();
         QueryResult queryResult = new QueryResult();
-        queryResult.setResult(Arrays.asList(numTotalResults > 0));
+        queryResult.setResult(Arrays.asList(exists));
         queryResult.setResultType(Boolean.class.getCanonicalName());
-        return setQueryResponse(queryResult);
-    }
-
-    private List<VariantEntity> queryByCoordinatesAndAllelesAndStudyIds(String chromosome, int start, String reference,
-                                                                        String alternate, List<String> studyIds) {
-        if (alternate != null) {
-            return variantEntityRepository.findByChromosomeAndStartAndReferenceAndAlternateAndStudyIn(chromosome, start,
-                                                                                                      reference,
-                                                                                                      alternate,
-                                                                                                      studyIds);
-        } else {
-            return variantEntityRepository.findByChromosomeAndStartAndReferenceAndStudyIn(chromosome, start, reference,
-                                                                                          studyIds);
-        }
+        return setQueryResponse(queryContext, queryResult);
     }
 
 }
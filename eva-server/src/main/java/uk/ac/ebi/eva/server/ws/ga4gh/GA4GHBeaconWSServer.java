@@ -30,7 +30,6 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
 import uk.ac.ebi.eva.lib.repository.VariantEntityRepository;
 import uk.ac.ebi.eva.lib.utils.DBAdaptorConnector;
 import uk.ac.ebi.eva.lib.utils.MultiMongoDbFactory;
@@ -42,7 +41,8 @@ import java.net.UnknownHostException;
 import java.util.List;
 
 @RestController
-@RequestMapping(value = "/v1/ga4gh", produces = "application/json")
+@RequestMapping(value = "/v1/ga4gh",
+        produces = {"application/json", EvaWSServer.APPLICATION_SMILE_VALUE, EvaWSServer.APPLICATION_CBOR_VALUE})
 @Api(tags = { "ga4gh" })
 public class GA4GHBeaconWSServer extends EvaWSServer {
 
@@ -60,8 +60,6 @@ public class GA4GHBeaconWSServer extends EvaWSServer {
                                       @RequestParam("datasetIds") List<String> studies,
                                       HttpServletResponse response) 
             throws UnknownHostException, IllegalOpenCGACredentialsException, IOException {
-        initializeQuery();
-
         if (start < 0) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             return new GA4GHBeaconResponse(chromosome, start, allele, String.join(",", studies),
@@ -70,17 +68,18 @@ public class GA4GHBeaconWSServer extends EvaWSServer {
 
         MultiMongoDbFactory.setDatabaseNameForCurrentThread(DBAdaptorConnector.getDBName("hsapiens_grch37"));
 
-        List<VariantEntity> variantEntities;
+        // most answers are negative, and those are resolved without querying the database, so variants loaded in the
+        // last minute may still be reported as absent (see VariantPresenceIndex)
+        boolean exists;
         if (allele.equalsIgnoreCase("INDEL")) {
-            variantEntities = variantEntityRepository.findByChromosomeAndStartAndTypeAndStudyIn(chromosome, start,
-                                                                                                Variant.VariantType.INDEL,
-                                                                                                studies);
+            exists = variantEntityRepository.existsByChromosomeAndStartAndTypeAndStudyIn(chromosome, start,
+                                                                                         Variant.VariantType.INDEL,
+                                                                                         studies);
         } else {
-            variantEntities = variantEntityRepository.findByChromosomeAndStartAndAltAndStudyIn(chromosome, start,
-                                                                                               allele, studies);
+            exists = variantEntityRepository.existsByChromosomeAndStartAndAltAndStudyIn(chromosome, start, allele,
+                                                                                        studies);
         }
 
-        return new GA4GHBeaconResponse(chromosome, start, allele, String.join(",", studies),
-                                       variantEntities.size() > 0);
+        return new GA4GHBeaconResponse(chromosome, start, allele, String.join(",", studies), exists);
     }
 }
@@ -53,7 +53,8 @@ import java.util.Map;
 import java.util.stream.Collectors;
 
 @RestController
-@RequestMapping(value = "/v1/ga4gh/callsets", produces = "application/json")
+@RequestMapping(value = "/v1/ga4gh/callsets",
+        produces = {"application/json", EvaWSServer.APPLICATION_SMILE_VALUE, EvaWSServer.APPLICATION_CBOR_VALUE})
 @Api(tags = { "ga4gh", "samples" })
 public class GA4GHVariantCallSetWSServer extends EvaWSServer {
 
@@ -73,8 +74,6 @@ public class GA4GHVariantCallSetWSServer extends EvaWSServer {
                                                 @RequestParam(name = "pageToken", required = false) String pageToken,
                                                 @RequestParam(name = "pageSize", defaultValue = "10") int limit)
             throws UnknownHostException, IllegalOpenCGACredentialsException, IOException {
-        initializeQuery();
-        
         if (files.isEmpty()) {
             throw new IllegalArgumentException("The 'variantSetIds' argument must not be empty");
         }
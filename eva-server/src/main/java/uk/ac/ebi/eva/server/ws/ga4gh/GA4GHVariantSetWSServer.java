@@ -49,7 +49,8 @@ import java.net.UnknownHostException;
 import java.util.List;
 
 @RestController
-@RequestMapping(value = "/v1/ga4gh/variantsets", produces = "application/json")
+@RequestMapping(value = "/v1/ga4gh/variantsets",
+        produces = {"application/json", EvaWSServer.APPLICATION_SMILE_VALUE, EvaWSServer.APPLICATION_CBOR_VALUE})
 @Api(tags = { "ga4gh", "files" })
 public class GA4GHVariantSetWSServer extends EvaWSServer {
 
@@ -69,8 +70,6 @@ public class GA4GHVariantSetWSServer extends EvaWSServer {
                                                       @RequestParam(name = "pageToken", required = false) String pageToken,
                                                       @RequestParam(name = "pageSize", defaultValue = "10") int limit)
             throws UnknownHostException, IllegalOpenCGACredentialsException, IOException {
-        initializeQuery();
-
         if (studies.isEmpty()) {
             throw new IllegalArgumentException("The 'datasetIds' argument must not be empty");
         }
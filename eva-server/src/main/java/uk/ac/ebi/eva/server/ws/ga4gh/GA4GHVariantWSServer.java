@@ -30,7 +30,6 @@ import org.opencb.opencga.lib.auth.IllegalOpenCGACredentialsException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -42,9 +41,12 @@ import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
 import uk.ac.ebi.eva.lib.filter.FilterBuilder;
 import uk.ac.ebi.eva.lib.filter.VariantEntityRepositoryFilter;
 import uk.ac.ebi.eva.lib.repository.VariantEntityRepository;
+import uk.ac.ebi.eva.lib.repository.VariantEntitySeekPage;
+import uk.ac.ebi.eva.lib.repository.VariantSeekPosition;
 import uk.ac.ebi.eva.lib.utils.DBAdaptorConnector;
 import uk.ac.ebi.eva.lib.utils.MultiMongoDbFactory;
 import uk.ac.ebi.eva.server.Utils;
+import uk.ac.ebi.eva.server.exception.InvalidPageTokenException;
 import uk.ac.ebi.eva.server.ws.EvaWSServer;
 
 import javax.servlet.http.HttpServletResponse;
@@ -55,7 +57,9 @@ import java.util.Collections;
 import java.util.List;
 
 @RestController
-@RequestMapping(value = "/v1/ga4gh/variants", produces = "application/json")
+@RequestMapping(value = "/v1/ga4gh/variants",
+        produces = {"application/json", EvaWSServer.APPLICATION_SMILE_VALUE, EvaWSServer.APPLICATION_CBOR_VALUE,
+                 EvaWSServer.APPLICATION_PROTOBUF_VALUE})
 @Api(tags = { "ga4gh", "variants" })
 public class GA4GHVariantWSServer extends EvaWSServer {
 
@@ -68,6 +72,9 @@ public class GA4GHVariantWSServer extends EvaWSServer {
     
     /**
      * "start" and "end" are 0-based, whereas all the position stored are 1-based
+     *
+     * The pageToken is opaque: it encodes the last variant returned, so every page is retrieved with an index seek
+     * from that variant instead of skipping all the previous pages.
      * 
      * @see http://ga4gh.org/documentation/api/v0.5/ga4gh_api.html#/schema/org.ga4gh.GASearchVariantsRequest
      */
@@ -81,31 +88,26 @@ public class GA4GHVariantWSServer extends EvaWSServer {
                                         @RequestParam(name = "pageToken", required = false) String pageToken,
                                         @RequestParam(name = "pageSize", defaultValue = "10") int limit)
             throws IllegalOpenCGACredentialsException, UnknownHostException, IOException {
-        initializeQuery();
-
         MultiMongoDbFactory.setDatabaseNameForCurrentThread(DBAdaptorConnector.getDBName("hsapiens_grch37"));
 
-        if (files != null && !files.isEmpty()) {
-            queryOptions.put("files", files);
-        }
         List<VariantEntityRepositoryFilter> filters = new FilterBuilder().withFiles(files).build();
 
-        PageRequest pageRequest = Utils.getPageRequest(limit, pageToken);
+        VariantSeekPosition seekPosition = Utils.getSeekPosition(pageToken);
 
         Region region = new Region(chromosome, start, end);
         List<Region> regions = new ArrayList<>();
         regions.add(region);
 
-        List<VariantEntity> variantEntities = variantEntityRepository.findByRegionsAndComplexFilters(regions, filters,
-                                                                                                     null, pageRequest);
+        VariantEntitySeekPage variantEntitySeekPage =
+                variantEntityRepository.findByRegionsAndComplexFiltersAfter(regions, filters, null, seekPosition,
+                                                                            (limit > 0) ? limit : 10);
+        List<VariantEntity> variantEntities = variantEntitySeekPage.getVariantEntities();
         List<Variant> variants = Collections.unmodifiableList(variantEntities);
 
-        Long numTotalResults = variantEntityRepository.countByRegionsAndComplexFilters(regions, filters);
-
         // Convert Variant objects to GAVariant
         List<GAVariant> gaVariants = GAVariantFactory.create(variants);
         // Calculate the next page token
-        String nextPageToken = Utils.getNextPageToken(pageRequest, limit, numTotalResults);
+        String nextPageToken = Utils.getNextPageToken(variantEntitySeekPage.getNextPosition());
 
         // Create the custom response for the GA4GH API
         return new GASearchVariantsResponse(gaVariants, nextPageToken);
@@ -124,4 +126,9 @@ public class GA4GHVariantWSServer extends EvaWSServer {
         response.sendError(HttpStatus.PAYLOAD_TOO_LARGE.value(), e.getMessage());
     }
 
+    @ExceptionHandler(InvalidPageTokenException.class)
+    public void handleException(InvalidPageTokenException e, HttpServletResponse response) throws IOException {
+        response.sendError(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+    }
+
 }
@@ -19,7 +19,10 @@
 package uk.ac.ebi.eva.server.ws;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -32,8 +35,11 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit4.SpringRunner;
 
@@ -46,12 +52,14 @@ import uk.ac.ebi.eva.lib.models.VariantStudy;
 import uk.ac.ebi.eva.lib.repository.VariantStudySummaryRepository;
 import uk.ac.ebi.eva.lib.repository.projections.VariantStudySummary;
 import uk.ac.ebi.eva.lib.utils.DBAdaptorConnector;
+import uk.ac.ebi.eva.server.MetadataCache;
 
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
@@ -68,11 +76,16 @@ import static org.mockito.BDDMockito.given;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 @RunWith(SpringRunner.class)
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "eva.cache.admin-token=" + ArchiveWSServerTest.CACHE_ADMIN_TOKEN)
 public class ArchiveWSServerTest {
 
+    static final String CACHE_ADMIN_TOKEN = "test-admin-token";
+
     @Autowired
     private TestRestTemplate restTemplate;
 
@@ -98,8 +111,13 @@ public class ArchiveWSServerTest {
     @MockBean
     private VariantStudySummaryRepository variantStudySummaryRepository;
 
+    @Autowired
+    private MetadataCache metadataCache;
+
     @Before
     public void setup() throws URISyntaxException, IOException, IllegalOpenCGACredentialsException {
+        metadataCache.invalidate();
+
         // species test data
         Assembly grch37 = new Assembly("GCA_000001405.1", "GCA_000001405", "1", "GRCh37", "grc3h7", 9606, "Human", "Homo Sapiens", "hsapiens", "human");
 
@@ -212,6 +230,29 @@ public class ArchiveWSServerTest {
         assertEquals(3, results.get(0).intValue());
     }
 
+    @Test
+    public void testCountSpeciesInBinaryFormats() throws IOException {
+        String url = "/v1/meta/species/count";
+        JsonNode jsonResult = getResponseTree(url, MediaType.APPLICATION_JSON_VALUE, new ObjectMapper());
+        assertEquals(3, jsonResult.get(0).intValue());
+
+        assertEquals(jsonResult, getResponseTree(url, EvaWSServer.APPLICATION_SMILE_VALUE,
+                                                 new ObjectMapper(new SmileFactory())));
+        assertEquals(jsonResult, getResponseTree(url, EvaWSServer.APPLICATION_CBOR_VALUE,
+                                                 new ObjectMapper(new CBORFactory())));
+    }
+
+    private JsonNode getResponseTree(String url, String mediaType, ObjectMapper objectMapper) throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(Collections.singletonList(MediaType.parseMediaType(mediaType)));
+        ResponseEntity<byte[]> response = restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers),
+                                                                byte[].class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertTrue(MediaType.parseMediaType(mediaType).isCompatibleWith(response.getHeaders().getContentType()));
+
+        return objectMapper.readTree(response.getBody()).get("response").get(0).get("result");
+    }
+
     @Test
     public void testGetSpecies() throws URISyntaxException {
         String url = "/v1/meta/species/list";
@@ -242,12 +283,153 @@ public class ArchiveWSServerTest {
         }
     }
 
+    @Test
+    public void testGetConnectionPoolStatistics() throws URISyntaxException {
+        String url = "/v1/meta/connection-pools";
+        ResponseEntity<QueryResponse<QueryResult<Map<String, Object>>>> response = restTemplate.exchange(
+                url, HttpMethod.GET, null,
+                new ParameterizedTypeReference<QueryResponse<QueryResult<Map<String, Object>>>>() {});
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+
+        QueryResponse<QueryResult<Map<String, Object>>> queryResponse = response.getBody();
+        assertEquals(1, queryResponse.getResponse().size());
+
+        for (Map<String, Object> pool : queryResponse.getResponse().get(0).getResult()) {
+            assertNotNull(pool.get("host"));
+            assertNotNull(pool.get("maxSize"));
+            assertNotNull(pool.get("checkedOutCount"));
+            assertNotNull(pool.get("waitQueueSize"));
+        }
+    }
+
+    @Test
+    public void testGetQueryCacheStatistics() throws URISyntaxException {
+        String url = "/v1/meta/query-cache";
+        ResponseEntity<QueryResponse<QueryResult<Map<String, Object>>>> response = restTemplate.exchange(
+                url, HttpMethod.GET, null,
+                new ParameterizedTypeReference<QueryResponse<QueryResult<Map<String, Object>>>>() {});
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+
+        List<Map<String, Object>> results = response.getBody().getResponse().get(0).getResult();
+        assertEquals(1, results.size());
+        assertNotNull(results.get(0).get("maxEntries"));
+        assertNotNull(results.get(0).get("hitRatio"));
+    }
+
+    @Test
+    public void testGetQueryCoalescingStatistics() throws URISyntaxException {
+        String url = "/v1/meta/query-coalescing";
+        ResponseEntity<QueryResponse<QueryResult<Map<String, Object>>>> response = restTemplate.exchange(
+                url, HttpMethod.GET, null,
+                new ParameterizedTypeReference<QueryResponse<QueryResult<Map<String, Object>>>>() {});
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+
+        List<Map<String, Object>> results = response.getBody().getResponse().get(0).getResult();
+        assertEquals(1, results.size());
+        assertNotNull(results.get(0).get("executions"));
+        assertNotNull(results.get(0).get("collapseRatio"));
+    }
+
     @Test
     public void testCountFiles() throws URISyntaxException {
         String url = "/v1/meta/files/count";
         assertGetCount(url, 5);
     }
 
+    @Test
+    public void testCachedResponsesAreRevalidatedWithETag() throws URISyntaxException {
+        String url = "/v1/meta/files/count";
+        ResponseEntity<QueryResponse<QueryResult<Integer>>> response = restTemplate.exchange(
+                url, HttpMethod.GET, null,
+                new ParameterizedTypeReference<QueryResponse<QueryResult<Integer>>>() {});
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        String eTag = response.getHeaders().getETag();
+        assertNotNull(eTag);
+        assertTrue(response.getHeaders().getLastModified() > 0);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch(eTag);
+        ResponseEntity<QueryResponse<QueryResult<Integer>>> conditionalResponse = restTemplate.exchange(
+                url, HttpMethod.GET, new HttpEntity<>(headers),
+                new ParameterizedTypeReference<QueryResponse<QueryResult<Integer>>>() {});
+        assertEquals(HttpStatus.NOT_MODIFIED, conditionalResponse.getStatusCode());
+
+        assertGetCount(url, 5);
+        verify(archiveEvaproDBAdaptor, times(1)).countFiles();
+    }
+
+    @Test
+    public void testETagAndVaryDependOnTheNegotiatedFormat() throws URISyntaxException {
+        String url = "/v1/meta/files/count";
+        ResponseEntity<byte[]> jsonResponse = getWithHeaders(url, MediaType.APPLICATION_JSON_VALUE, null);
+        ResponseEntity<byte[]> cborResponse = getWithHeaders(url, EvaWSServer.APPLICATION_CBOR_VALUE, null);
+        assertEquals(HttpStatus.OK, jsonResponse.getStatusCode());
+        assertEquals(HttpStatus.OK, cborResponse.getStatusCode());
+        assertTrue(jsonResponse.getHeaders().getVary().contains(HttpHeaders.ACCEPT));
+        assertTrue(cborResponse.getHeaders().getVary().contains(HttpHeaders.ACCEPT));
+
+        String jsonETag = jsonResponse.getHeaders().getETag();
+        String cborETag = cborResponse.getHeaders().getETag();
+        assertNotNull(jsonETag);
+        assertNotNull(cborETag);
+        assertNotEquals(jsonETag, cborETag);
+
+        // a client that cached the JSON response must not be told its copy is valid for CBOR
+        assertEquals(HttpStatus.OK,
+                     getWithHeaders(url, EvaWSServer.APPLICATION_CBOR_VALUE, jsonETag).getStatusCode());
+        assertEquals(HttpStatus.NOT_MODIFIED,
+                     getWithHeaders(url, EvaWSServer.APPLICATION_CBOR_VALUE, cborETag).getStatusCode());
+        assertEquals(HttpStatus.NOT_MODIFIED, getWithHeaders(url, "*/*", jsonETag).getStatusCode());
+    }
+
+    private ResponseEntity<byte[]> getWithHeaders(String url, String accept, String ifNoneMatch) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.ACCEPT, accept);
+        if (ifNoneMatch != null) {
+            headers.setIfNoneMatch(ifNoneMatch);
+        }
+        return restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+    }
+
+    @Test
+    public void testCacheCannotBeClearedWithoutTheAdminToken() throws URISyntaxException {
+        String url = "/v1/meta/files/count";
+        assertGetCount(url, 5);
+
+        assertEquals(HttpStatus.FORBIDDEN, deleteWithAdminToken("/v1/meta/cache", null).getStatusCode());
+        assertEquals(HttpStatus.FORBIDDEN, deleteWithAdminToken("/v1/meta/cache", "wrong-token").getStatusCode());
+
+        assertGetCount(url, 5);
+        verify(archiveEvaproDBAdaptor, times(1)).countFiles();
+    }
+
+    @Test
+    public void testInvalidateCacheWithTheAdminToken() throws URISyntaxException {
+        String url = "/v1/meta/files/count";
+        assertGetCount(url, 5);
+
+        assertEquals(HttpStatus.OK, deleteWithAdminToken("/v1/meta/cache", CACHE_ADMIN_TOKEN).getStatusCode());
+
+        assertGetCount(url, 5);
+        verify(archiveEvaproDBAdaptor, times(2)).countFiles();
+    }
+
+    @Test
+    public void testInvalidateQueryCacheOfASpecies() {
+        String url = "/v1/meta/query-cache?species=hsapiens_grch37";
+        assertEquals(HttpStatus.FORBIDDEN, deleteWithAdminToken(url, null).getStatusCode());
+        assertEquals(HttpStatus.FORBIDDEN, deleteWithAdminToken(url, "wrong-token").getStatusCode());
+        assertEquals(HttpStatus.OK, deleteWithAdminToken(url, CACHE_ADMIN_TOKEN).getStatusCode());
+    }
+
+    private ResponseEntity<String> deleteWithAdminToken(String url, String token) {
+        HttpHeaders headers = new HttpHeaders();
+        if (token != null) {
+            headers.set(ArchiveWSServer.CACHE_ADMIN_TOKEN_HEADER, token);
+        }
+        return restTemplate.exchange(url, HttpMethod.DELETE, new HttpEntity<>(headers), String.class);
+    }
+
     @Test
     public void testCountStudies() throws URISyntaxException {
         String url = "/v1/meta/studies/count";
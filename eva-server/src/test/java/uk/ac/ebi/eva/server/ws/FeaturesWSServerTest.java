@@ -61,7 +61,7 @@ public class FeaturesWSServerTest {
     @Before
     public void setup() throws URISyntaxException, IOException, IllegalOpenCGACredentialsException {
         FeatureCoordinates exampleFeature = new FeatureCoordinates("id", FEATURE_NAME, "feature", "chr", 0, 1);
-        given(featureRepository.findByIdOrName(FEATURE_NAME, FEATURE_NAME))
+        given(featureRepository.findCachedByIdOrName(FEATURE_NAME))
                 .willReturn(Collections.singletonList(exampleFeature));
     }
 
@@ -19,6 +19,7 @@ package uk.ac.ebi.eva.server.ws;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.opencb.biodata.models.feature.Region;
 import org.opencb.biodata.models.variant.annotation.VariantAnnotation;
 import org.opencb.biodata.models.variant.annotation.Xref;
 import org.opencb.datastore.core.QueryResponse;
@@ -32,19 +33,29 @@ import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import uk.ac.ebi.eva.commons.models.data.FeatureCoordinates;
 import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
+import uk.ac.ebi.eva.lib.filter.VariantEntityRepositoryFilter;
+import uk.ac.ebi.eva.lib.filter.VariantEntityRepositoryXrefFilter;
+import uk.ac.ebi.eva.lib.repository.FeatureRepository;
 import uk.ac.ebi.eva.lib.repository.VariantEntityRepository;
 import uk.ac.ebi.eva.lib.utils.DBAdaptorConnector;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.Assert.*;
+import static org.mockito.AdditionalMatchers.not;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
@@ -59,6 +70,12 @@ public class GeneWSServerTest {
     @MockBean
     private DBAdaptorConnector dbAdaptorConnector;
 
+    @MockBean
+    private FeatureRepository featureRepository;
+
+    @Autowired
+    private GeneWSServer geneWSServer;
+
     private String GENE_ID = "GeneId";
     private VariantEntity testVariantEntity;
 
@@ -78,9 +95,24 @@ public class GeneWSServerTest {
         List<String> geneIds = new ArrayList<>();
         geneIds.add(GENE_ID);
 
-        given(variantEntityRepository.findByGenesAndComplexFilters(eq(geneIds), any(), any(), any()
-        )).willReturn(variantEntities);
-        given(variantEntityRepository.countByGenesAndComplexFilters(eq(geneIds), any())).willReturn(1L);
+        given(variantEntityRepository.findByGenesAndComplexFilters(eq(geneIds), any(), any(), any(), any(),
+                                                                   any())).willReturn(variantEntities);
+        given(variantEntityRepository.countByGenesAndComplexFiltersAsync(eq(geneIds), any(), anyLong()))
+                .willReturn(CompletableFuture.completedFuture(1L));
+        given(variantEntityRepository.countByGenesAndComplexFiltersAsync(not(eq(geneIds)), any(), anyLong()))
+                .willReturn(CompletableFuture.completedFuture(0L));
+
+        given(featureRepository.findCachedByIdOrName(GENE_ID)).willReturn(
+                Collections.singletonList(new FeatureCoordinates(GENE_ID, "GeneName", "gene", chromosome, 900, 1100)));
+        // padded by the VEP upstream and downstream distance
+        List<Region> geneRegions = Collections.singletonList(new Region(chromosome, 1, 6100));
+        List<VariantEntityRepositoryFilter> xrefFilters = Collections.singletonList(
+                new VariantEntityRepositoryXrefFilter(geneIds));
+        given(variantEntityRepository.findByRegionsAndComplexFilters(eq(geneRegions), eq(xrefFilters), any(), any(),
+                                                                     any(), any())).willReturn(variantEntities);
+        given(variantEntityRepository.countByRegionsAndComplexFiltersAsync(eq(geneRegions), eq(xrefFilters),
+                                                                           anyLong()))
+                .willReturn(CompletableFuture.completedFuture(1L));
     }
 
     @Test
@@ -106,6 +138,29 @@ public class GeneWSServerTest {
         assertEquals(0, results.size());
     }
 
+    @Test
+    public void testGetVariantByGeneCoordinates() {
+        ReflectionTestUtils.setField(geneWSServer, "geneCoordinatesQueries", true);
+        try {
+            QueryResponse<QueryResult<VariantEntity>> queryResponse =
+                    testGetVariantByGeneHelper(Collections.singletonList(GENE_ID));
+            List<VariantEntity> results = queryResponse.getResponse().get(0).getResult();
+
+            assertEquals(1, results.size());
+            assertEquals(testVariantEntity, results.get(0));
+            verify(variantEntityRepository, never()).findByGenesAndComplexFilters(any(), any(), any(), any(), any(),
+                                                                                  any());
+
+            // an unknown feature is still searched by xref
+            assertEquals(0, testGetVariantByGeneHelper(Collections.singletonList("not_a_real_id")).getResponse()
+                                                                                               .get(0)
+                                                                                               .getResult()
+                                                                                               .size());
+        } finally {
+            ReflectionTestUtils.setField(geneWSServer, "geneCoordinatesQueries", false);
+        }
+    }
+
     private QueryResponse<QueryResult<VariantEntity>> testGetVariantByGeneHelper(List<String> geneIds) {
         String url = "/v1/genes/" + String.join(",", geneIds) + "/variants?species=mmusculus_grcm38";
         ResponseEntity<QueryResponse<QueryResult<VariantEntity>>> response = restTemplate.exchange(
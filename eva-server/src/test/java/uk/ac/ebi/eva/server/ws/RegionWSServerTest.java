@@ -29,6 +29,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -36,19 +37,29 @@ import org.springframework.test.context.junit4.SpringRunner;
 
 import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
 import uk.ac.ebi.eva.lib.repository.VariantEntityRepository;
+import uk.ac.ebi.eva.lib.repository.projections.ChromosomeSummary;
 
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.AdditionalMatchers.not;
 import static org.mockito.AdditionalMatchers.or;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 
 @RunWith(SpringRunner.class)
@@ -67,18 +78,53 @@ public class RegionWSServerTest {
 
         List<Region> oneRegion = Arrays.asList(
                 new Region("20", 60000, 62000));
-        given(variantEntityRepository.findByRegionsAndComplexFilters(eq(oneRegion), any(), any(), any()))
+        given(variantEntityRepository.findByRegionsAndComplexFilters(eq(oneRegion), any(), any(), any(), any(), any()))
                 .willReturn(Collections.singletonList(variantEntity));
 
         List<Region> twoRegions = Arrays.asList(
                 new Region("20", 60000, 61000),
                 new Region("20", 61500, 62500));
-        given(variantEntityRepository.findByRegionsAndComplexFilters(eq(twoRegions), any(), any(), any()))
+        given(variantEntityRepository.findByRegionsAndComplexFilters(eq(twoRegions), any(), any(), any(), any(), any()))
                 .willReturn(Arrays.asList(variantEntity, variantEntity));
 
         given(variantEntityRepository
-                .findByRegionsAndComplexFilters(not(or(eq(oneRegion), eq(twoRegions))), any(), any(), any()))
+                .findByRegionsAndComplexFilters(not(or(eq(oneRegion), eq(twoRegions))), any(), any(), any(), any(),
+                                                any()))
                 .willReturn(Collections.emptyList());
+
+        given(variantEntityRepository.countByRegionsAndComplexFiltersAsync(eq(oneRegion), any(), anyLong()))
+                .willReturn(CompletableFuture.completedFuture(1L));
+        given(variantEntityRepository.countByRegionsAndComplexFiltersAsync(eq(twoRegions), any(), anyLong()))
+                .willReturn(CompletableFuture.completedFuture(2L));
+        given(variantEntityRepository
+                .countByRegionsAndComplexFiltersAsync(not(or(eq(oneRegion), eq(twoRegions))), any(), anyLong()))
+                .willReturn(CompletableFuture.completedFuture(0L));
+
+        given(variantEntityRepository.streamByRegionsAndComplexFilters(eq(twoRegions), any(), any()))
+                .willReturn(closeableIterator(Arrays.asList(variantEntity, variantEntity)));
+        given(variantEntityRepository.streamByRegionsAndComplexFilters(not(eq(twoRegions)), any(), any()))
+                .willReturn(closeableIterator(Collections.emptyList()));
+
+        given(variantEntityRepository.findChromosomeSummaries()).willReturn(
+                Arrays.asList(new ChromosomeSummary("1", 10, 100, 5000), new ChromosomeSummary("20", 2, 60500, 61700)));
+    }
+
+    private static CloseableIterator<VariantEntity> closeableIterator(List<VariantEntity> variantEntities) {
+        Iterator<VariantEntity> iterator = variantEntities.iterator();
+        return new CloseableIterator<VariantEntity>() {
+            @Override
+            public void close() { }
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public VariantEntity next() {
+                return iterator.next();
+            }
+        };
     }
 
     @Test
@@ -96,6 +142,80 @@ public class RegionWSServerTest {
         testGetVariantsByRegionHelper("21:8000-9000", 0);
     }
 
+    @Test
+    public void testGetVariantsByRegionWithUnknownGenotypesMode() {
+        String url = "/v1/segments/20:60000-62000/variants?species=mmusculus_grcm38&genotypes=dense";
+        ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    public void testConcurrentRequestsKeepTheirOwnQueryOptions() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> limitsMatch = new ArrayList<>();
+            for (int limit = 1; limit <= 32; limit++) {
+                int requestedLimit = limit;
+                limitsMatch.add(executor.submit(() -> {
+                    String url = "/v1/segments/20:60000-62000/variants?species=mmusculus_grcm38&limit="
+                            + requestedLimit;
+                    ResponseEntity<QueryResponse<QueryResult<VariantEntity>>> response = restTemplate.exchange(
+                            url, HttpMethod.GET, null,
+                            new ParameterizedTypeReference<QueryResponse<QueryResult<VariantEntity>>>() {});
+                    return response.getBody().getQueryOptions().getInt("limit") == requestedLimit;
+                }));
+            }
+            for (Future<Boolean> limitMatches : limitsMatch) {
+                assertTrue(limitMatches.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testStreamVariantsByRegions() {
+        assertEquals(2, streamVariantsByRegionHelper("20:60000-61000,20:61500-62500"));
+    }
+
+    @Test
+    public void testStreamVariantsByNonExistingRegion() {
+        assertEquals(0, streamVariantsByRegionHelper("21:8000-9000"));
+    }
+
+    @Test
+    public void testGetChromosomeSummaries() {
+        String url = "/v1/segments/summary?species=mmusculus_grcm38";
+        ResponseEntity<QueryResponse<QueryResult<ChromosomeSummary>>> response = restTemplate.exchange(
+                url, HttpMethod.GET, null,
+                new ParameterizedTypeReference<QueryResponse<QueryResult<ChromosomeSummary>>>() {});
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+
+        List<ChromosomeSummary> results = response.getBody().getResponse().get(0).getResult();
+        assertEquals(2, results.size());
+        assertEquals(new ChromosomeSummary("20", 2, 60500, 61700), results.get(1));
+    }
+
+    @Test
+    public void testGetChromosomeSummariesNotReady() {
+        // the repository hasn't finished computing them in the background
+        given(variantEntityRepository.findChromosomeSummaries()).willReturn(null);
+
+        String url = "/v1/segments/summary?species=mmusculus_grcm38";
+        ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        assertNotNull(response.getHeaders().getFirst("Retry-After"));
+    }
+
+    private int streamVariantsByRegionHelper(String testRegion) {
+        String url = "/v1/segments/" + testRegion + "/variants/stream?species=mmusculus_grcm38";
+        ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+
+        String body = response.getBody();
+        return (body == null || body.isEmpty()) ? 0 : body.split("\n").length;
+    }
+
     private void testGetVariantsByRegionHelper(String testRegion, int expectedVariants) throws URISyntaxException {
         List<VariantEntity> results = regionWsHelper(testRegion);
         assertEquals(expectedVariants, results.size());
@@ -31,6 +31,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -41,15 +42,20 @@ import uk.ac.ebi.eva.lib.repository.VariantEntityRepository;
 import uk.ac.ebi.eva.lib.utils.DBAdaptorConnector;
 
 import java.net.URISyntaxException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalMatchers.not;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 
 /**
@@ -89,8 +95,33 @@ public class VariantWSServerTest {
                 .findByChromosomeAndStartAndReferenceAndAlternate(eq(CHROMOSOME), anyInt(), any(), any()))
                 .willReturn(variantEntities);
 
-        given(variantEntityRepository.findByIdsAndComplexFilters(eq(VARIANT_ID), any(), any(), any()))
+        given(variantEntityRepository.findByIdsAndComplexFilters(eq(VARIANT_ID), any(), any(), any(), any()))
                 .willReturn(variantEntities);
+        given(variantEntityRepository.countByIdsAndComplexFiltersAsync(eq(VARIANT_ID), any(), anyLong()))
+                .willReturn(CompletableFuture.completedFuture(1L));
+        given(variantEntityRepository.countByIdsAndComplexFiltersAsync(not(eq(VARIANT_ID)), any(), anyLong()))
+                .willReturn(CompletableFuture.completedFuture(0L));
+
+        given(variantEntityRepository.existsByIdsAndComplexFilters(eq(VARIANT_ID), any())).willReturn(true);
+        given(variantEntityRepository.existsByChromosomeAndStartAndAllelesAndComplexFilters(eq(CHROMOSOME), anyInt(),
+                                                                                           any(), any(), any()))
+                .willReturn(true);
+
+        given(variantEntityRepository.findByIdsOrCoordinatesAndComplexFilters(any(), any(), any()))
+                .willAnswer(invocation -> {
+                    List<String> variantIds = (List<String>) invocation.getArguments()[0];
+                    return variantIds.stream()
+                                     .map(id -> (id.equals(VARIANT_ID) || id.startsWith(CHROMOSOME + ":"))
+                                             ? variantEntities : Collections.<VariantEntity>emptyList())
+                                     .collect(Collectors.toList());
+                });
+        given(variantEntityRepository.existsByIdsOrCoordinatesAndComplexFilters(any(), any()))
+                .willAnswer(invocation -> {
+                    List<String> variantIds = (List<String>) invocation.getArguments()[0];
+                    return variantIds.stream()
+                                     .map(id -> id.equals(VARIANT_ID) || id.startsWith(CHROMOSOME + ":"))
+                                     .collect(Collectors.toList());
+                });
 
         Region region = new Region(CHROMOSOME, 1, 1);
         Region badRegion = new Region(NON_EXISTING_CHROMOSOME, 1, 1);
@@ -172,6 +203,52 @@ public class VariantWSServerTest {
         assertFalse(testCheckVariantExistsHelper(NON_EXISTING_VARIANT_ID));
     }
 
+    @Test
+    public void testGetVariantsBatch() {
+        List<String> variantIds = Arrays.asList(NON_EXISTING_VARIANT_ID, VARIANT_ID, CHROMOSOME + ":71822:C:G");
+        String url = "/v1/variants/batch?species=mmusculus_grcm38";
+        ResponseEntity<QueryResponse<QueryResult<VariantEntity>>> response = restTemplate.exchange(
+                url, HttpMethod.POST, new HttpEntity<>(variantIds),
+                new ParameterizedTypeReference<QueryResponse<QueryResult<VariantEntity>>>() {});
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+
+        List<QueryResult<VariantEntity>> queryResults = response.getBody().getResponse();
+        assertEquals(3, queryResults.size());
+        for (int i = 0; i < variantIds.size(); i++) {
+            assertEquals(variantIds.get(i), queryResults.get(i).getId());
+        }
+        assertEquals(0, queryResults.get(0).getResult().size());
+        assertEquals(Collections.singletonList(VARIANT), queryResults.get(1).getResult());
+        assertEquals(Collections.singletonList(VARIANT), queryResults.get(2).getResult());
+    }
+
+    @Test
+    public void testCheckVariantsExistBatch() {
+        List<String> variantIds = Arrays.asList(VARIANT_ID, NON_EXISTING_CHROMOSOME + ":1:C:G",
+                                                CHROMOSOME + ":1:C:G", NON_EXISTING_VARIANT_ID);
+        String url = "/v1/variants/exists/batch?species=mmusculus_grcm38";
+        ResponseEntity<QueryResponse<QueryResult<Boolean>>> response = restTemplate.exchange(
+                url, HttpMethod.POST, new HttpEntity<>(variantIds),
+                new ParameterizedTypeReference<QueryResponse<QueryResult<Boolean>>>() {});
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+
+        List<QueryResult<Boolean>> queryResults = response.getBody().getResponse();
+        assertEquals(4, queryResults.size());
+        assertTrue(queryResults.get(0).getResult().get(0));
+        assertFalse(queryResults.get(1).getResult().get(0));
+        assertTrue(queryResults.get(2).getResult().get(0));
+        assertFalse(queryResults.get(3).getResult().get(0));
+    }
+
+    @Test
+    public void testGetVariantsBatchWithoutIdentifiers() {
+        String url = "/v1/variants/batch?species=mmusculus_grcm38";
+        ResponseEntity<QueryResponse<QueryResult<VariantEntity>>> response = restTemplate.exchange(
+                url, HttpMethod.POST, new HttpEntity<>(Collections.emptyList()),
+                new ParameterizedTypeReference<QueryResponse<QueryResult<VariantEntity>>>() {});
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
     private Boolean testCheckVariantExistsHelper(String testIdRegion) throws URISyntaxException {
         String url = "/v1/variants/" + testIdRegion + "/exists?species=mmusculus_grcm38";
         ResponseEntity<QueryResponse<QueryResult<Boolean>>> response = restTemplate.exchange(
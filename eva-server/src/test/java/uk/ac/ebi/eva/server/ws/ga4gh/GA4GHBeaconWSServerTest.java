@@ -29,11 +29,9 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit4.SpringRunner;
 
-import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
 import uk.ac.ebi.eva.lib.repository.VariantEntityRepository;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
@@ -56,11 +54,8 @@ public class GA4GHBeaconWSServerTest {
 
     @Before
     public void setUp() throws Exception {
-        VariantEntity variant = new VariantEntity("1", 1000, 1005, "reference", "alternate");
-        List<VariantEntity> variantEntities = Collections.singletonList(variant);
-
-        given(variantEntityRepository.findByChromosomeAndStartAndAltAndStudyIn(eq("1"), anyInt(), any(), any()))
-                .willReturn(variantEntities);
+        given(variantEntityRepository.existsByChromosomeAndStartAndAltAndStudyIn(eq("1"), anyInt(), any(), any()))
+                .willReturn(true);
     }
 
     @Test
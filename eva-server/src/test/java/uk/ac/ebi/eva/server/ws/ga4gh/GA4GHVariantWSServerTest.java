@@ -18,6 +18,8 @@
  */
 package uk.ac.ebi.eva.server.ws.ga4gh;
 
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnknownFieldSet;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -29,20 +31,28 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import uk.ac.ebi.eva.commons.models.metadata.VariantEntity;
 import uk.ac.ebi.eva.lib.repository.VariantEntityRepository;
+import uk.ac.ebi.eva.lib.repository.VariantEntitySeekPage;
+import uk.ac.ebi.eva.server.ws.EvaWSServer;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.AdditionalMatchers.not;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
 
 @RunWith(SpringRunner.class)
@@ -66,14 +76,18 @@ public class GA4GHVariantWSServerTest {
 
         Region region = new Region("1", 500, 2000);
 
-        given(variantEntityRepository.findByRegionsAndComplexFilters(eq(Collections.singletonList(region)),
-                                                                     any(),
-                                                                     any(),
-                                                                     any()))
-                .willReturn(variantEntities);
-        given(variantEntityRepository.countByRegionsAndComplexFilters(eq(Collections.singletonList(region)),
-                                                                     any()))
-                .willReturn(Long.valueOf(variantEntities.size()));
+        given(variantEntityRepository.findByRegionsAndComplexFiltersAfter(eq(Collections.singletonList(region)),
+                                                                          any(),
+                                                                          any(),
+                                                                          any(),
+                                                                          anyInt()))
+                .willReturn(new VariantEntitySeekPage(variantEntities, null));
+        given(variantEntityRepository.findByRegionsAndComplexFiltersAfter(not(eq(Collections.singletonList(region))),
+                                                                          any(),
+                                                                          any(),
+                                                                          any(),
+                                                                          anyInt()))
+                .willReturn(new VariantEntitySeekPage(Collections.emptyList(), null));
     }
 
     @Test
@@ -85,6 +99,28 @@ public class GA4GHVariantWSServerTest {
                      gaSearchVariantsResponse.getVariants());
     }
 
+    @Test
+    public void testRegionWithVariantsInProtobuf() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(Collections.singletonList(MediaType.parseMediaType(EvaWSServer.APPLICATION_PROTOBUF_VALUE)));
+        ResponseEntity<byte[]> response = restTemplate.exchange(
+                "/v1/ga4gh/variants/search?referenceName=1&start=500&end=2000&pageSize=10", HttpMethod.GET,
+                new HttpEntity<>(headers), byte[].class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(MediaType.parseMediaType(EvaWSServer.APPLICATION_PROTOBUF_VALUE),
+                     response.getHeaders().getContentType());
+
+        // see "ga4gh/variants.proto" for the field numbers
+        List<ByteString> variants = UnknownFieldSet.parseFrom(response.getBody())
+                                                   .getField(1).getLengthDelimitedList();
+        assertEquals(1, variants.size());
+
+        UnknownFieldSet gaVariant = UnknownFieldSet.parseFrom(variants.get(0));
+        assertEquals("1", gaVariant.getField(6).getLengthDelimitedList().get(0).toStringUtf8());
+        assertEquals("A", gaVariant.getField(9).getLengthDelimitedList().get(0).toStringUtf8());
+        assertEquals("C", gaVariant.getField(10).getLengthDelimitedList().get(0).toStringUtf8());
+    }
+
     @Test
     public void testRegionWithNoVariants() throws Exception {
         GASearchVariantsResponse gaSearchVariantsResponse = testVariantWsHelper("2", 5000, 10000, new ArrayList<>(),
@@ -92,6 +128,23 @@ public class GA4GHVariantWSServerTest {
         assertEquals(0, gaSearchVariantsResponse.getVariants().size());
     }
 
+    @Test
+    public void testMalformedPageToken() throws Exception {
+        assertPageTokenIsRejected("not-a-token");
+    }
+
+    @Test
+    public void testPageNumberAfterTheFirstIsRejected() throws Exception {
+        assertPageTokenIsRejected("1");
+    }
+
+    private void assertPageTokenIsRejected(String pageToken) {
+        ResponseEntity<String> response = restTemplate.getForEntity(
+                "/v1/ga4gh/variants/search?referenceName=1&start=500&end=2000&pageSize=10&pageToken=" + pageToken,
+                String.class);
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
     private GASearchVariantsResponse testVariantWsHelper(String chromosome, int start, int end,
                                                          List<String> variantSetIds, String pageToken, int pageSize) {
 